@@ -0,0 +1,274 @@
+/*
+    Adam Mehdi & Syed Safwaan
+    Assets.java
+    Loading the game's images once, in the background, and sharing them.
+
+    Classes:
+    - Assets        Decodes everything in Images/ on a pool of threads at startup and hands out one shared copy of each
+    - AssetIcon     An Icon for an image that may still be loading, drawing a placeholder until it's ready
+*/
+
+import javax.imageio.ImageIO;
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.concurrent.*;
+
+class Assets {
+
+	/* Every image under Images/ is decoded with ImageIO on a pool of worker threads as soon as preload() is
+	   called, so the menus can be built straight away while the pictures are still on their way. Each image is
+	   kept once, converted to whatever the screen draws fastest, and every size it's asked for is scaled once
+	   and kept too, so the nine Menus and Ships that all want the same background or sprite share one copy.
+
+	   Names are looked up ignoring case, since not every file's name is capitalised the way the code asks for
+	   it (Button_RESTART0.png is really button_RESTART0.png). */
+
+	// Fields //
+
+	public static final String DIRECTORY = "Images";
+
+	private static final ConcurrentHashMap<String, CompletableFuture<BufferedImage>> originals = new ConcurrentHashMap<>();
+	private static final ConcurrentHashMap<String, AssetIcon> icons = new ConcurrentHashMap<>();
+	private static final ExecutorService workers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+		Thread thread = new Thread(runnable, "AssetLoader");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	// Startup timing
+	private static final long launchNanos = System.nanoTime();
+	private static volatile long firstMenuNanos, allDecodedNanos;
+	private static volatile int preloaded;
+
+	public static synchronized void preload() {
+
+		/* Starts decoding every image in the Images folder, if that hasn't been started already. */
+
+		if (preloaded > 0) return;
+		ImageIO.setUseCache(false);  // decode in memory rather than through temporary files
+
+		File[] files = new File(DIRECTORY).listFiles();
+		if (files == null) return;
+		ArrayList<CompletableFuture<BufferedImage>> all = new ArrayList<>();
+		for (File file : files) {
+			if (file.isFile()) all.add(original(file.getName()));
+		}
+		preloaded = all.size();
+		CompletableFuture.allOf(all.toArray(new CompletableFuture<?>[0])).thenRun(() -> allDecodedNanos = System.nanoTime());
+	}
+
+	public static AssetIcon icon(String name) {
+
+		/* Returns the image with a given file name (in the Images folder), at its own size. */
+
+		return icon(name, -1, -1);
+	}
+
+	public static AssetIcon icon(String name, int width, int height) {
+
+		/* Returns the image with a given file name (in the Images folder), scaled to a given size. Asking for
+		   the same image at the same size again gives back the same AssetIcon. */
+
+		return icons.computeIfAbsent(key(name) + "@" + width + "x" + height, key -> {
+			CompletableFuture<BufferedImage> image = original(name);
+			if (width >= 0) image = image.thenApplyAsync(decoded -> scale(decoded, width, height), workers);
+			return new AssetIcon(image, width, height);
+		});
+	}
+
+	private static CompletableFuture<BufferedImage> original(String name) {
+
+		/* Returns the decoded image with a given file name, starting to decode it if nobody has yet. */
+
+		return originals.computeIfAbsent(key(name), key -> CompletableFuture.supplyAsync(() -> decode(name), workers));
+	}
+
+	private static BufferedImage decode(String name) {
+
+		/* Reads an image file and converts it for the screen. Returns null (having said so) if it can't be read. */
+
+		File file = find(name);
+		try {
+			BufferedImage read = file == null ? null : ImageIO.read(file);
+			if (read == null) throw new IOException("no such image");
+			return convert(read, read.getWidth(), read.getHeight());
+		} catch (IOException e) {
+			System.err.println("Couldn't load " + DIRECTORY + "/" + name + ": " + e.getMessage());
+			return null;
+		}
+	}
+
+	private static File find(String name) {
+
+		/* Returns the file in the Images folder with a given name, ignoring case, or null if there isn't one. */
+
+		File exact = new File(DIRECTORY, name);
+		if (exact.isFile()) return exact;
+		File[] files = new File(DIRECTORY).listFiles();
+		if (files == null) return null;
+		for (File file : files) {
+			if (file.getName().equalsIgnoreCase(name)) return file;
+		}
+		return null;
+	}
+
+	private static BufferedImage scale(BufferedImage image, int width, int height) {
+
+		/* Returns a copy of an image scaled to a given size (smoothly), or null given null. */
+
+		return image == null ? null : convert(image, width, height);
+	}
+
+	private static BufferedImage convert(BufferedImage image, int width, int height) {
+
+		/* Returns an image drawn into one of a given size in the screen's own format, which draws fastest. */
+
+		BufferedImage converted;
+		if (GraphicsEnvironment.isHeadless()) {
+			converted = new BufferedImage(width, height, image.getTransparency() == Transparency.OPAQUE ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
+		} else {
+			GraphicsConfiguration screen = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().getDefaultConfiguration();
+			converted = screen.createCompatibleImage(width, height, image.getTransparency());
+		}
+		Graphics2D g = converted.createGraphics();
+		g.setComposite(AlphaComposite.Src);
+		if (width != image.getWidth() || height != image.getHeight()) {
+			g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+		}
+		g.drawImage(image, 0, 0, width, height, null);
+		g.dispose();
+		return converted;
+	}
+
+	private static String key(String name) {
+
+		/* Returns the name an image is filed under. */
+
+		return name.toLowerCase(Locale.ROOT);
+	}
+
+	public static void menuShown() {
+
+		/* Notes that the first menu has been drawn, and says how long startup took. Only the first call counts. */
+
+		if (firstMenuNanos != 0) return;
+		firstMenuNanos = System.nanoTime();
+		long decoded = allDecodedNanos;
+		System.out.printf("First menu after %.0f ms (%d images %s)%n", (firstMenuNanos - launchNanos) / 1e6, preloaded,
+			decoded == 0 ? "still decoding" : String.format("decoded after %.0f ms", (decoded - launchNanos) / 1e6));
+	}
+
+	static void awaitAll() throws InterruptedException, ExecutionException {
+
+		/* Waits until everything asked for so far has been decoded and scaled. */
+
+		for (CompletableFuture<BufferedImage> image : originals.values()) image.get();
+		for (AssetIcon icon : icons.values()) icon.getFuture().get();
+	}
+
+	static void clear() {
+
+		/* Forgets every image, so the next ones asked for are loaded afresh. */
+
+		originals.clear();
+		icons.clear();
+		preloaded = 0;
+		allDecodedNanos = 0;
+	}
+
+	// Accessors //
+
+	public static long getAllDecodedMillis() {
+
+		/* Returns how long after launch the preloaded images were all decoded, or -1 if they aren't yet. */
+
+		long decoded = allDecodedNanos;
+		return decoded == 0 ? -1 : (decoded - launchNanos) / 1_000_000;
+	}
+}
+
+class AssetIcon implements Icon {
+
+	/* An image from Assets that might not have finished loading. Until it has, it draws a faint placeholder
+	   the size it will be (if that's known), and once it has, whatever last drew it is asked to draw again. */
+
+	// Fields //
+
+	private static final Color placeholder = new Color(255, 255, 255, 40);
+
+	private final CompletableFuture<BufferedImage> future;
+	private final int width, height;  // -1 for the image's own size
+	private volatile Component lastDrawnOn;
+
+	// Constructor //
+
+	AssetIcon(CompletableFuture<BufferedImage> future, int width, int height) {
+
+		/* Constructs and returns a new AssetIcon for an image on its way. */
+
+		this.future = future;
+		this.width = width;
+		this.height = height;
+		future.thenRun(() -> {
+			Component c = this.lastDrawnOn;
+			if (c != null) EventQueue.invokeLater(c::repaint);
+		});
+	}
+
+	@Override
+	public void paintIcon(Component c, Graphics g, int x, int y) {
+
+		/* Draws the image, or the placeholder if it isn't ready. */
+
+		this.lastDrawnOn = c;  // before looking, so an image finishing in between still asks for a repaint
+		BufferedImage image = this.getImage();
+		if (image != null) {
+			g.drawImage(image, x, y, null);
+			return;
+		}
+		if (this.width > 0) {
+			g.setColor(placeholder);
+			g.fillRect(x, y, this.width, this.height);
+		}
+	}
+
+	public BufferedImage getImage() {
+
+		/* Returns the image, or null if it hasn't loaded (or couldn't be). */
+
+		return this.future.getNow(null);
+	}
+
+	@Override
+	public int getIconWidth() {
+
+		/* Returns how wide the image is, or 0 if that isn't known yet. */
+
+		if (this.width >= 0) return this.width;
+		BufferedImage image = this.getImage();
+		return image == null ? 0 : image.getWidth();
+	}
+
+	@Override
+	public int getIconHeight() {
+
+		/* Returns how tall the image is, or 0 if that isn't known yet. */
+
+		if (this.height >= 0) return this.height;
+		BufferedImage image = this.getImage();
+		return image == null ? 0 : image.getHeight();
+	}
+
+	CompletableFuture<BufferedImage> getFuture() {
+
+		/* Returns the image on its way. */
+
+		return this.future;
+	}
+}
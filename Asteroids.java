@@ -20,8 +20,12 @@ public class Asteroids extends JFrame implements ActionListener {
 
 		/* Entry point of program. */
 
-		// Make a new game instance
-		new Asteroids();
+		// Start decoding the images while the window is put together
+		Assets.preload();
+
+		// Make a new game instance, showing a replay straight away if given one
+		Asteroids game = new Asteroids();
+		if (args.length > 0) game.watchReplay(new java.io.File(args[0]));
 	}
 
 	// Fields //
@@ -40,6 +44,11 @@ public class Asteroids extends JFrame implements ActionListener {
 
 	private int playerCount;
 
+	// 2-PLAYER games are played over the network if one of these is set, e.g. -Dnet.host=7777 on one computer
+	// and -Dnet.join=192.168.0.2:7777 on the other
+	private Integer hostPort = Integer.getInteger("net.host");
+	private String joinAddress = System.getProperty("net.join");
+
 	// Main panel where everything is put on (uses the CardLayout)
 	private JPanel main;
 
@@ -62,7 +71,7 @@ public class Asteroids extends JFrame implements ActionListener {
 		exitButton = new GameButton(this, new Dimension(338, 96), new Point(471, 550), "EXIT", "close");
 
 		startMenu = new Menu(
-			new ImageIcon("Images/Title_SHOOTY CIRCLES.png"),
+			Assets.icon("Title_SHOOTY CIRCLES.png"),
 			new GameButton[]{startButton, manualButton, exitButton},
 			"open"
 		);
@@ -74,7 +83,7 @@ public class Asteroids extends JFrame implements ActionListener {
 		modeBackButton = new GameButton(this, new Dimension(140, 80), new Point(20, 20), "BACK", "open");
 
 		modeMenu = new Menu(
-			new ImageIcon("Images/Title_GAMEMODE.png"),
+			Assets.icon("Title_GAMEMODE.png"),
 			new GameButton[]{arcadeButton, arcadeMultButton, modeBackButton},
 			"modes"
 		);
@@ -84,7 +93,7 @@ public class Asteroids extends JFrame implements ActionListener {
 		manualBackButton = new GameButton(this, new Dimension(140, 80), new Point(20, 20), "BACK", "open");
 
 		manualMenu = new Menu(
-			new ImageIcon("Images/Text_Manual.png"),
+			Assets.icon("Text_Manual.png"),
 			new GameButton[]{manualBackButton},
 			"manual"
 		);
@@ -97,7 +106,7 @@ public class Asteroids extends JFrame implements ActionListener {
 		diffBackButton = new GameButton(this, new Dimension(140, 80), new Point(20, 20), "BACK", "modes");
 
 		diffMenu = new Menu(
-			new ImageIcon("Images/Title_DIFFICULTY.png"),
+			Assets.icon("Title_DIFFICULTY.png"),
 			new GameButton[]{easyDiffButton, medDiffButton, hardDiffButton, diffBackButton},
 			"diff"
 		);
@@ -122,6 +131,16 @@ public class Asteroids extends JFrame implements ActionListener {
 
 		// Some final window config
 		setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+		addWindowListener(new WindowAdapter() {
+			@Override
+			public void windowClosing(WindowEvent e) {
+
+				/* Ends the game being played before the window closes the program, so its replay (if one is
+				   being recorded) is saved rather than lost. */
+
+				space.dispose();
+			}
+		});
 		setResizable(false);
 		setVisible(true);
 	}
@@ -148,29 +167,71 @@ public class Asteroids extends JFrame implements ActionListener {
 			cardLayout.show(main, diffMenu.getName());
 		} else if (src == arcadeMultButton) {
 			playerCount = 2;
-			cardLayout.show(main, diffMenu.getName());
+			if (joinAddress != null) joinGame();  // the host picks the difficulty
+			else cardLayout.show(main, diffMenu.getName());
 		} else if (src == easyDiffButton) {
-			restartButton.setVisible(false);
-			space.init(1, playerCount);
-			cardLayout.show(main, "space");
-			timer.start();
+			startGame(1);
 		} else if (src == medDiffButton) {
-			restartButton.setVisible(false);
-			space.init(2, playerCount);
-			cardLayout.show(main, "space");
-			timer.start();
+			startGame(2);
 		} else if (src == hardDiffButton) {
-			restartButton.setVisible(false);
-			space.init(3, playerCount);
-			cardLayout.show(main, "space");
-			timer.start();
+			startGame(3);
 		} else if (src == modeBackButton || src == manualBackButton) {
 			cardLayout.show(main, startMenu.getName());
 		} else if (src == diffBackButton) {
 			cardLayout.show(main, modeMenu.getName());
 		} else if (src == restartButton) {
 			timer.stop();
+			space.dispose();
 			cardLayout.show(main, startMenu.getName());
 		}
 	}
+
+	private void startGame(int difficulty) {
+
+		/* Starts a game at a given difficulty, hosting it for another computer to join if it's 2-PLAYER and net.host is set. */
+
+		try {
+			if (playerCount == 2 && hostPort != null) space.host(difficulty, hostPort);
+			else space.init(difficulty, playerCount);
+		} catch (java.io.IOException e) {
+			System.err.println("Couldn't host on port " + hostPort + ": " + e.getMessage());
+			return;
+		}
+		restartButton.setVisible(false);
+		cardLayout.show(main, "space");
+		timer.start();
+	}
+
+	private void joinGame() {
+
+		/* Joins the 2-PLAYER game hosted at net.join (host:port). */
+
+		try {
+			int colon = joinAddress.lastIndexOf(':');
+			if (colon < 0) throw new IllegalArgumentException("it should be host:port");
+			java.net.InetSocketAddress address = new java.net.InetSocketAddress(joinAddress.substring(0, colon), Integer.parseInt(joinAddress.substring(colon + 1)));
+			if (address.isUnresolved()) throw new java.net.UnknownHostException("can't find " + address.getHostString());
+			space.join(address);
+		} catch (java.io.IOException | IllegalArgumentException e) {
+			System.err.println("Couldn't join " + joinAddress + ": " + e.getMessage());
+			return;
+		}
+		restartButton.setVisible(false);
+		cardLayout.show(main, "space");
+		timer.start();
+	}
+
+	public void watchReplay(java.io.File file) {
+
+		/* Shows a recorded game, with the restart button to get back to the menus once it's over. */
+
+		try {
+			restartButton.setVisible(false);
+			space.playReplay(file);
+			cardLayout.show(main, "space");
+			timer.start();
+		} catch (java.io.IOException e) {
+			System.err.println("Couldn't play " + file + ": " + e.getMessage());
+		}
+	}
 }
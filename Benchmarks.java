@@ -0,0 +1,1299 @@
+/*
+    Adam Mehdi & Syed Safwaan
+    Benchmarks.java
+    Timing runs for the hot parts of a game tick, so slowdowns show up as numbers instead of dropped frames.
+    Run with: java Benchmarks [filter]   (e.g. "java Benchmarks tick" for only the tick benchmarks)
+    "java Benchmarks session.restart" runs the restart soak, which exits with status 1 if restarting leaks.
+
+    Classes:
+    - Benchmarks    Runs each benchmark and prints time and memory allocated per operation
+    - > Benchmark   A single thing to time
+*/
+
+import java.awt.*;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.function.Supplier;
+
+public class Benchmarks {
+
+	/* A small benchmark harness. Each benchmark is warmed up until the JIT has settled, then timed over several
+	   measured iterations. Allocation per operation is read from the JVM's per-thread allocation counter,
+	   which is the same number a GC profiler reports as the normalised allocation rate. */
+
+	interface Benchmark {
+
+		/* Something to be timed. Returns a value so the JIT can't throw the work away. */
+
+		long run(int ops);
+
+		default void setup() {
+
+			/* Gets things ready before each iteration, outside of the timing. */
+
+		}
+
+		default int maxOps() {
+
+			/* Returns the most ops one iteration may run. */
+
+			return 1 << 28;
+		}
+	}
+
+	// Fields //
+
+	private static final int WARMUP_ITERATIONS = 5, MEASURED_ITERATIONS = 10;
+	private static final long ITERATION_NANOS = 200_000_000L;  // aim for iterations about this long
+	private static final int[] ENTITY_COUNTS = {10, 100, 1000, 10000};
+	private static final int SOAK_RESTARTS = 5000, SOAK_TICKS = 20, SOAK_REPORT_EVERY = 1000;
+
+	private static com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+	private static long sink;  // results are folded in here so they count as used
+
+	public static void main(String[] args) {
+
+		/* Entry point of the benchmarks. */
+
+		String filter = args.length > 0 ? args[0] : "";
+
+		System.out.printf("%-28s %8s %14s %12s %10s%n", "Benchmark", "Param", "ns/op", "B/op", "GCs");
+
+		if ("asteroid.makeShape".contains(filter)) {
+			for (int size = 0; size < 3; size++) {
+				Asteroid asteroid = new Asteroid(size, 600, 300, 0, 0, 0.01);
+				report("asteroid.makeShape", "size=" + size, ops -> {
+					long sum = 0;
+					for (int i = 0; i < ops; i++) {
+						asteroid.makeShape();
+						sum += asteroid.getShape().xpoints[0];
+					}
+					return sum;
+				});
+			}
+		}
+
+		if ("asteroid.shatter".contains(filter)) {
+			Asteroid loose = new Asteroid(2, 600, 300, 0, 0, 0.01);
+			report("asteroid.shatter", "loose", ops -> {
+				long sum = 0;
+				for (int i = 0; i < ops; i++) {
+					Asteroid[] pieces = loose.shatter();
+					sum += pieces.length;
+					for (int j = pieces.length - 1; j >= 0; j--) loose.getStore().remove(pieces[j].getIndex());  // last first, so none move
+				}
+				return sum;
+			});
+		}
+
+		if ("ship.makeShape".contains(filter)) {
+			Ship ship = new Ship(0, 600, 300, 0.05, 0.995, 0.1);
+			report("ship.makeShape", "", ops -> {
+				long sum = 0;
+				for (int i = 0; i < ops; i++) {
+					ship.makeShape();
+					sum += ship.getShape().xpoints[0];
+				}
+				return sum;
+			});
+		}
+
+		if ("asteroid.heap".contains(filter)) {
+			heapReport();
+		}
+
+		if ("physics.collide".contains(filter)) {
+			Asteroid big = new Asteroid(2, 500, 200, 0, 0, 0);
+			Asteroid small = new Asteroid(0, 520, 260, 0, 0, 0);
+			Asteroid far = new Asteroid(1, 900, 500, 0, 0, 0);
+			Polygon bullet = new Ship(0, 0, 0, 0, 0, 0).fire().getShape();
+			bullet.translate(540, 250);
+			collideBenchmark("hit", big.getShape(), small.getShape());
+			collideBenchmark("miss", big.getShape(), far.getShape());
+			collideBenchmark("bullet", big.getShape(), bullet);
+
+			// A Bullet swept along a whole move into the Asteroid from outside (aimed at its rightmost corner,
+			// which is always on the outside), and along one that misses it
+			Polygon shape = big.getShape();
+			int corner = 0;
+			for (int i = 1; i < shape.npoints; i++) if (shape.xpoints[i] > shape.xpoints[corner]) corner = i;
+			Rectangle box = shape.getBounds();
+			double dirX = box.getCenterX() - shape.xpoints[corner], dirY = box.getCenterY() - shape.ypoints[corner], dirLength = Math.hypot(dirX, dirY);
+			double startX = shape.xpoints[corner] - dirX / dirLength * 13, startY = shape.ypoints[corner] - dirY / dirLength * 13;
+			double endX = startX + dirX / dirLength * 14, endY = startY + dirY / dirLength * 14;
+			report("physics.collide", "swept", ops -> {
+				long hits = 0;
+				for (int i = 0; i < ops; i++) if (Collider.sweepCircle(startX, startY, endX, endY, 3, shape.xpoints, shape.ypoints, 0, shape.npoints) >= 0) hits++;
+				return hits;
+			});
+			report("physics.collide", "swept miss", ops -> {
+				long hits = 0;
+				for (int i = 0; i < ops; i++) if (Collider.sweepCircle(720, 450, 734, 464, 3, shape.xpoints, shape.ypoints, 0, shape.npoints) >= 0) hits++;
+				return hits;
+			});
+		}
+
+		if ("asteroid.pairs".contains(filter)) {
+			for (int count : new int[] {100, 1000, 3000}) {
+				AsteroidStore asteroids = populatedWorld(count, 0).getAsteroids();
+
+				// Every pair, the way the commented-out loop used to do it
+				report("asteroid.pairs", "all n=" + count, ops -> {
+					long hits = 0;
+					for (int op = 0; op < ops; op++) {
+						asteroids.moveAll();
+						for (int i = 0; i < asteroids.size(); i++) {
+							for (int j = 0; j < i; j++) {
+								if (World.Physics.collide(asteroids, i, j)) hits++;
+							}
+						}
+					}
+					return hits;
+				});
+
+				SweepAndPrune sweep = new SweepAndPrune();
+				long[] swaps = {0, 0};
+				report("asteroid.pairs", "sap n=" + count, ops -> {
+					long hits = 0;
+					for (int op = 0; op < ops; op++) {
+						asteroids.moveAll();
+						sweep.update(asteroids);
+						swaps[0] += sweep.getLastSwaps();
+						swaps[1]++;
+						for (int k = 0; k < sweep.getPairCount(); k++) {
+							if (World.Physics.collide(asteroids, sweep.getFirst(k), sweep.getSecond(k))) hits++;
+						}
+					}
+					return hits;
+				});
+				System.out.printf("%-28s %8s %14.1f swaps/tick, %d box pairs%n", "", "", (double) swaps[0] / swaps[1], sweep.getPairCount());
+			}
+		}
+
+		if ("bullet.sweep".contains(filter)) {
+			if (!sweepCheck()) System.exit(1);
+		}
+
+		if ("world.tick".contains(filter)) {
+			for (int count : ENTITY_COUNTS) report("world.tick", "n=" + count, tickBenchmark(() -> populatedWorld(count, 0)));
+			// The most a game can spawn, which should stay inside a tick
+			report("world.tick", "w=" + AsteroidStore.MAX_WEIGHT, tickBenchmark(() -> heaviestWorld(0)));
+			System.out.printf("%-28s %8s %14s ns/tick budget%n", "", "", World.TICK_MILLIS * 1_000_000);
+		}
+
+		if ("diagnostics".contains(filter)) {
+
+			// The same steps as world.tick, with measuring off and on (and off again, once everything's warmed up), to see what it costs
+			for (boolean on : new boolean[] {false, true, false}) {
+				Diagnostics.setEnabled(on);
+				report("diagnostics", on ? "on" : "off", new Benchmark() {
+
+					private World world;
+					private boolean[] keys = new boolean[java.awt.event.KeyEvent.KEY_LAST + 1];
+
+					@Override
+					public void setup() {
+
+						/* Starts every iteration from the same crowded World. */
+
+						this.world = populatedWorld(100, 0);
+					}
+
+					@Override
+					public int maxOps() {
+
+						/* Keeps iterations short enough that the World stays about as crowded as it started. */
+
+						return 200;
+					}
+
+					@Override
+					public long run(int ops) {
+						long sum = 0;
+						for (int i = 0; i < ops; i++) {
+							long t = Diagnostics.start();
+							this.world.step(this.keys);
+							Diagnostics.end(Diagnostics.TICK, t);
+							sum += this.world.getAsteroids().size();
+						}
+						return sum;
+					}
+				});
+			}
+
+			// What gets measured over a couple of seconds, as the overlay would show it
+			Diagnostics.setEnabled(true);
+			boolean[] keys = new boolean[java.awt.event.KeyEvent.KEY_LAST + 1];
+			World world = populatedWorld(100, 0);
+			for (long until = System.nanoTime() + 2 * Diagnostics.WINDOW_NANOS; System.nanoTime() < until; ) {
+				long t = Diagnostics.start();
+				world.step(keys);
+				Diagnostics.end(Diagnostics.TICK, t);
+				if (world.getTick() % 200 == 0) world = populatedWorld(100, 0);
+			}
+			java.awt.image.BufferedImage screen = new java.awt.image.BufferedImage(1280, 720, java.awt.image.BufferedImage.TYPE_INT_RGB);
+			PerfOverlay overlay = new PerfOverlay();
+			World shown = world;
+			System.out.printf("%n%-28s %8s %14s %14s %14s%n", "diagnostics", "phase", "p50 us", "p99 us", "max us");
+			for (int i = 0; i <= Diagnostics.TICK; i++) {
+				Histogram phase = Diagnostics.getPhase(i);
+				System.out.printf("%-28s %8s %14.1f %14.1f %14.1f%n", "", Diagnostics.PHASE_NAMES[i], phase.getP50() / 1e3, phase.getP99() / 1e3, phase.getMax() / 1e3);
+			}
+			System.out.printf("%-28s %8s %14.0f %14.0f%n", "", "tests/hits", Diagnostics.getCounterPerTick(Diagnostics.TESTS), Diagnostics.getCounterPerTick(Diagnostics.HITS));
+			report("diagnostics", "overlay", ops -> {
+				Graphics g = screen.getGraphics();
+				for (int i = 0; i < ops; i++) overlay.update(g, shown, 900, 10);
+				g.dispose();
+				return shown.getTick();
+			});
+			Diagnostics.setEnabled(false);
+		}
+
+		if ("jfr.events".contains(filter)) {
+			if (!flightRecorderCheck()) System.exit(1);
+		}
+
+		if ("world.parallel".contains(filter)) {
+			if (!parallelCheck()) System.exit(1);
+		}
+
+		if ("replay.record".contains(filter)) {
+			if (!replayCheck()) System.exit(1);
+		}
+
+		if ("replay.play".contains(filter)) {
+			if (!playbackCheck()) System.exit(1);
+		}
+
+		if ("net.loopback".contains(filter)) {
+			if (!loopbackCheck()) System.exit(1);
+		}
+
+		if ("net.leave".contains(filter)) {
+			if (!leaveCheck()) System.exit(1);
+		}
+
+		if ("net.rollback".contains(filter)) {
+			if (!rollbackCheck()) System.exit(1);
+		}
+
+		if ("assets.preload".contains(filter)) {
+			if (!assetCheck()) System.exit(1);
+		}
+
+		if ("render.dirty".contains(filter)) {
+			if (!dirtyRenderCheck()) System.exit(1);
+		}
+
+		if ("starField.update".contains(filter)) {
+			java.awt.image.BufferedImage screen = new java.awt.image.BufferedImage(1280, 720, java.awt.image.BufferedImage.TYPE_INT_RGB);
+			for (int count : ENTITY_COUNTS) {
+				StarField starField = new StarField(1280, 720);
+				starField.reset(count, new Random(0));
+				Graphics warm = screen.getGraphics();
+				for (int i = 0; i < StarField.PERIOD_TICKS; i++) {
+					starField.tick();
+					starField.update(warm);  // draws every keyframe once, so only the blit is timed
+				}
+				warm.dispose();
+				report("starField.update", "n=" + count, ops -> {
+					Graphics g = screen.getGraphics();
+					for (int i = 0; i < ops; i++) {
+						starField.tick();
+						starField.update(g);
+					}
+					g.dispose();
+					return starField.getRedraws();
+				});
+			}
+		}
+
+		if ("hud.update".contains(filter)) {
+			java.awt.image.BufferedImage screen = new java.awt.image.BufferedImage(1280, 720, java.awt.image.BufferedImage.TYPE_INT_RGB);
+			AsteroidStore asteroids = populatedWorld(100, 0).getAsteroids();
+			GlyphAtlas hpLabels = new GlyphAtlas(new Font("Monospaced", Font.BOLD, 15), Color.WHITE, "0123456789");
+			ScoreBanner banner = new ScoreBanner(new Font("Monospaced", Font.BOLD, 40), Color.white);
+
+			// The way text used to be drawn, for comparison
+			report("hud.update", "strings", ops -> {
+				Graphics g = screen.getGraphics();
+				for (int i = 0; i < ops; i++) {
+					for (int a = 0; a < asteroids.size(); a++) {
+						g.setFont(new Font("Monospaced", Font.BOLD, 15));
+						g.setColor(Color.WHITE);
+						g.drawString("" + asteroids.getHp(a), (int) asteroids.getX(a), (int) asteroids.getY(a));
+					}
+					g.setFont(new Font("Monospaced", Font.BOLD, 40));
+					g.drawString(String.format("SCORE: %d ASTEROID MASS: %d", i / 100, asteroids.getWeight()), 20, 40);
+				}
+				g.dispose();
+				return ops;
+			});
+
+			report("hud.update", "atlas", ops -> {
+				Graphics g = screen.getGraphics();
+				for (int i = 0; i < ops; i++) {
+					for (int a = 0; a < asteroids.size(); a++) {
+						hpLabels.drawNumber(g, asteroids.getHp(a), (int) asteroids.getX(a), (int) asteroids.getY(a));
+					}
+					banner.update(g, i / 100, asteroids.getWeight(), 20, 40);  // score changes every 100 frames
+				}
+				g.dispose();
+				return banner.getRedraws();
+			});
+		}
+
+		if ("session.restart".contains(filter)) {
+			if (!restartSoak()) System.exit(1);
+		}
+
+		System.out.println("(sink " + sink + ")");
+	}
+
+	private static void collideBenchmark(String param, Polygon a, Polygon b) {
+
+		/* Times World.Physics.collide on a fixed pair of shapes. */
+
+		report("physics.collide", param, ops -> {
+			long hits = 0;
+			for (int i = 0; i < ops; i++) if (World.Physics.collide(a, b)) hits++;
+			return hits;
+		});
+	}
+
+	private static boolean parallelCheck() {
+
+		/* Plays the same seeded World serially and in parallel side by side, checking after every tick that the
+		   two are bit for bit the same, and prints how long a tick took each way. Returns whether they matched. */
+
+		java.util.concurrent.ForkJoinPool pool = new java.util.concurrent.ForkJoinPool(4);  // forced, so it's checked even on one core
+		boolean[] keys = new boolean[java.awt.event.KeyEvent.KEY_LAST + 1];
+		keys[java.awt.event.KeyEvent.VK_SPACE] = true;  // keep shooting, so there's plenty to shatter
+		keys[java.awt.event.KeyEvent.VK_LEFT] = true;
+		boolean same = true;
+
+		System.out.printf("%n%-28s %8s %14s %14s %10s%n", "world.parallel", "Param", "serial ms", "parallel ms", "same");
+		for (int count : new int[]{100, 1000, 10000}) {
+			World serial = populatedWorld(count, 0), parallel = populatedWorld(count, 0);
+			for (World world : new World[]{serial, parallel}) {
+				world.getAsteroids().setMaxWeight(1 << 20);  // spawning back on, to use the random numbers too
+			}
+			serial.setTickMode(World.SERIAL);
+			parallel.setTickMode(World.PARALLEL);
+			parallel.setForkJoinPool(pool);
+
+			long serialNanos = 0, parallelNanos = 0;
+			int ticks = count >= 10000 ? 50 : 300, mismatch = -1;
+			for (int t = 0; t < ticks && mismatch < 0; t++) {
+				long start = System.nanoTime();
+				serial.step(keys);
+				serialNanos += System.nanoTime() - start;
+				start = System.nanoTime();
+				parallel.step(keys);
+				parallelNanos += System.nanoTime() - start;
+				if (stateHash(serial) != stateHash(parallel)) mismatch = t;
+			}
+			System.out.printf("%-28s %8s %14.3f %14.3f %10s%n", "", "n=" + count, serialNanos / 1e6 / ticks, parallelNanos / 1e6 / ticks, mismatch < 0 ? "yes" : "tick " + mismatch);
+			same &= mismatch < 0;
+		}
+		pool.shutdown();
+		return same;
+	}
+
+	private static boolean replayCheck() {
+
+		/* Records half an hour of made-up play, then plays the same seed and controls again in a fresh World and
+		   checks it ends up bit for bit the same. Prints how big the recording came out. Returns whether they matched. */
+
+		int ticks = 30 * 60 * 1000 / World.TICK_MILLIS;
+		long seed = 12345;
+		int[] inputs = new int[ticks];
+		Random player = new Random(seed);  // the made-up player, who changes what they're doing every half second or so
+		int input = 0;
+		for (int t = 0; t < ticks; t++) {
+			if (player.nextInt(50) == 0) input ^= 1 << player.nextInt(10);  // a key going down or coming up
+			inputs[t] = input;
+		}
+
+		boolean[] keys = new boolean[java.awt.event.KeyEvent.KEY_LAST + 1];
+		long[] hashes = new long[2];
+		ReplayRecorder recorder = new ReplayRecorder(seed, 2, 2);
+		for (int run = 0; run < 2; run++) {
+			World world = new World();
+			world.init(2, 2, seed);
+			for (int t = 0; t < ticks; t++) {
+				if (run == 0) recorder.record(inputs[t], world);
+				Ship.unpackKeys(inputs[t], keys);
+				world.step(keys);
+			}
+			hashes[run] = stateHash(world);
+			world.clear();
+		}
+		recorder.finish();
+
+		boolean same = hashes[0] == hashes[1];
+		System.out.printf("%n%-28s %8s %14s %14s %10s%n", "replay.record", "ticks", "bytes", "bytes/min", "same");
+		System.out.printf("%-28s %8d %14d %14.1f %10s%n", "", ticks, recorder.getSize(), recorder.getSize() / 30.0, same ? "yes" : "NO");
+		return same;
+	}
+
+	private static boolean playbackCheck() {
+
+		/* Records half an hour of made-up play to a file, noting the World's hash on every tick, then plays the file
+		   back through a headless GameSession as fast as it will go and jumps around in it, checking the World
+		   matches what was noted every time. Returns whether it always did. */
+
+		int ticks = 30 * 60 * 1000 / World.TICK_MILLIS;
+		long seed = 54321;
+		Random player = new Random(seed);
+		boolean[] keys = new boolean[java.awt.event.KeyEvent.KEY_LAST + 1];
+		long[] hashes = new long[ticks + 1];
+
+		// Record
+		ReplayRecorder recorder = new ReplayRecorder(seed, 2, 2);
+		World world = new World();
+		world.init(2, 2, seed);
+		int input = 0;
+		for (int t = 0; t < ticks; t++) {
+			hashes[t] = stateHash(world);
+			if (player.nextInt(50) == 0) input ^= 1 << player.nextInt(10);
+			recorder.record(input, world);
+			Ship.unpackKeys(input, keys);
+			world.step(keys);
+		}
+		hashes[ticks] = stateHash(world);
+		world.clear();
+
+		File file;
+		ReplayPlayer replay;
+		try {
+			file = File.createTempFile("playback", ".replay");
+			file.deleteOnExit();
+			recorder.save(file);
+			replay = new ReplayPlayer(file);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+
+		// Play it straight through, as fast as it goes
+		GameSession session = new GameSession(replay.getDifficulty(), replay.getPlayerCount(), replay.getSeed(), keys, null, new Object(), 60);
+		session.setPlayer(replay);
+		long start = System.nanoTime();
+		for (int t = 0; t < ticks; t++) session.tick();
+		long playNanos = System.nanoTime() - start;
+		boolean same = stateHash(session.getWorld()) == hashes[ticks] && !replay.hasNext();
+
+		// Jump around in it
+		int seeks = 50, wrong = 0;
+		long seekNanos = 0;
+		for (int i = 0; i < seeks; i++) {
+			int target = player.nextInt(ticks + 1);
+			start = System.nanoTime();
+			session.seek(target);
+			seekNanos += System.nanoTime() - start;
+			if (stateHash(session.getWorld()) != hashes[target]) wrong++;
+		}
+		session.dispose();
+		same &= wrong == 0;
+
+		// Files that aren't whole replays have to be turned away with an IOException, not anything else
+		int rejected = 0, tried = 0, garbledTried = 0, garbledStopped = 0, garbledMissed = 0;
+		try {
+			byte[] whole = java.nio.file.Files.readAllBytes(file.toPath());
+			ByteArrayOutputStream empty = new ByteArrayOutputStream();
+			new ReplayRecorder(seed, 2, 2).writeTo(empty);  // no ticks, so no blocks
+			byte[][] broken = {new byte[0], empty.toByteArray(), Arrays.copyOf(whole, whole.length / 2), Arrays.copyOf(whole, whole.length - 1)};
+			File brokenFile = File.createTempFile("broken", ".replay");
+			brokenFile.deleteOnExit();
+			for (byte[] bytes : broken) {
+				tried++;
+				java.nio.file.Files.write(brokenFile.toPath(), bytes);
+				try {
+					new ReplayPlayer(brokenFile);
+				} catch (IOException e) {
+					rejected++;
+				}
+			}
+
+			// Changed bytes inside the controls can't be caught up front. Some still read as controls, but the rest
+			// have to end playback early rather than throw
+			java.nio.ByteBuffer footer = java.nio.ByteBuffer.wrap(whole);
+			footer.position((int) footer.getLong(whole.length - 8));
+			long[] starts = new long[footer.getInt() + 1];
+			for (int i = 0; i < starts.length - 1; i++) starts[i] = footer.getLong();
+			starts[starts.length - 1] = footer.getLong(whole.length - 8);
+			java.io.PrintStream err = System.err;
+			System.setErr(new java.io.PrintStream(new ByteArrayOutputStream()));  // each one says where it stopped
+			try {
+				// The first two are sure to: a change with a code that's never written, and a last change that runs on into the footer
+				for (int i = 0; i < 102; i++) {
+					byte[] bytes = whole.clone();
+					int block = i == 1 ? starts.length - 2 : player.nextInt(starts.length - 1);
+					int from = (int) starts[block] + 16 + footer.getInt((int) starts[block] + 12), to = (int) starts[block + 1];
+					if (i == 0) bytes[from] = 12;
+					else if (i == 1) bytes[to - 1] |= 0x80;
+					else for (int j = 1 + player.nextInt(3); j > 0; j--) bytes[from + player.nextInt(to - from)] = (byte) player.nextInt(256);
+					java.nio.file.Files.write(brokenFile.toPath(), bytes);
+					ReplayPlayer garbled = new ReplayPlayer(brokenFile);
+					for (int t = 0; t < ticks + 1; t++) garbled.nextInput();
+					garbledTried++;
+					if (garbled.isBroken()) garbledStopped++;
+					else if (i < 2) garbledMissed++;
+				}
+			} catch (RuntimeException e) {
+				err.println("garbled replay threw " + e);
+			} finally {
+				System.setErr(err);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+		same &= rejected == tried && garbledTried == 102 && garbledMissed == 0;
+
+		System.out.printf("%n%-28s %8s %14s %14s %14s %10s%n", "replay.play", "ticks", "bytes", "ticks/s", "ms/seek", "same");
+		System.out.printf("%-28s %8d %14d %14.0f %14.3f %10s%n", "", ticks, file.length(), ticks / (playNanos / 1e9), seekNanos / 1e6 / seeks, same ? "yes" : "NO (" + wrong + " seeks)");
+		System.out.printf("%-28s %8s %14s%n", "", "broken", rejected + "/" + tried + " turned away");
+		System.out.printf("%-28s %8s %14s%n", "", "garbled", garbledTried + "/102 played without throwing, " + garbledStopped + " stopped early");
+		return same;
+	}
+
+	private static boolean loopbackCheck() {
+
+		/* Plays a minute of a 2 player game through a NetServer and two NetClients on this computer, with packets
+		   held back 50 ms and 5% of them lost each way. Checks each client ends up with exactly the snapshot the
+		   server sent (and draws it as such), and prints the bandwidth each one used. Returns whether they matched. */
+
+		int ticks = 60 * 1000 / World.TICK_MILLIS, latency = 5;
+		double loss = 0.05;
+		long seed = 2024;
+		Random players = new Random(seed);
+		boolean same = true;
+		System.out.printf("%n%-28s %8s %14s %14s %14s %10s%n", "net.loopback", "client", "bytes/s", "B/snapshot", "raw B/snap", "same");
+		try {
+			NetServer server = new NetServer(new java.net.InetSocketAddress(java.net.InetAddress.getLoopbackAddress(), 0), 2, 2, seed);
+			server.getLink().setConditions(latency, loss, seed);
+			NetClient[] clients = new NetClient[2];
+			boolean[][] keys = new boolean[2][java.awt.event.KeyEvent.KEY_LAST + 1];
+			int[] inputs = new int[2];
+			for (int i = 0; i < clients.length; i++) {
+				clients[i] = new NetClient(server.getAddress());
+				clients[i].getLink().setConditions(latency, loss, seed + 1 + i);
+			}
+
+			for (int t = 0; t < ticks; t++) {
+				for (int i = 0; i < clients.length; i++) {
+					if (players.nextInt(50) == 0) inputs[i] ^= 1 << players.nextInt(5);  // Ship 0's keys, on each player's own computer
+					Ship.unpackKeys(inputs[i], keys[i]);
+					clients[i].tick(keys[i]);
+				}
+				server.getSession().tick();
+			}
+
+			double seconds = ticks * World.TICK_MILLIS / 1000.0;
+			for (int i = 0; i < clients.length; i++) {
+				NetClient client = clients[i];
+				int ship = client.getShip();  // whoever's controls got through first got Ship 0
+				if (ship < 0) {
+					System.out.printf("%-28s %8d %14s%n", "", i, "never joined");
+					same = false;
+					continue;
+				}
+				int[] received = client.getSnapshot(client.getNewest()), sent = server.getSnapshot(client.getNewest());
+				int[] drawn = new int[client.getWorld().getSnapshotSize()];
+				client.getWorld().writeSnapshot(java.nio.IntBuffer.wrap(drawn));
+				boolean match = ship == (clients[1 - i].getShip() ^ 1) && sent != null && Arrays.equals(received, sent) && Arrays.equals(drawn, sent);
+				System.out.printf("%-28s %8d %14.0f %14.1f %14.1f %10s%n", "", i, server.getBytesSent(ship) / seconds,
+					(double) server.getBytesSent(ship) / server.getSnapshotsSent(ship), (double) server.getRawBytes() / server.getSnapshotsSent(ship),
+					match ? "yes" : "NO");
+				System.out.printf("%-28s %8s %14s%n", "", "", String.format("%d/%d snapshots, %d full, %d unusable",
+					client.getSnapshotsReceived(), server.getSnapshotsSent(ship), server.getFullSnapshotsSent(ship), client.getSnapshotsUnusable()));
+				same &= match;
+				client.close();
+			}
+			same &= garbleCheck(server.getSnapshot(clients[0].getNewest()));
+			server.close();
+		} catch (java.io.IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+		return same;
+	}
+
+	private static boolean garbleCheck(int[] snapshot) {
+
+		/* Sends a NetClient a good snapshot, then the same one cut short at every length and with random bytes
+		   changed, as a server might if something went wrong on the way. Checks none of it throws, either in the
+		   client or in reading its World back out. Returns whether it held up. */
+
+		int changed = 2000;
+		boolean held = true;
+		Random random = new Random(99);
+		try (java.nio.channels.DatagramChannel fake = java.nio.channels.DatagramChannel.open()) {
+			fake.bind(new java.net.InetSocketAddress(java.net.InetAddress.getLoopbackAddress(), 0));
+			NetClient client = new NetClient(fake.getLocalAddress());
+			boolean[] keys = new boolean[java.awt.event.KeyEvent.KEY_LAST + 1];
+			client.tick(keys);
+			java.nio.ByteBuffer in = java.nio.ByteBuffer.allocate(NetServer.MAX_PACKET);
+			java.net.SocketAddress to = fake.receive(in);  // the client's controls, to find it by
+
+			java.nio.ByteBuffer good = java.nio.ByteBuffer.allocate(NetServer.MAX_PACKET);
+			good.put((byte) NetServer.SNAPSHOT).putInt(0).putInt(-1).put((byte) 0);
+			DeltaCodec.encode(snapshot, snapshot.length, null, 0, good);
+			good.flip();
+			byte[] packet = new byte[good.remaining()];
+			good.get(packet);
+
+			// The good one goes first, so there's something to keep drawing
+			ArrayList<byte[]> packets = new ArrayList<>();
+			packets.add(packet);
+			for (int length = 0; length < packet.length; length++) packets.add(Arrays.copyOf(packet, length));
+			for (int n = 0; n < changed; n++) {
+				byte[] bad = packet.clone();
+				for (int i = 1 + random.nextInt(3); i > 0; i--) bad[9 + random.nextInt(bad.length - 9)] = (byte) random.nextInt(256);
+				packets.add(bad);
+			}
+
+			int number = 0;
+			for (byte[] bad : packets) {
+				if (bad.length >= 5) java.nio.ByteBuffer.wrap(bad).putInt(1, number);  // always newer, so none are passed over as late
+				number++;
+				fake.send(java.nio.ByteBuffer.wrap(bad), to);
+				try {
+					client.tick(keys);
+					int[] drawn = new int[client.getWorld().getSnapshotSize()];
+					client.getWorld().writeSnapshot(java.nio.IntBuffer.wrap(drawn));
+				} catch (RuntimeException e) {
+					System.out.printf("%-28s %s after %d packets%n", "", e, number);
+					held = false;
+					break;
+				}
+			}
+			System.out.printf("%-28s %8s %14s%n", "", "garbled", String.format("%d cut short, %d changed: %d/%d unusable, %s",
+				packet.length, changed, client.getSnapshotsUnusable(), number - 1, held ? "none thrown" : "THREW"));
+			held &= client.getNewest() >= 0;
+			client.close();
+		} catch (java.io.IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+		return held;
+	}
+
+	private static boolean leaveCheck() {
+
+		/* Joins a Space to a game another Space is hosting, then has the host quit, and joins one to an address
+		   that never answers. Checks both networked games end by themselves (so the restart button comes up)
+		   rather than freezing, and prints how long it took. Returns whether they both ended in time. */
+
+		long limit = (NetClient.TIMEOUT_TICKS * World.TICK_MILLIS + 2000) * 1_000_000L;
+		boolean ended = true;
+		System.out.printf("%n%-28s %20s %14s %10s%n", "net.leave", "case", "ms to end", "ended");
+		try (java.nio.channels.DatagramChannel silent = java.nio.channels.DatagramChannel.open()) {
+			silent.bind(new java.net.InetSocketAddress(java.net.InetAddress.getLoopbackAddress(), 0));
+			int port;
+			try (java.nio.channels.DatagramChannel free = java.nio.channels.DatagramChannel.open()) {
+				free.bind(new java.net.InetSocketAddress(0));
+				port = ((java.net.InetSocketAddress) free.getLocalAddress()).getPort();
+			}
+
+			Space host = new Space(), guest = new Space();
+			host.host(2, port);
+			guest.join(new java.net.InetSocketAddress(java.net.InetAddress.getLoopbackAddress(), port));
+			Thread.sleep(1000);
+			boolean playing = !guest.hasGameEnded();
+			host.dispose();
+			long t = System.nanoTime();
+			while (!guest.hasGameEnded() && System.nanoTime() - t < limit) Thread.sleep(10);
+			long hostQuit = System.nanoTime() - t;
+			boolean quitEnded = playing && guest.hasGameEnded();
+			System.out.printf("%-28s %20s %14.0f %10s%n", "", "host quit", hostQuit / 1e6, quitEnded ? "yes" : "NO");
+
+			guest.join(silent.getLocalAddress());
+			t = System.nanoTime();
+			while (!guest.hasGameEnded() && System.nanoTime() - t < limit) Thread.sleep(10);
+			boolean silentEnded = guest.hasGameEnded();
+			System.out.printf("%-28s %20s %14.0f %10s%n", "", "host never answers", (System.nanoTime() - t) / 1e6, silentEnded ? "yes" : "NO");
+			guest.dispose();
+			ended = quitEnded && silentEnded;
+		} catch (java.io.IOException | InterruptedException e) {
+			e.printStackTrace();
+			return false;
+		}
+		return ended;
+	}
+
+	private static boolean rollbackCheck() {
+
+		/* Plays half a minute between two RollbackPeers on this computer at a few different delays (and some loss),
+		   then checks both end up with the same World as playing the same controls straight through in one World.
+		   Prints how often they had to go back and what playing again cost. Returns whether they all matched. */
+
+		int ticks = 30 * 1000 / World.TICK_MILLIS;
+		int[] delays = {0, 2, 5, 8, 5};
+		double[] losses = {0, 0, 0, 0, 0.05};
+		long seed = 777;
+		boolean same = true;
+		System.out.printf("%n%-28s %8s %14s %14s %14s %14s %10s%n", "net.rollback", "delay", "rollbacks/s", "ticks/replay", "replay ms", "max ms", "same");
+		for (int run = 0; run < delays.length; run++) {
+			try {
+				java.net.InetSocketAddress any = new java.net.InetSocketAddress(java.net.InetAddress.getLoopbackAddress(), 0);
+				RollbackPeer[] peers = {new RollbackPeer(any, 0, 2, seed), new RollbackPeer(any, 1, 2, seed)};
+				peers[0].connect(peers[1].getAddress());
+				peers[1].connect(peers[0].getAddress());
+				boolean[] keys = new boolean[java.awt.event.KeyEvent.KEY_LAST + 1];
+				int[][] played = new int[2][ticks];  // the controls each peer played with, by tick
+				int[] inputs = new int[2];
+				Random players = new Random(seed + run);
+				for (int i = 0; i < 2; i++) peers[i].getLink().setConditions(delays[run], losses[run], seed + i);
+
+				// Play, then keep talking until both have heard everything
+				while (peers[0].getTick() < ticks || peers[1].getTick() < ticks) {
+					for (int i = 0; i < 2; i++) {
+						if (peers[i].getTick() == ticks) {
+							peers[i].poll();
+							continue;
+						}
+						if (players.nextInt(20) == 0) inputs[i] ^= 1 << players.nextInt(5);
+						Ship.unpackKeys(inputs[i], keys);
+						int tick = peers[i].getTick();
+						if (peers[i].tick(keys)) played[i][tick] = inputs[i];
+					}
+				}
+				while (peers[0].getHeard() < ticks || peers[1].getHeard() < ticks) {
+					peers[0].poll();
+					peers[1].poll();
+				}
+
+				World straight = new World();
+				straight.init(2, 2, seed);
+				for (int t = 0; t < ticks; t++) {
+					Ship.unpackKeys(played[0][t] | played[1][t] << 5, keys);
+					straight.step(keys);
+				}
+				long hash = stateHash(straight);
+				boolean match = stateHash(peers[0].getWorld()) == hash && stateHash(peers[1].getWorld()) == hash;
+				straight.clear();
+
+				RollbackPeer peer = peers[0];
+				String delay = delays[run] * World.TICK_MILLIS + " ms" + (losses[run] > 0 ? "," + (int) (losses[run] * 100) + "%" : "");
+				System.out.printf("%-28s %8s %14.1f %14.2f %14.3f %14.3f %10s%n", "", delay, peer.getRollbacks() / (ticks * World.TICK_MILLIS / 1000.0),
+					peer.getRollbacks() == 0 ? 0.0 : (double) peer.getReplayedTicks() / peer.getRollbacks(), peer.getReplayMeanMillis(), peer.getReplayMaxMillis(),
+					match ? "yes" : "NO");
+				System.out.printf("%-28s %8s %14s%n", "", "", String.format("%d stalls, %.1f us/save", peer.getStalls(), peer.getSaveMeanMicros()));
+				same &= match;
+				peers[0].close();
+				peers[1].close();
+			} catch (java.io.IOException e) {
+				e.printStackTrace();
+				return false;
+			}
+		}
+		return same;
+	}
+
+	private static boolean flightRecorderCheck() {
+
+		/* Plays a minute of made-up play twice under a Flight Recording: once with every game event switched on
+		   and no threshold, then with their usual thresholds. Checks the first has an event for every tick and the
+		   second only the slow ones, and prints how many of each came out. Returns whether the counts add up. */
+
+		int ticks = 60 * 1000 / World.TICK_MILLIS;
+		boolean ok = true;
+		System.out.printf("%n%-28s %8s %10s %10s %10s %10s %10s%n", "jfr.events", "settings", "ticks", "slow", "spawns", "rejected", "shatters");
+		for (boolean everything : new boolean[] {true, false}) {
+			try (jdk.jfr.Recording recording = new jdk.jfr.Recording()) {
+				recording.enable(TickEvent.class).withThreshold(everything ? java.time.Duration.ZERO : java.time.Duration.ofMillis(5));
+				recording.enable(SpawnEvent.class);
+				recording.enable(ShatterEvent.class);
+				recording.start();
+
+				World world = new World();
+				world.init(2, 2, 99);
+				boolean[] keys = new boolean[java.awt.event.KeyEvent.KEY_LAST + 1];
+				Random player = new Random(99);
+				int input = 0;
+				long slow = 0;
+				for (int t = 0; t < ticks; t++) {
+					if (t == ticks - 200) {  // the made-up player never lasts long, so finish in a crowd where things get shattered
+						world.clear();
+						world = populatedWorld(100, 0);
+					}
+					if (player.nextInt(50) == 0) input ^= 1 << player.nextInt(10);
+					Ship.unpackKeys(input, keys);
+					long start = System.nanoTime();
+					world.step(keys);
+					if (System.nanoTime() - start >= 5_000_000) slow++;
+				}
+				world.clear();
+				recording.stop();
+
+				File file = File.createTempFile("events", ".jfr");
+				file.deleteOnExit();
+				recording.dump(file.toPath());
+				long tickEvents = 0, spawns = 0, rejected = 0, shatters = 0;
+				for (jdk.jfr.consumer.RecordedEvent event : jdk.jfr.consumer.RecordingFile.readAllEvents(file.toPath())) {
+					String name = event.getEventType().getName();
+					if (name.equals("asteroids.Tick")) tickEvents++;
+					else if (name.equals("asteroids.Shatter")) shatters++;
+					else if (name.equals("asteroids.Spawn")) {
+						spawns++;
+						if (event.getString("rejectedBy") != null) rejected++;
+					}
+				}
+
+				// Without a threshold every tick is there; with one, about the ticks this loop saw run slow
+				ok &= everything ? tickEvents == ticks : tickEvents <= slow + 10;
+				ok &= spawns > 0 && shatters > 0;
+				System.out.printf("%-28s %8s %10d %10d %10d %10d %10d%n", "", everything ? "all" : "5 ms", tickEvents, slow, spawns, rejected, shatters);
+			} catch (IOException e) {
+				e.printStackTrace();
+				return false;
+			}
+		}
+		return ok;
+	}
+
+	static long stateHash(World world) {
+
+		/* Returns a hash of everything in the World that can change, exact down to the last bit of every double. */
+
+		long hash = world.getScore() * 31L + world.getTick();
+		AsteroidStore asteroids = world.getAsteroids();
+		for (int i = 0; i < asteroids.size(); i++) {
+			hash = hash * 31 + Double.doubleToLongBits(asteroids.getX(i));
+			hash = hash * 31 + Double.doubleToLongBits(asteroids.getY(i));
+			hash = hash * 31 + Double.doubleToLongBits(asteroids.getVX(i));
+			hash = hash * 31 + Double.doubleToLongBits(asteroids.getVY(i));
+			hash = hash * 31 + asteroids.getHp(i) * 7 + asteroids.getSize(i);
+		}
+		for (Ship.Bullet bullet : world.getBullets()) {
+			hash = hash * 31 + Double.doubleToLongBits(bullet.getX());
+			hash = hash * 31 + Double.doubleToLongBits(bullet.getY());
+			hash = hash * 31 + Double.doubleToLongBits(bullet.getVX());
+			hash = hash * 31 + Double.doubleToLongBits(bullet.getVY());
+		}
+		for (Ship ship : world.getShips()) {
+			Polygon body = ship.getShape();
+			for (int i = 0; i < body.npoints; i++) hash = (hash * 31 + body.xpoints[i]) * 31 + body.ypoints[i];
+		}
+		return hash;
+	}
+
+	private static boolean assetCheck() {
+
+		/* Loads every image the menus and game use the way they used to be loaded (one ImageIcon at a time, on
+		   this thread, scaled when first drawn), then through Assets, and prints how long each took. Returns
+		   whether Assets found every image and handed back one shared copy of each. */
+
+		String[] buttons = {"START", "MANUAL", "EXIT", "ARCADE", "2-PLAYER", "EASY", "MEDIUM", "HARD", "RESTART", "BACK"};
+		String[] titles = {"Title_SHOOTY CIRCLES.png", "Title_GAMEMODE.png", "Text_Manual.png", "Title_DIFFICULTY.png"};
+		java.awt.image.BufferedImage screen = new java.awt.image.BufferedImage(1280, 720, java.awt.image.BufferedImage.TYPE_INT_ARGB);
+
+		// The old way
+		long start = System.nanoTime();
+		Graphics g = screen.getGraphics();
+		for (String button : buttons) {
+			for (int state = 0; state < 3; state++) {
+				Image image = new javax.swing.ImageIcon(String.format("Images/Button_%s%d.png", button, state)).getImage().getScaledInstance(338, 96, Image.SCALE_DEFAULT);
+				new javax.swing.ImageIcon(image).paintIcon(null, g, 0, 0);
+			}
+		}
+		for (String title : titles) new javax.swing.ImageIcon("Images/" + title).paintIcon(null, g, 0, 0);
+		for (int i = 0; i < 4; i++) {
+			new javax.swing.ImageIcon(new javax.swing.ImageIcon("Images/Background_MainScreen.jpg").getImage().getScaledInstance(1280, 720, Image.SCALE_DEFAULT)).paintIcon(null, g, 0, 0);
+		}
+		new javax.swing.ImageIcon(new javax.swing.ImageIcon("Images/Background_GameScreen.png").getImage().getScaledInstance(1280, 720, Image.SCALE_DEFAULT)).paintIcon(null, g, 0, 0);
+		long oldNanos = System.nanoTime() - start;
+
+		// Through Assets
+		Assets.clear();
+		start = System.nanoTime();
+		Assets.preload();
+		long askedNanos = 0;
+		boolean found = true;
+		try {
+			for (String button : buttons) {
+				for (int state = 0; state < 3; state++) Assets.icon(String.format("Button_%s%d.png", button, state), 338, 96);
+			}
+			for (String title : titles) Assets.icon(title);
+			for (int i = 0; i < 4; i++) Assets.icon("Background_MainScreen.jpg", 1280, 720);
+			Assets.icon("Background_GameScreen.png", 1280, 720);
+			askedNanos = System.nanoTime() - start;
+			Assets.awaitAll();
+			for (String button : buttons) {
+				for (int state = 0; state < 3; state++) {
+					found &= Assets.icon(String.format("Button_%s%d.png", button, state), 338, 96).getImage() != null;
+				}
+			}
+			for (String title : titles) found &= Assets.icon(title).getImage() != null;
+		} catch (InterruptedException | java.util.concurrent.ExecutionException e) {
+			found = false;
+		}
+		long newNanos = System.nanoTime() - start;
+		g.dispose();
+
+		boolean shared = Assets.icon("Background_MainScreen.jpg", 1280, 720) == Assets.icon("background_mainscreen.JPG", 1280, 720);
+		System.out.printf("%n%-28s %12s %12s %12s %10s%n", "assets.preload", "old ms", "ready ms", "all ms", "found");
+		System.out.printf("%-28s %12.1f %12.1f %12.1f %10s%n", Runtime.getRuntime().availableProcessors() + " threads",
+			oldNanos / 1e6, askedNanos / 1e6, newNanos / 1e6, found && shared ? "yes" : "NO");
+		return found && shared;
+	}
+
+	private static void heapReport() {
+
+		/* Spawns a field of Asteroids, shatters them down through every size, then makes a fleet of Ships, and
+		   prints what each one allocated while being made and what it still holds on to afterwards, going by
+		   the JVM's class histogram (the same one "jcmd <pid> GC.class_histogram" prints), along with the classes
+		   that grew the most. */
+
+		int fieldSize = 2000, fleetSize = 2000;
+		long threadId = Thread.currentThread().getId();
+		System.out.printf("%n%-28s %8s %14s %12s   %s%n", "asteroid.heap", "count", "alloc B/each", "held B/each", "most held");
+
+		Map<String, long[]> before = classHistogram();
+		long allocated = threads.getThreadAllocatedBytes(threadId);
+		AsteroidStore field = new AsteroidStore(1);
+		field.setMaxWeight(Integer.MAX_VALUE);
+		for (int i = 0; i < fieldSize; i++) field.add(2, i % 1280, i % 720, 1, 1, 0.01);
+		for (int pass = 0; pass < 2; pass++) {
+			for (int i = field.size() - 1; i >= 0; i--) {
+				if (field.getSize(i) == 2 - pass) field.shatter(i);
+			}
+		}
+		allocated = threads.getThreadAllocatedBytes(threadId) - allocated;
+		heapLine("asteroids", field.size(), allocated, before, classHistogram());
+		sink += field.size();
+
+		before = classHistogram();
+		allocated = threads.getThreadAllocatedBytes(threadId);
+		Ship[] fleet = new Ship[fleetSize];
+		for (int i = 0; i < fleetSize; i++) fleet[i] = new Ship(i % 2, i % 1280, i % 720, 0.05, 0.995, 0.1);
+		allocated = threads.getThreadAllocatedBytes(threadId) - allocated;
+		heapLine("ships", fleetSize, allocated, before, classHistogram());
+		sink += fleet.length + field.size();
+	}
+
+	private static void heapLine(String what, int count, long allocated, Map<String, long[]> before, Map<String, long[]> after) {
+
+		/* Prints one line of the heap report from the class histograms taken before and after making count things. */
+
+		long held = 0;
+		ArrayList<Map.Entry<String, long[]>> grown = new ArrayList<>();
+		for (Map.Entry<String, long[]> entry : after.entrySet()) {
+			long[] was = before.getOrDefault(entry.getKey(), new long[2]);
+			long bytes = entry.getValue()[1] - was[1];
+			held += bytes;
+			if (bytes > 0) grown.add(new AbstractMap.SimpleEntry<>(entry.getKey(), new long[] {entry.getValue()[0] - was[0], bytes}));
+		}
+		grown.sort((a, b) -> Long.compare(b.getValue()[1], a.getValue()[1]));
+		StringBuilder most = new StringBuilder();
+		for (int i = 0; i < Math.min(4, grown.size()); i++) {
+			most.append(String.format("%s%s x%d", i > 0 ? ", " : "", grown.get(i).getKey(), grown.get(i).getValue()[0]));
+		}
+		System.out.printf("%-28s %8d %14.1f %12.1f   %s%n", what, count, (double) allocated / count, (double) held / count, most);
+	}
+
+	private static Map<String, long[]> classHistogram() {
+
+		/* Returns the live instance count and bytes of every class, after a full collection. */
+
+		HashMap<String, long[]> histogram = new HashMap<>();
+		try {
+			String text = (String) ManagementFactory.getPlatformMBeanServer().invoke(new javax.management.ObjectName("com.sun.management:type=DiagnosticCommand"),
+				"gcClassHistogram", new Object[] {null}, new String[] {String[].class.getName()});
+			for (String line : text.split("\n")) {
+				String[] columns = line.trim().split("\\s+");
+				if (columns.length < 4 || !columns[0].endsWith(":")) continue;
+				histogram.put(columns[3], new long[] {Long.parseLong(columns[1]), Long.parseLong(columns[2])});
+			}
+		} catch (javax.management.JMException e) {
+			System.err.println("No class histogram: " + e.getMessage());
+		}
+		return histogram;
+	}
+
+	private static boolean dirtyRenderCheck() {
+
+		/* Plays a quiet, a busy and a crowded scene twice over, one drawn through the DamageMap into an image that's kept
+		   from frame to frame and the other drawn whole every frame, with one Ship spinning, thrusting and
+		   shooting. Reports how many pixels and how long a frame takes each way, and checks every frame comes
+		   out the same both ways. Returns whether they all did. */
+
+		final int frames = 600, timed = 300;  // long enough for the stars to move on a few keyframes, timing only once warmed up
+		boolean same = true;
+		System.out.printf("%n%-28s %8s %14s %10s %12s %10s%n", "render.dirty", "scene", "pixels/frame", "share", "us/frame", "full");
+		for (int count : new int[] {3, 30, 300}) {
+			Space dirty = new Space(), whole = new Space();
+			World dirtyWorld = populatedWorld(count, 0), wholeWorld = populatedWorld(count, 0);
+			dirty.getStarField().reset(100, new GameRandom(0));
+			whole.getStarField().reset(100, new GameRandom(0));
+			java.awt.image.BufferedImage dirtyScreen = new java.awt.image.BufferedImage(1280, 720, java.awt.image.BufferedImage.TYPE_INT_RGB);
+			java.awt.image.BufferedImage wholeScreen = new java.awt.image.BufferedImage(1280, 720, java.awt.image.BufferedImage.TYPE_INT_RGB);
+			int[] dirtyPixels = ((java.awt.image.DataBufferInt) dirtyScreen.getRaster().getDataBuffer()).getData();
+			int[] wholePixels = ((java.awt.image.DataBufferInt) wholeScreen.getRaster().getDataBuffer()).getData();
+			Graphics2D dg = dirtyScreen.createGraphics(), wg = wholeScreen.createGraphics();
+
+			boolean[] keys = new boolean[java.awt.event.KeyEvent.KEY_LAST + 1];
+			keys[java.awt.event.KeyEvent.VK_UP] = keys[java.awt.event.KeyEvent.VK_RIGHT] = keys[java.awt.event.KeyEvent.VK_SPACE] = true;
+			long dirtyNanos = 0, wholeNanos = 0;
+			int mismatches = 0;
+			for (int frame = 0; frame < frames; frame++) {
+				dirtyWorld.step(keys);
+				wholeWorld.step(keys);
+				dirty.tick();
+				whole.tick();
+				double alpha = (frame % 4 + 1) / 4.0;  // between ticks too, the way frames usually land
+
+				long start = System.nanoTime();
+				dirty.paintFrame(dg, dirtyWorld, alpha, 1);
+				long middle = System.nanoTime();
+				whole.paintFrame(wg, wholeWorld, alpha, 0);
+				if (frame >= frames - timed) {
+					wholeNanos += System.nanoTime() - middle;
+					dirtyNanos += middle - start;
+				}
+				if (!Arrays.equals(dirtyPixels, wholePixels)) mismatches++;
+			}
+			dg.dispose();
+			wg.dispose();
+
+			String scene = "n=" + count;
+			DamageMap damage = dirty.getDamage(), all = whole.getDamage();
+			System.out.printf("%-28s %8s %14.0f %9.1f%% %12.1f %10s%n", "dirty", scene, damage.getMeanPixels(), 100 * damage.getMeanPixels() / damage.getScreenPixels(),
+				dirtyNanos / 1e3 / timed, damage.getFullFrames() + "/" + damage.getFrames());
+			System.out.printf("%-28s %8s %14.0f %9.1f%% %12.1f %10s%n", "whole", scene, all.getMeanPixels(), 100 * all.getMeanPixels() / all.getScreenPixels(),
+				wholeNanos / 1e3 / timed, all.getFullFrames() + "/" + all.getFrames());
+			System.out.printf("%-28s %8s %14s%n", "frames that differ", scene, mismatches == 0 ? "none" : mismatches + " of " + frames);
+			same &= mismatches == 0;
+		}
+		return same;
+	}
+
+	private static boolean sweepCheck() {
+
+		/* Fires a Bullet fast enough to jump clean over a small Asteroid in one tick, and checks it hits anyway,
+		   the first time it's checked. Returns whether it did. */
+
+		World world = populatedWorld(0, 0);
+		world.getAsteroids().add(0, 600, 300, 0, 0, 0);
+		Ship.Bullet bullet = new Ship(0, 550, 300, 0, 0, 0).fire();  // fired from (560, 315)
+		bullet.setVX(80);  // to 640 in one move, past the Asteroid's far side at 630
+		bullet.setVY(0);
+		world.getBullets().add(bullet);
+
+		boolean[] keys = new boolean[java.awt.event.KeyEvent.KEY_LAST + 1];
+		world.step(keys);  // moves the Bullet over the Asteroid
+		world.step(keys);  // and checks the path it took
+		boolean hit = world.getAsteroids().size() == 0 || world.getAsteroids().getHp(0) < 3;
+
+		System.out.printf("%n%-28s %8s%n", "bullet.sweep", "hit");
+		System.out.printf("%-28s %8s%n", "speed 80, 30 px Asteroid", hit ? "yes" : "NO");
+		return hit;
+	}
+
+	private static boolean restartSoak() {
+
+		/* Starts, plays and disposes GameSessions over and over, the way the restart button does, and checks
+		   that threads, live heap and tick cost stay where they were after the first batch. Returns whether they did. */
+
+		Object lock = new Object();
+		boolean[] keys = new boolean[java.awt.event.KeyEvent.KEY_LAST + 1];
+		long firstHeap = 0;
+		double firstTick = 0;
+		boolean flat = true;
+
+		System.out.printf("%n%-28s %8s %14s %12s %10s%n", "session.restart", "restarts", "tick ns", "heap KB", "loops");
+		long tickNanos = 0, tickCount = 0;
+		for (int r = 1; r <= SOAK_RESTARTS; r++) {
+			GameSession session = new GameSession(r % 3 + 1, r % 2 + 1, r, keys, null, lock, 60);
+			session.start();
+			for (int i = 0; i < SOAK_TICKS; i++) {
+				synchronized (lock) {
+					long start = System.nanoTime();
+					session.tick();
+					tickNanos += System.nanoTime() - start;
+				}
+				tickCount++;
+			}
+			session.dispose();
+			if (session.getLoop().isRunning() || session.getWorld().getBullets().size() + session.getWorld().getAsteroids().size() > 0) {
+				System.out.println("session " + r + " still running or holding objects after dispose");
+				flat = false;
+			}
+
+			if (r % SOAK_REPORT_EVERY == 0) {
+				double tick = (double) tickNanos / tickCount;
+				long heap = liveHeap();
+				int loops = liveLoopThreads();
+				System.out.printf("%-28s %8d %14.1f %12d %10d%n", "", r, tick, heap / 1024, loops);
+				if (r == SOAK_REPORT_EVERY) {
+					firstHeap = heap;
+					firstTick = tick;
+				} else {
+					// Generous bounds, since GC and the JIT move these around a little on their own
+					if (heap > firstHeap * 3 / 2 + (1 << 20)) flat = false;
+					if (tick > firstTick * 3 + 1000) flat = false;
+				}
+				if (loops > 0 || Ship.getCount() != 0) flat = false;
+				tickNanos = tickCount = 0;
+			}
+		}
+
+		System.out.println(flat ? "session.restart: flat" : "session.restart: LEAKING");
+		return flat;
+	}
+
+	private static int liveLoopThreads() {
+
+		/* Returns how many GameLoop threads are still alive. Other threads (e.g. AWT's image loaders) come and
+		   go on their own, so only these say anything about sessions being torn down. */
+
+		int count = 0;
+		for (Thread thread : Thread.getAllStackTraces().keySet()) if (thread.getName().equals("GameLoop")) count++;
+		return count;
+	}
+
+	private static long liveHeap() {
+
+		/* Returns roughly how much of the heap is still reachable, by collecting first. */
+
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) System.gc();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	static World populatedWorld(int count, long seed) {
+
+		/* Returns a World with count Asteroids and count Bullets scattered about, and spawning turned off. */
+
+		Random rng = new Random(seed);
+		World world = new World();
+		world.init(1, 1);
+		world.setSeed(seed);
+		for (int i = 0; i < count; i++) {
+			world.getAsteroids().add(rng.nextInt(3), rng.nextInt(1280), rng.nextInt(720), rng.nextDouble() * 4 - 2, rng.nextDouble() * 4 - 2, rng.nextDouble() / 100);
+		}
+		for (int i = 0; i < count; i++) {
+			Ship.Bullet bullet = new Ship(0, rng.nextInt(1280), rng.nextInt(720), 0, 0, 0).fire();
+			bullet.setVX(rng.nextDouble() * 28 - 14);
+			bullet.setVY(rng.nextDouble() * 28 - 14);
+			world.getBullets().add(bullet);
+		}
+		world.getAsteroids().setMaxWeight(1);  // already over the limit, so nothing spawns
+		return world;
+	}
+
+	private static Benchmark tickBenchmark(Supplier<World> worlds) {
+
+		/* Returns a Benchmark that steps a World, starting every iteration from a new one. */
+
+		return new Benchmark() {
+
+			private World world;
+			private boolean[] keys = new boolean[java.awt.event.KeyEvent.KEY_LAST + 1];
+
+			@Override
+			public void setup() {
+
+				/* Starts every iteration from the same crowded World. */
+
+				this.world = worlds.get();
+			}
+
+			@Override
+			public int maxOps() {
+
+				/* Keeps iterations short enough that the World stays about as crowded as it started. */
+
+				return 200;
+			}
+
+			@Override
+			public long run(int ops) {
+				long sum = 0;
+				for (int i = 0; i < ops; i++) {
+					this.world.step(this.keys);
+					sum += this.world.getAsteroids().size();
+				}
+				return sum;
+			}
+		};
+	}
+
+	private static World heaviestWorld(long seed) {
+
+		/* Returns a World holding AsteroidStore.MAX_WEIGHT of the smallest Asteroids, the most Asteroids
+		   there can be at once, with spawning turned off. */
+
+		Random rng = new Random(seed);
+		World world = new World();
+		world.init(1, 1);
+		world.setSeed(seed);
+		for (int i = 0; i < AsteroidStore.MAX_WEIGHT; i++) {
+			world.getAsteroids().add(0, rng.nextInt(1280), rng.nextInt(720), rng.nextDouble() * 4 - 2, rng.nextDouble() * 4 - 2, rng.nextDouble() / 100);
+		}
+		world.getAsteroids().setMaxWeight(1);
+		return world;
+	}
+
+	private static void report(String name, String param, Benchmark benchmark) {
+
+		/* Runs a benchmark and prints its results. */
+
+		// Find an op count that makes an iteration about ITERATION_NANOS long
+		int ops = 1;
+		while (true) {
+			benchmark.setup();
+			long start = System.nanoTime();
+			sink += benchmark.run(ops);
+			long took = System.nanoTime() - start;
+			if (took > ITERATION_NANOS / 10 || ops >= benchmark.maxOps()) {
+				ops = (int) Math.max(1, Math.min(benchmark.maxOps(), ops * ITERATION_NANOS / Math.max(1, took)));
+				break;
+			}
+			ops *= 2;
+		}
+
+		for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+			benchmark.setup();
+			sink += benchmark.run(ops);
+		}
+
+		// Measured iterations
+		long threadId = Thread.currentThread().getId();
+		double[] nanosPerOp = new double[MEASURED_ITERATIONS];
+		long allocated = 0, gcs = gcCount();
+		for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+			benchmark.setup();
+			long bytesBefore = threads.getThreadAllocatedBytes(threadId);
+			long start = System.nanoTime();
+			sink += benchmark.run(ops);
+			nanosPerOp[i] = (double) (System.nanoTime() - start) / ops;
+			allocated += threads.getThreadAllocatedBytes(threadId) - bytesBefore;
+		}
+		gcs = gcCount() - gcs;
+
+		// Mean and spread over the iterations
+		double mean = 0, spread = 0;
+		for (double n : nanosPerOp) mean += n / MEASURED_ITERATIONS;
+		for (double n : nanosPerOp) spread += (n - mean) * (n - mean) / MEASURED_ITERATIONS;
+		String time = String.format("%.1f +- %.1f", mean, Math.sqrt(spread));
+
+		System.out.printf("%-28s %8s %14s %12.1f %10d%n", name, param, time, (double) allocated / ((long) ops * MEASURED_ITERATIONS), gcs);
+	}
+
+	private static long gcCount() {
+
+		/* Returns how many garbage collections have happened so far. */
+
+		long count = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) count += Math.max(0, gc.getCollectionCount());
+		return count;
+	}
+}
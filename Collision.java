@@ -0,0 +1,747 @@
+/*
+    Adam Mehdi & Syed Safwaan
+    Collision.java
+    Helpers that keep the collision checks in the Space cheap.
+
+    Classes:
+    - SpatialHash   A uniform grid that finds which objects could possibly be touching
+    - > Candidates  A reusable list of object indices returned by the grid
+    - SweepAndPrune Finds which Asteroids' boxes overlap by keeping their edges sorted along x from tick to tick
+    - Collider      Exact collision tests between the shapes of the game, done without allocating
+*/
+
+import java.awt.*;
+import java.awt.geom.Area;
+import java.util.Arrays;
+
+class SpatialHash {
+
+	/* A uniform grid laid over the (wrapping) Space. Objects are filed into every cell their bounding box covers,
+	   so only objects sharing a cell need to go through the real (expensive) collision check. */
+
+	// Fields //
+
+	private final int cellSize, cols, rows;
+
+	// Each cell is a linked list of entries, stored in flat arrays so a rebuild doesn't allocate
+	private int[] cellHead;
+	private int[] entryNext = new int[64];
+	private int[] entryId = new int[64];
+	private int entryCount;
+
+	// Constructor //
+
+	public SpatialHash(int width, int height, int cellSize) {
+
+		/* Constructs and returns a new SpatialHash covering a width x height Space. */
+
+		this.cellSize = cellSize;
+		this.cols = (width + cellSize - 1) / cellSize;
+		this.rows = (height + cellSize - 1) / cellSize;
+		this.cellHead = new int[this.cols * this.rows];
+		this.clear();
+	}
+
+	public void clear() {
+
+		/* Empties every cell of the grid. */
+
+		Arrays.fill(this.cellHead, -1);
+		this.entryCount = 0;
+	}
+
+	public void insert(int id, int minX, int minY, int maxX, int maxY) {
+
+		/* Files an object under every cell touched by the given bounding box. */
+
+		int cx0 = Math.floorDiv(minX, this.cellSize), cx1 = Math.floorDiv(maxX, this.cellSize);
+		int cy0 = Math.floorDiv(minY, this.cellSize), cy1 = Math.floorDiv(maxY, this.cellSize);
+
+		// Boxes wider than the Space would wrap onto themselves, so just cover the whole row/column
+		if (cx1 - cx0 >= this.cols) {
+			cx0 = 0;
+			cx1 = this.cols - 1;
+		}
+		if (cy1 - cy0 >= this.rows) {
+			cy0 = 0;
+			cy1 = this.rows - 1;
+		}
+
+		for (int cy = cy0; cy <= cy1; cy++) {
+			int row = Math.floorMod(cy, this.rows) * this.cols;
+			for (int cx = cx0; cx <= cx1; cx++) {
+				int cell = row + Math.floorMod(cx, this.cols);
+
+				if (this.entryCount == this.entryId.length) {
+					this.entryId = Arrays.copyOf(this.entryId, this.entryCount * 2);
+					this.entryNext = Arrays.copyOf(this.entryNext, this.entryCount * 2);
+				}
+				this.entryId[this.entryCount] = id;
+				this.entryNext[this.entryCount] = this.cellHead[cell];
+				this.cellHead[cell] = this.entryCount++;
+			}
+		}
+	}
+
+	public void insert(int id, Polygon p) {
+
+		/* Files a Polygon under every cell its bounds touch. */
+
+		this.insert(id, Collider.min(p.xpoints, 0, p.npoints), Collider.min(p.ypoints, 0, p.npoints), Collider.max(p.xpoints, 0, p.npoints), Collider.max(p.ypoints, 0, p.npoints));
+	}
+
+	public void insert(int id, Rectangle r) {
+
+		/* Files a Rectangle under every cell it touches. */
+
+		this.insert(id, r.x, r.y, r.x + r.width, r.y + r.height);
+	}
+
+	public void query(int minX, int minY, int maxX, int maxY, Candidates out) {
+
+		/* Collects the ids of all objects sharing a cell with the given bounding box, in ascending order. */
+
+		out.clear();
+
+		int cx0 = Math.floorDiv(minX, this.cellSize), cx1 = Math.floorDiv(maxX, this.cellSize);
+		int cy0 = Math.floorDiv(minY, this.cellSize), cy1 = Math.floorDiv(maxY, this.cellSize);
+		if (cx1 - cx0 >= this.cols) {
+			cx0 = 0;
+			cx1 = this.cols - 1;
+		}
+		if (cy1 - cy0 >= this.rows) {
+			cy0 = 0;
+			cy1 = this.rows - 1;
+		}
+
+		for (int cy = cy0; cy <= cy1; cy++) {
+			int row = Math.floorMod(cy, this.rows) * this.cols;
+			for (int cx = cx0; cx <= cx1; cx++) {
+				for (int e = this.cellHead[row + Math.floorMod(cx, this.cols)]; e != -1; e = this.entryNext[e]) {
+					out.add(this.entryId[e]);
+				}
+			}
+		}
+
+		// Objects spanning several cells show up more than once
+		out.sortUnique();
+	}
+
+	public void query(Polygon p, Candidates out) {
+
+		/* Collects the ids of all objects sharing a cell with a Polygon. */
+
+		this.query(p.xpoints, p.ypoints, 0, p.npoints, out);
+	}
+
+	public void query(int[] xs, int[] ys, int off, int n, Candidates out) {
+
+		/* Collects the ids of all objects sharing a cell with a polygon given as n points from an offset. */
+
+		this.query(Collider.min(xs, off, n), Collider.min(ys, off, n), Collider.max(xs, off, n), Collider.max(ys, off, n), out);
+	}
+
+	static class Candidates {
+
+		/* A growable list of object ids, kept around between queries so it doesn't need reallocating. */
+
+		private int[] ids = new int[16];
+		private int count;
+
+		public void clear() {
+
+			/* Empties the list. */
+
+			this.count = 0;
+		}
+
+		public void add(int id) {
+
+			/* Appends an id to the list. */
+
+			if (this.count == this.ids.length) this.ids = Arrays.copyOf(this.ids, this.count * 2);
+			this.ids[this.count++] = id;
+		}
+
+		public void sortUnique() {
+
+			/* Sorts the list and drops repeated ids. */
+
+			Arrays.sort(this.ids, 0, this.count);
+			int unique = 0;
+			for (int i = 0; i < this.count; i++) {
+				if (unique == 0 || this.ids[unique - 1] != this.ids[i]) this.ids[unique++] = this.ids[i];
+			}
+			this.count = unique;
+		}
+
+		public int size() {
+
+			/* Returns the number of ids in the list. */
+
+			return this.count;
+		}
+
+		public int get(int i) {
+
+			/* Returns the id at a given position in the list. */
+
+			return this.ids[i];
+		}
+	}
+}
+
+class SweepAndPrune {
+
+	/* Every Asteroid's bounding box has a left and a right edge on the x axis. Those edges are kept in one list
+	   sorted by x, and walking it from left to right, each box that opens is checked against only the boxes
+	   still open at that point. Asteroids drift a few pixels a tick, so last tick's list is nearly sorted
+	   already and an insertion sort puts it right in close to one pass.
+
+	   Slots are ids into the AsteroidStore. When a removal moves the last Asteroid into a freed slot, that slot's
+	   edges just jump to a new place and get sorted along with the rest. */
+
+	// Fields //
+
+	private int[] edges = new int[32];  // slot << 1 for a left edge, slot << 1 | 1 for a right edge, sorted by x
+	private int edgeCount, tracked;  // tracked: slots 0..tracked-1 have their edges in the list
+	private int[] minX = new int[16], maxX = new int[16], minY = new int[16], maxY = new int[16];
+
+	// The boxes open during a sweep, and where each sits in that list
+	private int[] open = new int[16], openAt = new int[16];
+
+	// Overlapping pairs found by the last sweep, as (higher slot << 32 | lower slot), in ascending order
+	private long[] pairs = new long[64];
+	private int pairCount;
+	private int lastSwaps;  // edges moved by the last sort, to see how near to sorted the list stayed
+
+	public void update(AsteroidStore asteroids) {
+
+		/* Brings the edge list up to date with where the Asteroids are now, and finds every pair of boxes that
+		   overlap. */
+
+		int n = asteroids.size();
+		if (this.minX.length < n) {
+			int capacity = Math.max(n, this.minX.length * 2);
+			this.minX = Arrays.copyOf(this.minX, capacity);
+			this.maxX = Arrays.copyOf(this.maxX, capacity);
+			this.minY = Arrays.copyOf(this.minY, capacity);
+			this.maxY = Arrays.copyOf(this.maxY, capacity);
+			this.open = Arrays.copyOf(this.open, capacity);
+			this.openAt = Arrays.copyOf(this.openAt, capacity);
+			this.edges = Arrays.copyOf(this.edges, capacity * 2);
+		}
+
+		// Forget slots that have gone, keeping the others in order
+		if (n < this.tracked) {
+			int kept = 0;
+			for (int k = 0; k < this.edgeCount; k++) {
+				if (this.edges[k] >> 1 < n) this.edges[kept++] = this.edges[k];
+			}
+			this.edgeCount = kept;
+		}
+
+		// Current boxes
+		int[] pointsX = asteroids.getPointsX(), pointsY = asteroids.getPointsY();
+		for (int i = 0; i < n; i++) {
+			asteroids.updateShape(i);
+			int off = i * AsteroidStore.MAX_POINTS, count = asteroids.getPointCount(i);
+			int x0 = pointsX[off], x1 = x0, y0 = pointsY[off], y1 = y0;
+			for (int k = 1; k < count; k++) {
+				x0 = Math.min(x0, pointsX[off + k]);
+				x1 = Math.max(x1, pointsX[off + k]);
+				y0 = Math.min(y0, pointsY[off + k]);
+				y1 = Math.max(y1, pointsY[off + k]);
+			}
+			this.minX[i] = x0;
+			this.maxX[i] = x1;
+			this.minY[i] = y0;
+			this.maxY[i] = y1;
+		}
+
+		// New slots go on the end and get sorted in with the rest
+		for (int i = this.tracked; i < n; i++) {
+			this.edges[this.edgeCount++] = i << 1;
+			this.edges[this.edgeCount++] = i << 1 | 1;
+		}
+		this.tracked = n;
+
+		// Insertion sort, which is close to linear on a list that's nearly sorted
+		int swaps = 0;
+		for (int k = 1; k < this.edgeCount; k++) {
+			int edge = this.edges[k];
+			long key = this.key(edge);
+			int m = k - 1;
+			while (m >= 0 && this.key(this.edges[m]) > key) {
+				this.edges[m + 1] = this.edges[m];
+				m--;
+			}
+			swaps += k - 1 - m;
+			this.edges[m + 1] = edge;
+		}
+		this.lastSwaps = swaps;
+
+		this.sweep();
+	}
+
+	private long key(int edge) {
+
+		/* Returns what an edge is sorted by: its x, with right edges before left ones at the same x, so boxes
+		   that only touch aren't counted as overlapping (the exact tests don't count them either). */
+
+		int slot = edge >> 1;
+		return (edge & 1) == 0 ? (long) this.minX[slot] << 1 | 1 : (long) this.maxX[slot] << 1;
+	}
+
+	private void sweep() {
+
+		/* Walks the sorted edges, pairing each box that opens with every open box it overlaps on y too. */
+
+		int openCount = 0;
+		this.pairCount = 0;
+		for (int k = 0; k < this.edgeCount; k++) {
+			int slot = this.edges[k] >> 1;
+			if ((this.edges[k] & 1) == 0) {
+				for (int o = 0; o < openCount; o++) {
+					int other = this.open[o];
+					if (this.minY[slot] < this.maxY[other] && this.minY[other] < this.maxY[slot]) {
+						if (this.pairCount == this.pairs.length) this.pairs = Arrays.copyOf(this.pairs, this.pairCount * 2);
+						this.pairs[this.pairCount++] = slot > other ? (long) slot << 32 | other : (long) other << 32 | slot;
+					}
+				}
+				this.openAt[slot] = openCount;
+				this.open[openCount++] = slot;
+			} else {
+				int at = this.openAt[slot], last = this.open[--openCount];
+				this.open[at] = last;
+				this.openAt[last] = at;
+			}
+		}
+
+		// Same order as going through every i, and every j < i
+		Arrays.sort(this.pairs, 0, this.pairCount);
+	}
+
+	public void clear() {
+
+		/* Forgets every slot, for a store that has been cleared or replaced wholesale. */
+
+		this.edgeCount = 0;
+		this.tracked = 0;
+		this.pairCount = 0;
+	}
+
+	// Accessors //
+
+	public int getPairCount() {
+
+		/* Returns how many pairs of boxes overlapped in the last update. */
+
+		return this.pairCount;
+	}
+
+	public int getFirst(int k) {
+
+		/* Returns the higher slot of pair k. */
+
+		return (int) (this.pairs[k] >>> 32);
+	}
+
+	public int getSecond(int k) {
+
+		/* Returns the lower slot of pair k. */
+
+		return (int) this.pairs[k];
+	}
+
+	public int getLastSwaps() {
+
+		/* Returns how many places edges moved in the last sort. */
+
+		return this.lastSwaps;
+	}
+}
+
+class Collider {
+
+	/* Exact (narrow phase) collision tests. Everything works straight off the coordinate arrays, so a test
+	   never allocates. Polygons that aren't convex are cut into triangles first; Area is only a last resort
+	   for shapes that can't be cut up that way.
+	   As with Area, shapes that only touch along an edge or at a corner are not counted as colliding. */
+
+	public static boolean collide(Polygon a, Polygon b) {
+
+		/* Checks if two Polygons are colliding. */
+
+		return collide(a.xpoints, a.ypoints, 0, a.npoints, b.xpoints, b.ypoints, 0, b.npoints);
+	}
+
+	public static boolean collide(int[] ax, int[] ay, int aOff, int an, int[] bx, int[] by, int bOff, int bn) {
+
+		/* Checks if two polygons, each given as n points from an offset, are colliding. */
+
+		// A concave shape passing the convex test still needs checking piece by piece
+		if (!polygons(ax, ay, aOff, an, bx, by, bOff, bn)) return false;
+		if (isConvex(ax, ay, aOff, an) && isConvex(bx, by, bOff, bn)) return true;
+		return pieces(ax, ay, aOff, an, triangulate(ax, ay, aOff, an), bx, by, bOff, bn, triangulate(bx, by, bOff, bn));
+	}
+
+	public static boolean collide(int[] ax, int[] ay, int aOff, int an, boolean aConvex, long aTriangles, int[] bx, int[] by, int bOff, int bn, boolean bConvex, long bTriangles) {
+
+		/* Checks if two polygons are colliding, given what isConvex and triangulate say about each. The same as
+		   the test above, for polygons tested against many others, so each is only looked over once. */
+
+		if (!polygons(ax, ay, aOff, an, bx, by, bOff, bn)) return false;
+		if (aConvex && bConvex) return true;
+		return pieces(ax, ay, aOff, an, aTriangles, bx, by, bOff, bn, bTriangles);
+	}
+
+	private static boolean pieces(int[] ax, int[] ay, int aOff, int an, long aTriangles, int[] bx, int[] by, int bOff, int bn, long bTriangles) {
+
+		/* Checks two polygons that may be concave for overlap triangle by triangle, or with Area if either couldn't be cut up. */
+
+		if (aTriangles >= 0 && bTriangles >= 0) {
+			for (int i = 0; i < an - 2; i++) {
+				int a = (int) (aTriangles >>> 9 * i) & 511;
+				for (int j = 0; j < bn - 2; j++) {
+					if (triangles(ax, ay, aOff, a, bx, by, bOff, (int) (bTriangles >>> 9 * j) & 511)) return true;
+				}
+			}
+			return false;
+		}
+		return areas(
+			new Polygon(Arrays.copyOfRange(ax, aOff, aOff + an), Arrays.copyOfRange(ay, aOff, aOff + an), an),
+			new Polygon(Arrays.copyOfRange(bx, bOff, bOff + bn), Arrays.copyOfRange(by, bOff, bOff + bn), bn)
+		);
+	}
+
+	public static boolean collide(Polygon p, Rectangle r) {
+
+		/* Checks if a Polygon and a Rectangle are colliding. */
+
+		if (!polygonRect(p.xpoints, p.ypoints, 0, p.npoints, r.x, r.y, r.width, r.height)) return false;
+		return isConvex(p.xpoints, p.ypoints, 0, p.npoints) || areas(p, r);
+	}
+
+	public static boolean polygons(int[] ax, int[] ay, int aOff, int an, int[] bx, int[] by, int bOff, int bn) {
+
+		/* Checks two convex polygons for overlap with the separating axis test.
+		   A concave polygon is tested as if it were convex, so a false result is always exact. */
+
+		// Bounding box reject first, most pairs stop here
+		if (max(ax, aOff, an) <= min(bx, bOff, bn) || max(bx, bOff, bn) <= min(ax, aOff, an)) return false;
+		if (max(ay, aOff, an) <= min(by, bOff, bn) || max(by, bOff, bn) <= min(ay, aOff, an)) return false;
+
+		// Zero-area polygons can't overlap anything (Area agrees)
+		if (twiceArea(ax, ay, aOff, an) == 0 || twiceArea(bx, by, bOff, bn) == 0) return false;
+
+		return !separatedByEdgeOf(ax, ay, aOff, an, bx, by, bOff, bn) && !separatedByEdgeOf(bx, by, bOff, bn, ax, ay, aOff, an);
+	}
+
+	public static boolean polygonRect(int[] xs, int[] ys, int off, int n, int rx, int ry, int rw, int rh) {
+
+		/* Checks a convex polygon and an axis-aligned rectangle for overlap. */
+
+		// The rectangle's own axes are just its bounding box
+		if (max(xs, off, n) <= rx || rx + rw <= min(xs, off, n)) return false;
+		if (max(ys, off, n) <= ry || ry + rh <= min(ys, off, n)) return false;
+		if (rw <= 0 || rh <= 0 || twiceArea(xs, ys, off, n) == 0) return false;
+
+		// Then the polygon's edges against the rectangle's four corners
+		for (int i = 0; i < n; i++) {
+			int j = i + 1 == n ? 0 : i + 1;
+			long nx = ys[off + i] - ys[off + j], ny = xs[off + j] - xs[off + i];
+			if (nx == 0 && ny == 0) continue;  // repeated point, no edge to test
+
+			long polyMin = Long.MAX_VALUE, polyMax = Long.MIN_VALUE;
+			for (int k = 0; k < n; k++) {
+				long d = nx * xs[off + k] + ny * ys[off + k];
+				if (d < polyMin) polyMin = d;
+				if (d > polyMax) polyMax = d;
+			}
+
+			long c0 = nx * rx + ny * ry, c1 = nx * (rx + rw) + ny * ry;
+			long c2 = nx * (rx + rw) + ny * (ry + rh), c3 = nx * rx + ny * (ry + rh);
+			long rectMin = Math.min(Math.min(c0, c1), Math.min(c2, c3));
+			long rectMax = Math.max(Math.max(c0, c1), Math.max(c2, c3));
+			if (polyMax <= rectMin || rectMax <= polyMin) return false;
+		}
+		return true;
+	}
+
+	public static boolean circleRect(double cx, double cy, double radius, int rx, int ry, int rw, int rh) {
+
+		/* Checks a circle and an axis-aligned rectangle for overlap. */
+
+		// Distance from the centre to the closest point of the rectangle
+		double dx = cx - Math.max(rx, Math.min(cx, rx + rw));
+		double dy = cy - Math.max(ry, Math.min(cy, ry + rh));
+		return dx * dx + dy * dy < radius * radius;
+	}
+
+	public static double sweepCircle(double x0, double y0, double x1, double y1, double r, int[] xs, int[] ys, int off, int n) {
+
+		/* Returns how far (0 to 1) a circle of radius r gets moving from centre (x0, y0) to (x1, y1) before it first
+		   touches a polygon (n points from an offset, convex or not), or -1 if it never does. 0 means it was
+		   touching from the start. Nothing fast enough to skip over the polygon in one move can get past this. */
+
+		// Box reject first, most pairs stop here
+		if (Math.max(x0, x1) + r <= min(xs, off, n) || max(xs, off, n) <= Math.min(x0, x1) - r) return -1;
+		if (Math.max(y0, y1) + r <= min(ys, off, n) || max(ys, off, n) <= Math.min(y0, y1) - r) return -1;
+		if (contains(xs, ys, off, n, x0, y0)) return 0;
+
+		// Everything within r of the outline is every edge's band plus every corner's circle
+		double dx = x1 - x0, dy = y1 - y0, first = 2;
+		for (int i = 0; i < n; i++) {
+			int j = i + 1 == n ? 0 : i + 1;
+			first = Math.min(first, sweepPoint(x0, y0, dx, dy, r, xs[off + i], ys[off + i]));
+			first = Math.min(first, sweepEdge(x0, y0, dx, dy, r, xs[off + i], ys[off + i], xs[off + j], ys[off + j]));
+		}
+		return first <= 1 ? first : -1;
+	}
+
+	public static double sweepCircleRect(double x0, double y0, double x1, double y1, double r, int rx, int ry, int rw, int rh) {
+
+		/* Returns how far (0 to 1) a circle of radius r gets moving from centre (x0, y0) to (x1, y1) before it first
+		   touches an axis-aligned rectangle, or -1 if it never does. */
+
+		if (Math.max(x0, x1) + r <= rx || rx + rw <= Math.min(x0, x1) - r) return -1;
+		if (Math.max(y0, y1) + r <= ry || ry + rh <= Math.min(y0, y1) - r) return -1;
+		if (circleRect(x0, y0, r, rx, ry, rw, rh)) return 0;
+
+		double dx = x1 - x0, dy = y1 - y0, first = 2;
+		int right = rx + rw, bottom = ry + rh;
+		first = Math.min(first, sweepPoint(x0, y0, dx, dy, r, rx, ry));
+		first = Math.min(first, sweepPoint(x0, y0, dx, dy, r, right, ry));
+		first = Math.min(first, sweepPoint(x0, y0, dx, dy, r, right, bottom));
+		first = Math.min(first, sweepPoint(x0, y0, dx, dy, r, rx, bottom));
+		first = Math.min(first, sweepEdge(x0, y0, dx, dy, r, rx, ry, right, ry));
+		first = Math.min(first, sweepEdge(x0, y0, dx, dy, r, right, ry, right, bottom));
+		first = Math.min(first, sweepEdge(x0, y0, dx, dy, r, right, bottom, rx, bottom));
+		first = Math.min(first, sweepEdge(x0, y0, dx, dy, r, rx, bottom, rx, ry));
+		return first <= 1 ? first : -1;
+	}
+
+	private static double sweepPoint(double x0, double y0, double dx, double dy, double r, int px, int py) {
+
+		/* Returns when a point moving from (x0, y0) by (dx, dy) first comes within r of (px, py), as a fraction of
+		   the move, or something over 1 if it doesn't. */
+
+		double fx = x0 - px, fy = y0 - py;
+		double c = fx * fx + fy * fy - r * r;
+		if (c <= 0) return 0;
+		double a = dx * dx + dy * dy, b = fx * dx + fy * dy;
+		if (a == 0 || b >= 0) return 2;  // standing still or heading away
+		double disc = b * b - a * c;
+		return disc < 0 ? 2 : (-b - Math.sqrt(disc)) / a;
+	}
+
+	private static double sweepEdge(double x0, double y0, double dx, double dy, double r, int ax, int ay, int bx, int by) {
+
+		/* Returns when a point moving from (x0, y0) by (dx, dy) first enters the band within r of the edge from A to B
+		   (not counting past its ends, which the corners' circles cover), or something over 1 if it doesn't. */
+
+		double ex = bx - ax, ey = by - ay, length = Math.sqrt(ex * ex + ey * ey);
+		if (length == 0) return 2;
+
+		// Distance from the edge's line along its normal, now and how fast it's changing
+		double s = ((x0 - ax) * -ey + (y0 - ay) * ex) / length, ds = (dx * -ey + dy * ex) / length;
+		double t;
+		if (Math.abs(s) <= r) {
+			t = 0;
+		} else {
+			if (ds == 0 || (s > 0) == (ds > 0)) return 2;  // moving along or away
+			t = ((s > 0 ? r : -r) - s) / ds;
+			if (t > 1) return 2;
+		}
+
+		// Only counts between the ends
+		double u = ((x0 + t * dx - ax) * ex + (y0 + t * dy - ay) * ey) / (length * length);
+		return u >= 0 && u <= 1 ? t : 2;
+	}
+
+	private static boolean contains(int[] xs, int[] ys, int off, int n, double x, double y) {
+
+		/* Returns whether a point is inside a polygon (crossing count, so concave ones work too). */
+
+		boolean inside = false;
+		for (int i = 0, j = n - 1; i < n; j = i++) {
+			int yi = ys[off + i], yj = ys[off + j];
+			if ((yi > y) != (yj > y) && x < xs[off + j] + (y - yj) * (xs[off + i] - xs[off + j]) / (yi - yj)) inside = !inside;
+		}
+		return inside;
+	}
+
+	public static boolean isConvex(int[] xs, int[] ys, int off, int n) {
+
+		/* Returns whether a polygon turns the same way at every corner. */
+
+		int sign = 0;
+		for (int i = 0; i < n; i++) {
+			int j = (i + 1) % n, k = (i + 2) % n;
+			long cross = (long) (xs[off + j] - xs[off + i]) * (ys[off + k] - ys[off + j]) - (long) (ys[off + j] - ys[off + i]) * (xs[off + k] - xs[off + j]);
+			if (cross > 0) {
+				if (sign < 0) return false;
+				sign = 1;
+			} else if (cross < 0) {
+				if (sign > 0) return false;
+				sign = -1;
+			}
+		}
+		return true;
+	}
+
+	public static boolean areas(Shape a, Shape b) {
+
+		/* Checks two arbitrary shapes for overlap with constructive geometry (slow, allocates). */
+
+		Area areaA = new Area(a);
+		areaA.intersect(new Area(b));
+		return !areaA.isEmpty();
+	}
+
+	static long triangulate(int[] xs, int[] ys, int off, int n) {
+
+		/* Cuts a polygon of 3 to 8 points into n - 2 triangles by clipping off ears, packed 9 bits a triangle
+		   (three 3-bit corner indices). Returns -1 if the polygon is too big or too bent out of shape to cut. */
+
+		if (n < 3 || n > 8) return -1;
+		long area = twiceArea(xs, ys, off, n);
+		if (area == 0) return -1;
+
+		int left = (1 << n) - 1;  // corners not clipped off yet
+		long packed = 0;
+		for (int made = 0; made < n - 3; made++) {
+			boolean clipped = false;
+			for (int v = 0; v < n && !clipped; v++) {
+				if ((left & 1 << v) == 0) continue;
+				int p = v, q = v;
+				do p = (p + n - 1) % n; while ((left & 1 << p) == 0);
+				do q = (q + 1) % n; while ((left & 1 << q) == 0);
+
+				// An ear turns the same way as the whole polygon and has no other corner inside it
+				long turn = cross(xs, ys, off, p, v, q);
+				if (area > 0 ? turn <= 0 : turn >= 0) continue;
+				boolean empty = true;
+				for (int r = 0; r < n && empty; r++) {
+					if ((left & 1 << r) == 0 || r == p || r == v || r == q) continue;
+					long s0 = cross(xs, ys, off, p, v, r), s1 = cross(xs, ys, off, v, q, r), s2 = cross(xs, ys, off, q, p, r);
+					empty = area > 0 ? s0 < 0 || s1 < 0 || s2 < 0 : s0 > 0 || s1 > 0 || s2 > 0;
+				}
+				if (!empty) continue;
+
+				packed |= (long) (p | v << 3 | q << 6) << 9 * made;
+				left &= ~(1 << v);
+				clipped = true;
+			}
+			if (!clipped) return -1;
+		}
+
+		// The last three corners make the last triangle
+		int last = 0;
+		for (int v = 0, shift = 0; v < n; v++) {
+			if ((left & 1 << v) == 0) continue;
+			last |= v << shift;
+			shift += 3;
+		}
+		return packed | (long) last << 9 * (n - 3);
+	}
+
+	private static long cross(int[] xs, int[] ys, int off, int a, int b, int c) {
+
+		/* Returns which way the path a, b, c turns (positive one way, negative the other, 0 if straight). */
+
+		return (long) (xs[off + b] - xs[off + a]) * (ys[off + c] - ys[off + b]) - (long) (ys[off + b] - ys[off + a]) * (xs[off + c] - xs[off + b]);
+	}
+
+	private static boolean triangles(int[] ax, int[] ay, int aOff, int a, int[] bx, int[] by, int bOff, int b) {
+
+		/* Checks two triangles (packed as triangulate packs them) for overlap with the separating axis test. */
+
+		int a0 = aOff + (a & 7), a1 = aOff + (a >> 3 & 7), a2 = aOff + (a >> 6);
+		int b0 = bOff + (b & 7), b1 = bOff + (b >> 3 & 7), b2 = bOff + (b >> 6);
+		int ax0 = ax[a0], ay0 = ay[a0], ax1 = ax[a1], ay1 = ay[a1], ax2 = ax[a2], ay2 = ay[a2];
+		int bx0 = bx[b0], by0 = by[b0], bx1 = bx[b1], by1 = by[b1], bx2 = bx[b2], by2 = by[b2];
+
+		// Flat triangles can't overlap anything (Area agrees)
+		if ((long) (ax1 - ax0) * (ay2 - ay0) == (long) (ay1 - ay0) * (ax2 - ax0)) return false;
+		if ((long) (bx1 - bx0) * (by2 - by0) == (long) (by1 - by0) * (bx2 - bx0)) return false;
+
+		return !separatedByEdgeOf(ax0, ay0, ax1, ay1, ax2, ay2, bx0, by0, bx1, by1, bx2, by2)
+			&& !separatedByEdgeOf(bx0, by0, bx1, by1, bx2, by2, ax0, ay0, ax1, ay1, ax2, ay2);
+	}
+
+	private static boolean separatedByEdgeOf(int x0, int y0, int x1, int y1, int x2, int y2, int u0, int v0, int u1, int v1, int u2, int v2) {
+
+		/* Returns whether one of triangle (x, y)'s edge normals separates it from triangle (u, v). */
+
+		return separates(y0 - y1, x1 - x0, x0, y0, x1, y1, x2, y2, u0, v0, u1, v1, u2, v2)
+			|| separates(y1 - y2, x2 - x1, x0, y0, x1, y1, x2, y2, u0, v0, u1, v1, u2, v2)
+			|| separates(y2 - y0, x0 - x2, x0, y0, x1, y1, x2, y2, u0, v0, u1, v1, u2, v2);
+	}
+
+	private static boolean separates(long nx, long ny, int x0, int y0, int x1, int y1, int x2, int y2, int u0, int v0, int u1, int v1, int u2, int v2) {
+
+		/* Returns whether two triangles' shadows on an axis don't overlap (touching doesn't count). */
+
+		long a0 = nx * x0 + ny * y0, a1 = nx * x1 + ny * y1, a2 = nx * x2 + ny * y2;
+		long b0 = nx * u0 + ny * v0, b1 = nx * u1 + ny * v1, b2 = nx * u2 + ny * v2;
+		return Math.max(a0, Math.max(a1, a2)) <= Math.min(b0, Math.min(b1, b2)) || Math.max(b0, Math.max(b1, b2)) <= Math.min(a0, Math.min(a1, a2));
+	}
+
+	private static boolean separatedByEdgeOf(int[] ax, int[] ay, int aOff, int an, int[] bx, int[] by, int bOff, int bn) {
+
+		/* Returns whether one of polygon A's edge normals separates the two polygons. */
+
+		for (int i = 0; i < an; i++) {
+			int j = i + 1 == an ? 0 : i + 1;
+			long nx = ay[aOff + i] - ay[aOff + j], ny = ax[aOff + j] - ax[aOff + i];
+			if (nx == 0 && ny == 0) continue;  // repeated point, no edge to test
+
+			long aMin = Long.MAX_VALUE, aMax = Long.MIN_VALUE;
+			for (int k = 0; k < an; k++) {
+				long d = nx * ax[aOff + k] + ny * ay[aOff + k];
+				if (d < aMin) aMin = d;
+				if (d > aMax) aMax = d;
+			}
+			long bMin = Long.MAX_VALUE, bMax = Long.MIN_VALUE;
+			for (int k = 0; k < bn; k++) {
+				long d = nx * bx[bOff + k] + ny * by[bOff + k];
+				if (d < bMin) bMin = d;
+				if (d > bMax) bMax = d;
+			}
+			if (aMax <= bMin || bMax <= aMin) return true;
+		}
+		return false;
+	}
+
+	private static long twiceArea(int[] xs, int[] ys, int off, int n) {
+
+		/* Returns twice the signed area of a polygon (shoelace formula). */
+
+		long sum = 0;
+		for (int i = 0; i < n; i++) {
+			int j = i + 1 == n ? 0 : i + 1;
+			sum += (long) xs[off + i] * ys[off + j] - (long) xs[off + j] * ys[off + i];
+		}
+		return sum;
+	}
+
+	static int min(int[] values, int off, int n) {
+
+		/* Returns the smallest of n values starting at an offset. */
+
+		int min = values[off];
+		for (int i = 1; i < n; i++) if (values[off + i] < min) min = values[off + i];
+		return min;
+	}
+
+	static int max(int[] values, int off, int n) {
+
+		/* Returns the largest of n values starting at an offset. */
+
+		int max = values[off];
+		for (int i = 1; i < n; i++) if (values[off + i] > max) max = values[off + i];
+		return max;
+	}
+}
@@ -0,0 +1,633 @@
+/*
+    Adam Mehdi & Syed Safwaan
+    Diagnostics.java
+    Measuring where the time in a tick and a frame goes, and showing it in game or in a Flight Recording.
+
+    The JFR events below are all off unless a recording asks for them, e.g. with
+        java -XX:StartFlightRecording:settings=default,settings=Asteroids.jfc,filename=game.jfr Asteroids
+    (Asteroids.jfc switches them all on with their usual thresholds).
+
+    Classes:
+    - Diagnostics       Times each phase of a tick and a frame and counts collision tests, when switched on
+    - Histogram         Collects timings into buckets a few percent wide, so percentiles are cheap at any scale
+    - PerfOverlay       Draws the latest figures over the game (F3 switches it on and off)
+    - TickEvent         JFR event for a slow tick, with how long each phase took and how much was in play
+    - SpawnEvent        JFR event for every try at spawning an Asteroid, and what got in its way if it didn't
+    - ShatterEvent      JFR event for a tick in which Asteroids were destroyed, and how many pieces they left
+    - FrameBudgetEvent  JFR event for a frame that took longer than a frame is meant to
+*/
+
+import java.awt.*;
+import java.lang.management.ManagementFactory;
+import jdk.jfr.*;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+
+class Diagnostics {
+
+	/* Timing for every phase of a tick (World.step, phase by phase) and of a frame (drawing, then presenting).
+	   Code being timed does
+
+	       long t = Diagnostics.start();
+	       ...phase 1...
+	       t = Diagnostics.end(Diagnostics.PHASE_1, t);
+	       ...phase 2...
+	       t = Diagnostics.end(Diagnostics.PHASE_2, t);
+
+	   While switched off, start() hands back 0 and end() returns as soon as it sees it, so all that's left in
+	   the game's loops is a check of one static field. Figures are gathered for a second at a time and then
+	   published for PerfOverlay to show, so what's shown is always the last whole second. */
+
+	// Fields //
+
+	// Phases of a tick
+	public static final int FILTER = 0, COLLIDE = 1, PLAYERS = 2, MOVE = 3, SPAWN = 4, TICK = 5;
+	// Phases of a frame
+	public static final int STARS = 6, DRAW = 7, FRAME = 8;
+	public static final String[] PHASE_NAMES = {"filter", "collide", "players", "move", "spawn", "tick", "stars", "draw", "frame"};
+
+	// Counters, summed over each tick
+	public static final int TESTS = 0, HITS = 1;
+	public static final String[] COUNTER_NAMES = {"tests", "hits"};
+
+	static final long WINDOW_NANOS = 1_000_000_000L;
+
+	private static boolean enabled;
+	private static final Histogram[] phases = new Histogram[PHASE_NAMES.length];
+	private static final long[] lastNanos = new long[PHASE_NAMES.length];  // how long each phase took last time it was timed
+	static {
+		for (int i = 0; i < phases.length; i++) phases[i] = new Histogram();
+	}
+
+	// Counters and allocations, only touched by the thread doing the ticking
+	private static final long[] counters = new long[COUNTER_NAMES.length];
+	private static long windowStart, windowTicks;
+	private static long allocatedAtStart = -1;
+	private static volatile double[] countersPerTick = new double[COUNTER_NAMES.length];
+	private static volatile double allocationRate;  // bytes per second, on the ticking thread
+
+	public static boolean isEnabled() {
+
+		/* Returns whether anything is being measured. */
+
+		return enabled;
+	}
+
+	public static void setEnabled(boolean on) {
+
+		/* Switches measuring on or off. Switching it on starts every figure afresh. */
+
+		if (on && !enabled) {
+			for (Histogram phase : phases) phase.reset();
+			windowStart = 0;
+			allocatedAtStart = -1;
+		}
+		enabled = on;
+	}
+
+	public static boolean isRecording() {
+
+		/* Returns whether the Flight Recorder has been started. The JFR event classes below mustn't be touched
+		   until it has: the first one to load sets up JFR, which takes a good part of a second. */
+
+		return FlightRecorder.isInitialized();
+	}
+
+	public static long start() {
+
+		/* Returns the time a phase starts at, or 0 if nothing is being measured. */
+
+		return enabled ? System.nanoTime() : 0;
+	}
+
+	public static long start(boolean timed) {
+
+		/* Returns the time a phase starts at, or 0 if nothing is being measured and timed is false (e.g. when
+		   timing only for a JFR event that's switched on). */
+
+		return enabled || timed ? System.nanoTime() : 0;
+	}
+
+	public static long end(int phase, long start) {
+
+		/* Records how long a phase took since start (from start() or the last end()), and returns the time it
+		   ended at so the next phase can carry on from it. Does nothing (and returns 0) given 0. */
+
+		if (start == 0) return 0;
+		long now = System.nanoTime();
+		lastNanos[phase] = now - start;
+		if (!enabled) return now;
+		phases[phase].record(now - start, now);
+		if (phase == TICK) endTick(now);
+		return now;
+	}
+
+	public static void count(int counter, long amount) {
+
+		/* Adds to one of the counters for the tick under way. Only to be called from the ticking thread. */
+
+		if (enabled) counters[counter] += amount;
+	}
+
+	private static void endTick(long now) {
+
+		/* Counts a tick, publishing the counters and allocation rate once a second has gone by. */
+
+		windowTicks++;
+		if (windowStart == 0) windowStart = now;
+		if (now - windowStart < WINDOW_NANOS) return;
+
+		double[] perTick = new double[counters.length];
+		for (int i = 0; i < counters.length; i++) {
+			perTick[i] = (double) counters[i] / windowTicks;
+			counters[i] = 0;
+		}
+		countersPerTick = perTick;
+
+		long allocated = allocatedBytes();
+		if (allocatedAtStart >= 0 && allocated >= 0) allocationRate = (allocated - allocatedAtStart) * 1e9 / (now - windowStart);
+		allocatedAtStart = allocated;
+		windowStart = now;
+		windowTicks = 0;
+	}
+
+	private static long allocatedBytes() {
+
+		/* Returns how many bytes the current thread has allocated in all, or -1 if the JVM can't say. */
+
+		java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (!(threads instanceof com.sun.management.ThreadMXBean)) return -1;
+		return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	// Accessors //
+
+	public static Histogram getPhase(int phase) {
+
+		/* Returns the timings of a phase. */
+
+		return phases[phase];
+	}
+
+	public static long getLastNanos(int phase) {
+
+		/* Returns how long a phase took the last time it was timed, in nanoseconds. */
+
+		return lastNanos[phase];
+	}
+
+	public static double getCounterPerTick(int counter) {
+
+		/* Returns a counter's average per tick over the last second. */
+
+		return countersPerTick[counter];
+	}
+
+	public static double getAllocationRate() {
+
+		/* Returns how many bytes a second the ticking thread allocated over the last second. */
+
+		return allocationRate;
+	}
+}
+
+class Histogram {
+
+	/* Counts values (nanoseconds) into buckets in the style of an HDR histogram: the values below 32 get a
+	   bucket each, and every power of two above that is split into 16 buckets, so a bucket is never more than
+	   about 6% wide whether it holds microseconds or seconds. Recording is a few shifts and an increment.
+	   Every second the percentiles are worked out and published, and counting starts over. Only one thread
+	   may record into a Histogram. */
+
+	// Fields //
+
+	private static final int BUCKETS = 32 + 59 * 16;
+
+	private final long[] counts = new long[BUCKETS];
+	private long total, max, windowStart;
+	private volatile long[] published = new long[4];  // p50, p99, max, count
+
+	public void record(long value, long now) {
+
+		/* Counts a value, publishing the last second's figures first if a second has gone by. */
+
+		if (this.windowStart == 0) this.windowStart = now;
+		if (now - this.windowStart >= Diagnostics.WINDOW_NANOS) {
+			this.publish();
+			this.windowStart = now;
+		}
+		this.counts[bucket(Math.max(0, value))]++;
+		this.total++;
+		if (value > this.max) this.max = value;
+	}
+
+	public void reset() {
+
+		/* Forgets everything counted and published. */
+
+		java.util.Arrays.fill(this.counts, 0);
+		this.total = this.max = this.windowStart = 0;
+		this.published = new long[4];
+	}
+
+	private void publish() {
+
+		/* Works out the figures for what's been counted, then starts counting over. */
+
+		this.published = new long[] {this.percentile(0.5), this.percentile(0.99), this.max, this.total};
+		java.util.Arrays.fill(this.counts, 0);
+		this.total = this.max = 0;
+	}
+
+	private long percentile(double p) {
+
+		/* Returns the middle of the bucket the p-th fraction of the values counted falls in. */
+
+		long rank = (long) Math.ceil(p * this.total), seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += this.counts[i];
+			if (seen >= rank && seen > 0) return Math.min(this.max, (lowest(i) + lowest(i + 1)) / 2);
+		}
+		return this.max;
+	}
+
+	static int bucket(long value) {
+
+		/* Returns which bucket a value goes in. */
+
+		if (value < 32) return (int) value;
+		int magnitude = 63 - Long.numberOfLeadingZeros(value);  // 5 and up
+		return 32 + (magnitude - 5) * 16 + (int) (value >>> (magnitude - 4)) - 16;
+	}
+
+	static long lowest(int bucket) {
+
+		/* Returns the lowest value that goes in a bucket. */
+
+		if (bucket < 32) return bucket;
+		int magnitude = (bucket - 32) / 16 + 5, top = (bucket - 32) % 16 + 16;
+		return (long) top << (magnitude - 4);
+	}
+
+	// Accessors //
+
+	public long getP50() {
+
+		/* Returns the median of the last second, in nanoseconds. */
+
+		return this.published[0];
+	}
+
+	public long getP99() {
+
+		/* Returns the 99th percentile of the last second, in nanoseconds. */
+
+		return this.published[1];
+	}
+
+	public long getMax() {
+
+		/* Returns the most of the last second, in nanoseconds. */
+
+		return this.published[2];
+	}
+
+	public long getCount() {
+
+		/* Returns how many values were counted in the last second. */
+
+		return this.published[3];
+	}
+}
+
+class PerfOverlay {
+
+	/* The figures from Diagnostics, drawn in the corner of the screen: each phase's median, 99th percentile and
+	   worst time over the last second, how many things are in play, collision tests against hits, and how fast
+	   the game is allocating memory. The figures only change once a second, so the text (from a GlyphAtlas)
+	   is drawn into an image a few times a second and the image is what's drawn every frame. */
+
+	// Fields //
+
+	private final GlyphAtlas text = new GlyphAtlas(new Font("Monospaced", Font.PLAIN, 12), Color.white, asciiChars());
+	private final Color backing = new Color(0, 0, 0, 160);
+	private final StringBuilder line = new StringBuilder(64);
+	private final java.awt.image.BufferedImage image;
+	private long drawnAt;
+	private static final long REDRAW_NANOS = 250_000_000L;
+
+	// Constructor //
+
+	public PerfOverlay() {
+
+		/* Constructs and returns a new PerfOverlay. */
+
+		int lines = Diagnostics.PHASE_NAMES.length + 6;
+		this.image = new java.awt.image.BufferedImage(380, lines * this.text.getHeight() + this.text.getHeight() / 2 + 8, java.awt.image.BufferedImage.TYPE_INT_ARGB);
+	}
+
+	public void update(Graphics g, World world, int x, int y) {
+
+		/* Draws the overlay with its top left corner at (x, y). */
+
+		this.refresh(world, null);
+		this.draw(g, x, y);
+	}
+
+	public boolean refresh(World world, DamageMap damage) {
+
+		/* Redraws the figures into the image if they're due, along with how much of the screen frames drawn
+		   through damage have touched (if given). Returns whether they were. */
+
+		long now = System.nanoTime();
+		if (this.drawnAt != 0 && now - this.drawnAt < REDRAW_NANOS) return false;
+		this.drawnAt = now;
+		Graphics2D ig = this.image.createGraphics();
+		ig.setComposite(AlphaComposite.Src);
+		ig.setColor(this.backing);
+		ig.fillRect(0, 0, this.image.getWidth(), this.image.getHeight());
+		ig.setComposite(AlphaComposite.SrcOver);
+		this.redraw(ig, world, damage);
+		ig.dispose();
+		return true;
+	}
+
+	public void draw(Graphics g, int x, int y) {
+
+		/* Draws the overlay as it is with its top left corner at (x, y). */
+
+		g.drawImage(this.image, x, y, null);
+	}
+
+	public int getWidth() {
+
+		/* Returns how wide the overlay is. */
+
+		return this.image.getWidth();
+	}
+
+	public int getHeight() {
+
+		/* Returns how tall the overlay is. */
+
+		return this.image.getHeight();
+	}
+
+	private void redraw(Graphics g, World world, DamageMap damage) {
+
+		/* Draws the figures into the image. */
+
+		int lineHeight = this.text.getHeight(), x = 0;
+		int baseline = 4 + this.text.getAscent();
+
+		this.line.setLength(0);
+		this.line.append("phase        p50 us    p99 us    max us");
+		baseline = this.drawLine(g, x + 6, baseline, lineHeight);
+		for (int i = 0; i < Diagnostics.PHASE_NAMES.length; i++) {
+			Histogram phase = Diagnostics.getPhase(i);
+			this.line.setLength(0);
+			pad(this.line.append(Diagnostics.PHASE_NAMES[i]), 8);
+			micros(this.line, phase.getP50());
+			micros(this.line, phase.getP99());
+			micros(this.line, phase.getMax());
+			baseline = this.drawLine(g, x + 6, baseline, lineHeight);
+		}
+
+		this.line.setLength(0);
+		this.line.append("ships ").append(world.getShips().size()).append("  asteroids ").append(world.getAsteroids().size());
+		this.line.append("  bullets ").append(world.getBullets().size());
+		baseline = this.drawLine(g, x + 6, baseline + lineHeight / 2, lineHeight);
+
+		this.line.setLength(0);
+		this.line.append("tests/tick ").append(Math.round(Diagnostics.getCounterPerTick(Diagnostics.TESTS)));
+		this.line.append("  hits/tick ").append(Math.round(Diagnostics.getCounterPerTick(Diagnostics.HITS)));
+		baseline = this.drawLine(g, x + 6, baseline, lineHeight);
+
+		this.line.setLength(0);
+		this.line.append("allocating ").append(Math.round(Diagnostics.getAllocationRate() / 1024)).append(" KB/s");
+		baseline = this.drawLine(g, x + 6, baseline, lineHeight);
+
+		if (damage == null) return;
+		this.line.setLength(0);
+		this.line.append("pixels/frame ").append(damage.getLastPixels() / 1000).append("k of ").append(damage.getScreenPixels() / 1000);
+		this.line.append("k  full ").append(damage.getFullFrames()).append('/').append(damage.getFrames());
+		this.drawLine(g, x + 6, baseline, lineHeight);
+	}
+
+	private int drawLine(Graphics g, int x, int baseline, int lineHeight) {
+
+		/* Draws the line built up so far. Returns where the next line's baseline goes. */
+
+		for (int i = 0, cx = x; i < this.line.length(); i++) cx = this.text.drawChar(g, this.line.charAt(i), cx, baseline);
+		return baseline + lineHeight;
+	}
+
+	private static void micros(StringBuilder line, long nanos) {
+
+		/* Appends a time in microseconds, right aligned in 10 characters, to one decimal place. */
+
+		int start = line.length();
+		long tenths = (nanos + 50) / 100;
+		line.append(tenths / 10).append('.').append(tenths % 10);
+		int width = line.length() - start;
+		for (int i = width; i < 10; i++) line.insert(start, ' ');
+	}
+
+	private static StringBuilder pad(StringBuilder line, int width) {
+
+		/* Pads a line with spaces up to a given width. */
+
+		while (line.length() < width) line.append(' ');
+		return line;
+	}
+
+	private static String asciiChars() {
+
+		/* Returns every printable ASCII character. */
+
+		StringBuilder chars = new StringBuilder();
+		for (char c = ' '; c <= '~'; c++) chars.append(c);
+		return chars.toString();
+	}
+}
+
+@Name("asteroids.Tick")
+@Label("Game Tick")
+@Description("One step of the World that took longer than the threshold")
+@Category({"Asteroids", "Simulation"})
+@Enabled(false)
+@Threshold("5 ms")
+@StackTrace(false)
+class TickEvent extends Event {
+
+	/* A tick (World.step) that ran slow, so slow ticks can be lined up with GC pauses and the like. */
+
+	private static final EventType TYPE = EventType.getEventType(TickEvent.class);
+
+	static TickEvent start() {
+
+		/* Returns a new event with its clock started, or null if no recording wants ticks. Only to be called
+		   once Diagnostics.isRecording(). */
+
+		if (!TYPE.isEnabled()) return null;
+		TickEvent event = new TickEvent();
+		event.begin();
+		return event;
+	}
+
+	@Label("Tick")
+	long tick;
+
+	@Label("Filter") @Timespan(Timespan.NANOSECONDS)
+	long filter;
+
+	@Label("Collide") @Timespan(Timespan.NANOSECONDS)
+	long collide;
+
+	@Label("Players") @Timespan(Timespan.NANOSECONDS)
+	long players;
+
+	@Label("Move") @Timespan(Timespan.NANOSECONDS)
+	long move;
+
+	@Label("Spawn") @Timespan(Timespan.NANOSECONDS)
+	long spawn;
+
+	@Label("Ships")
+	int ships;
+
+	@Label("Asteroids")
+	int asteroids;
+
+	@Label("Bullets")
+	int bullets;
+
+	@Label("Parallel")
+	boolean parallel;
+}
+
+@Name("asteroids.Spawn")
+@Label("Asteroid Spawn")
+@Description("A try at spawning an Asteroid, which is turned down if it would land on something")
+@Category({"Asteroids", "Simulation"})
+@Enabled(false)
+@StackTrace(false)
+class SpawnEvent extends Event {
+
+	/* One go of World.spawnAsteroid. */
+
+	private static final EventType TYPE = EventType.getEventType(SpawnEvent.class);
+
+	static SpawnEvent start() {
+
+		/* Returns a new event with its clock started, or null if no recording wants spawns. Only to be called
+		   once Diagnostics.isRecording(). */
+
+		if (!TYPE.isEnabled()) return null;
+		SpawnEvent event = new SpawnEvent();
+		event.begin();
+		return event;
+	}
+
+	@Label("Side")
+	@Description("0 left, 1 top, 2 right, 3 bottom")
+	int side;
+
+	@Label("X")
+	int x;
+
+	@Label("Y")
+	int y;
+
+	@Label("Rejected By")
+	@Description("What the Asteroid would have landed on (asteroid, ship or bullet), or nothing if it spawned")
+	String rejectedBy;
+
+	@Label("Weight")
+	@Description("Total weight of the Asteroids afterwards")
+	int weight;
+}
+
+@Name("asteroids.Shatter")
+@Label("Asteroid Shatter")
+@Description("Asteroids destroyed in one tick, and the pieces they broke into")
+@Category({"Asteroids", "Simulation"})
+@Enabled(false)
+@StackTrace(false)
+class ShatterEvent extends Event {
+
+	/* Everything that broke up in one tick, timed over the removal and shattering. */
+
+	private static final EventType TYPE = EventType.getEventType(ShatterEvent.class);
+
+	static ShatterEvent start() {
+
+		/* Returns a new event with its clock started, or null if no recording wants shatters. Only to be called
+		   once Diagnostics.isRecording(). */
+
+		if (!TYPE.isEnabled()) return null;
+		ShatterEvent event = new ShatterEvent();
+		event.begin();
+		return event;
+	}
+
+	@Label("Tick")
+	long tick;
+
+	@Label("Destroyed")
+	int destroyed;
+
+	@Label("Pieces")
+	int pieces;
+
+	@Label("Largest Size")
+	int largestSize;
+
+	@Label("Score Gained")
+	int scoreGained;
+}
+
+@Name("asteroids.FrameBudget")
+@Label("Frame Over Budget")
+@Description("A frame that took longer to draw and present than the threshold")
+@Category({"Asteroids", "Rendering"})
+@Enabled(false)
+@Threshold("17 ms")
+@StackTrace(false)
+class FrameBudgetEvent extends Event {
+
+	/* A frame that blew its budget (a 60 FPS frame by default). */
+
+	private static final EventType TYPE = EventType.getEventType(FrameBudgetEvent.class);
+
+	static FrameBudgetEvent start() {
+
+		/* Returns a new event with its clock started, or null if no recording wants slow frames. Only to be called
+		   once Diagnostics.isRecording(). */
+
+		if (!TYPE.isEnabled()) return null;
+		FrameBudgetEvent event = new FrameBudgetEvent();
+		event.begin();
+		return event;
+	}
+
+	@Label("Stars") @Timespan(Timespan.NANOSECONDS)
+	long stars;
+
+	@Label("Draw") @Timespan(Timespan.NANOSECONDS)
+	long draw;
+
+	@Label("Asteroids")
+	int asteroids;
+
+	@Label("Bullets")
+	int bullets;
+
+	@Label("Presented")
+	@Description("Whether the frame went straight to the screen rather than through Swing")
+	boolean presented;
+
+	@Label("Pixels")
+	@Description("How many pixels the frame drew over, out of the whole screen's")
+	int pixels;
+}
@@ -0,0 +1,657 @@
+/*
+    Adam Mehdi & Syed Safwaan
+    Engine.java
+    The machinery that keeps the game running behind the scenes.
+
+    Classes:
+    - GameLoop      Runs the simulation at a fixed rate on its own thread and asks for frames in between
+    - > Simulation  Anything the GameLoop can drive
+    - GameSession   One game from start to finish, owning its World and the GameLoop that drives it
+    - Pool          A bounded stash of spare objects to reuse instead of allocating new ones
+    - Parallel      Splits a loop over a range of indices into chunks and runs them on a ForkJoinPool
+    - > RangeBody   The body of such a loop
+    - GameRandom    The game's random numbers, from a seed and a state that can be read back and restored
+*/
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Supplier;
+
+class GameLoop implements Runnable {
+
+	/* A fixed timestep game loop. Time is fed into an accumulator and spent in whole ticks, so the game
+	   runs at the same speed no matter how long a frame takes to draw. Frames are requested on their own
+	   schedule with how far the clock is between the last two ticks, so drawing can blend between them. */
+
+	interface Simulation {
+
+		/* Something the GameLoop can step and draw. */
+
+		void tick();
+
+		void render(double alpha);
+	}
+
+	// Fields //
+
+	private final Simulation simulation;
+	private final Object lock;  // held while ticking, so drawing never sees a half-done tick
+	private final long tickNanos, frameNanos;
+	private final int maxCatchUp;  // most ticks run back to back before giving up on lost time
+
+	private Thread thread;
+	private volatile boolean running;
+
+	// Frame pacing stats
+	private long ticks, droppedTicks, frames;
+	private double jitterMean, jitterSquares;  // running mean/variance of how late frames are (ns)
+	private long jitterMax;
+
+	// Constructor //
+
+	public GameLoop(Simulation simulation, Object lock, int tickMillis, int framesPerSecond) {
+
+		/* Constructs and returns a new GameLoop that ticks every tickMillis and draws framesPerSecond times a second. */
+
+		this.simulation = simulation;
+		this.lock = lock;
+		this.tickNanos = tickMillis * 1_000_000L;
+		this.frameNanos = 1_000_000_000L / framesPerSecond;
+		this.maxCatchUp = 10;
+	}
+
+	public synchronized void start() {
+
+		/* Starts the loop thread. */
+
+		if (this.running) return;
+		this.running = true;
+		this.thread = new Thread(this, "GameLoop");
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	public void stop() {
+
+		/* Stops the loop thread and waits for it to finish its current tick. */
+
+		Thread t;
+		synchronized (this) {
+			this.running = false;
+			t = this.thread;
+			this.thread = null;
+		}
+		if (t == null || t == Thread.currentThread()) return;
+		t.interrupt();
+		try {
+			t.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Override
+	public void run() {
+
+		/* The loop itself. */
+
+		long previous = System.nanoTime();
+		long accumulator = 0;
+		long nextFrame = previous + this.frameNanos;
+
+		while (this.running) {
+			long now = System.nanoTime();
+			accumulator += now - previous;
+			previous = now;
+
+			// Spend the accumulated time in whole ticks, catching up if we fell behind
+			int steps = 0;
+			synchronized (this.lock) {
+				while (accumulator >= this.tickNanos && steps < this.maxCatchUp) {
+					this.simulation.tick();
+					accumulator -= this.tickNanos;
+					steps++;
+				}
+			}
+			this.ticks += steps;
+
+			// Too far behind to ever catch up (e.g. the machine slept), so forget the rest
+			if (accumulator >= this.tickNanos) {
+				this.droppedTicks += accumulator / this.tickNanos;
+				accumulator %= this.tickNanos;
+			}
+
+			// Draw if a frame is due, blending by how far we are into the next tick
+			if (now >= nextFrame) {
+				this.recordJitter(now - nextFrame);
+				this.simulation.render((double) accumulator / this.tickNanos);
+				this.frames++;
+				nextFrame += this.frameNanos;
+				if (nextFrame < now) nextFrame = now + this.frameNanos;  // skip frames we can't make
+			}
+
+			// Sleep until the next tick or frame, whichever comes first
+			long wake = Math.min(now + this.tickNanos - accumulator, nextFrame);
+			long sleep = wake - System.nanoTime();
+			if (sleep > 0) {
+				try {
+					Thread.sleep(sleep / 1_000_000, (int) (sleep % 1_000_000));
+				} catch (InterruptedException e) {
+					// stop() interrupts us, running will be false
+				}
+			}
+		}
+	}
+
+	public static int blendOffset(double previous, double current, double alpha) {
+
+		/* Returns how far to shift something drawn at current so it appears alpha of the way from previous.
+		   Jumps from wrapping around the screen aren't blended. */
+
+		double moved = current - previous;
+		if (Math.abs(moved) > 100) return 0;
+		return (int) Math.round((alpha - 1) * moved);
+	}
+
+	private void recordJitter(long lateNanos) {
+
+		/* Adds how late a frame was to the running stats (Welford's method). */
+
+		long n = this.frames + 1;
+		double delta = lateNanos - this.jitterMean;
+		this.jitterMean += delta / n;
+		this.jitterSquares += delta * (lateNanos - this.jitterMean);
+		if (lateNanos > this.jitterMax) this.jitterMax = lateNanos;
+	}
+
+	// Accessors //
+
+	public boolean isRunning() {
+
+		/* Returns whether the loop is running. */
+
+		return this.running;
+	}
+
+	public long getTicks() {
+
+		/* Returns the number of ticks simulated so far. */
+
+		return this.ticks;
+	}
+
+	public long getDroppedTicks() {
+
+		/* Returns the number of ticks skipped because the loop fell too far behind. */
+
+		return this.droppedTicks;
+	}
+
+	public long getFrames() {
+
+		/* Returns the number of frames requested so far. */
+
+		return this.frames;
+	}
+
+	public double getMeanJitterMillis() {
+
+		/* Returns how late frames are on average, in milliseconds. */
+
+		return this.jitterMean / 1e6;
+	}
+
+	public double getJitterStdDevMillis() {
+
+		/* Returns the standard deviation of frame lateness, in milliseconds. */
+
+		return this.frames < 2 ? 0 : Math.sqrt(this.jitterSquares / (this.frames - 1)) / 1e6;
+	}
+
+	public double getMaxJitterMillis() {
+
+		/* Returns the latest any frame has been, in milliseconds. */
+
+		return this.jitterMax / 1e6;
+	}
+}
+
+class GameSession implements GameLoop.Simulation {
+
+	/* A single game. Creating one sets up a fresh World, start() gets its GameLoop going, pause() and resume()
+	   stop and restart the loop without touching the World, and dispose() stops the loop for good and empties
+	   the World. Nothing is kept between sessions, so restarting any number of times costs the same as the first. */
+
+	public static final int CREATED = 0, RUNNING = 1, PAUSED = 2, DISPOSED = 3;
+
+	// Fields //
+
+	private final World world = new World();
+	private final GameLoop loop;
+	private final boolean[] keys;  // shared with whoever is listening to the keyboard
+	private final boolean[] stepKeys;  // the controls from keys, frozen for the tick being run
+	private final GameLoop.Simulation view;  // told about every tick and frame, or null to run headless
+	private final long seed;
+	private final Object lock;  // held by the loop while ticking
+	private ReplayRecorder recorder;  // writes down every tick's controls, if the game is being recorded
+	private ReplayPlayer player;  // where the controls come from instead of keys, if a replay is being watched
+	private volatile int state = CREATED;
+
+	// Constructor //
+
+	public GameSession(int difficulty, int playerCount, long seed, boolean[] keys, GameLoop.Simulation view, Object lock, int framesPerSecond) {
+
+		/* Constructs and returns a new GameSession, ready to start. The same seed and keys give the same game. */
+
+		this.keys = keys;
+		this.stepKeys = new boolean[keys.length];
+		this.view = view;
+		this.seed = seed;
+		this.lock = lock;
+		this.world.init(difficulty, playerCount, seed);
+		this.loop = new GameLoop(this, lock, World.TICK_MILLIS, framesPerSecond);
+	}
+
+	public synchronized void start() {
+
+		/* Starts the game. */
+
+		if (this.state != CREATED) return;
+		this.state = RUNNING;
+		this.loop.start();
+	}
+
+	public synchronized void pause() {
+
+		/* Freezes the game, keeping the World as it is. */
+
+		if (this.state != RUNNING) return;
+		this.state = PAUSED;
+		this.loop.stop();
+	}
+
+	public synchronized void resume() {
+
+		/* Carries on a paused game. */
+
+		if (this.state != PAUSED) return;
+		this.state = RUNNING;
+		this.loop.start();
+	}
+
+	public synchronized void dispose() {
+
+		/* Ends the session for good, stopping its loop and emptying its World. Safe to call more than once. */
+
+		if (this.state == DISPOSED) return;
+		this.state = DISPOSED;
+		this.loop.stop();
+		this.world.clear();
+		if (this.recorder != null) this.recorder.finish();
+	}
+
+	@Override
+	public void tick() {
+
+		/* Steps the World, then the view. Called by the GameLoop. */
+
+		long t = Diagnostics.start();
+
+		// Read the keyboard once, so the tick (and the recording) sees one set of controls even if keys change meanwhile
+		int input = this.player != null ? this.player.nextInput() : Ship.packKeys(this.keys);
+		if (this.recorder != null) this.recorder.record(input, this.world);
+		Ship.unpackKeys(input, this.stepKeys);
+
+		this.world.step(this.stepKeys);
+		if (this.view != null) this.view.tick();
+		Diagnostics.end(Diagnostics.TICK, t);
+	}
+
+	@Override
+	public void render(double alpha) {
+
+		/* Passes a frame on to the view. Called by the GameLoop. */
+
+		if (this.view != null) this.view.render(alpha);
+	}
+
+	// Accessors //
+
+	public World getWorld() {
+
+		/* Returns the World being played in. */
+
+		return this.world;
+	}
+
+	public long getSeed() {
+
+		/* Returns the seed the game was started with. */
+
+		return this.seed;
+	}
+
+	public ReplayRecorder getRecorder() {
+
+		/* Returns the recorder writing the game down, or null if it isn't being recorded. */
+
+		return this.recorder;
+	}
+
+	public synchronized void setRecorder(ReplayRecorder recorder) {
+
+		/* Records the game from here on. Meant to be called before start(). */
+
+		this.recorder = recorder;
+	}
+
+	public ReplayPlayer getPlayer() {
+
+		/* Returns the replay being watched, or null if the game is being played. */
+
+		return this.player;
+	}
+
+	public synchronized void setPlayer(ReplayPlayer player) {
+
+		/* Plays a replay instead of reading the keyboard, from its first tick. The session should have been
+		   made with the replay's seed, difficulty and player count. */
+
+		this.player = player;
+		if (player != null) this.seek(0);
+	}
+
+	public void seek(long tick) {
+
+		/* Jumps the replay being watched to a given tick. */
+
+		synchronized (this.lock) {
+			this.player.seek(this.world, tick);
+		}
+	}
+
+	public GameLoop getLoop() {
+
+		/* Returns the GameLoop driving the session. */
+
+		return this.loop;
+	}
+
+	public int getState() {
+
+		/* Returns CREATED, RUNNING, PAUSED or DISPOSED. */
+
+		return this.state;
+	}
+
+	public boolean isDisposed() {
+
+		/* Returns whether the session has been disposed. */
+
+		return this.state == DISPOSED;
+	}
+}
+
+class Pool<T> {
+
+	/* A bounded pool of reusable objects. acquire() hands out a spare if there is one and only makes a new
+	   object when the pool is empty. release() takes an object back once the game is done with it (i.e. once
+	   it stops existing); anything past the capacity is left for the garbage collector. */
+
+	// Fields //
+
+	private final Supplier<T> factory;
+	private final Object[] spares;
+	private int spareCount;
+
+	// Counters
+	private long hits, misses, dropped;
+	private int out, highWater;  // objects handed out right now, and the most there have ever been
+
+	// Constructor //
+
+	public Pool(int capacity, Supplier<T> factory) {
+
+		/* Constructs and returns an empty Pool that keeps up to capacity spares. */
+
+		this.factory = factory;
+		this.spares = new Object[capacity];
+	}
+
+	@SuppressWarnings("unchecked")
+	public T acquire() {
+
+		/* Returns a spare object, or a new one if there are none. */
+
+		if (++this.out > this.highWater) this.highWater = this.out;
+		if (this.spareCount > 0) {
+			this.hits++;
+			T obj = (T) this.spares[--this.spareCount];
+			this.spares[this.spareCount] = null;
+			return obj;
+		}
+		this.misses++;
+		return this.factory.get();
+	}
+
+	public void release(T obj) {
+
+		/* Takes an object back so it can be handed out again. Objects that never came from acquire() (e.g. a
+		   Bullet made with new) are kept as spares too, but can't take the count of objects out below 0. */
+
+		if (this.out > 0) this.out--;
+		if (this.spareCount < this.spares.length) this.spares[this.spareCount++] = obj;
+		else this.dropped++;
+	}
+
+	// Accessors //
+
+	public long getHits() {
+
+		/* Returns how many acquires were served by a spare. */
+
+		return this.hits;
+	}
+
+	public long getMisses() {
+
+		/* Returns how many acquires had to make a new object. */
+
+		return this.misses;
+	}
+
+	public long getDropped() {
+
+		/* Returns how many released objects didn't fit and were let go. */
+
+		return this.dropped;
+	}
+
+	public int getOut() {
+
+		/* Returns how many objects are handed out right now. */
+
+		return this.out;
+	}
+
+	public int getHighWater() {
+
+		/* Returns the most objects that have been handed out at once. */
+
+		return this.highWater;
+	}
+
+	public int getSpareCount() {
+
+		/* Returns how many spares are waiting in the pool. */
+
+		return this.spareCount;
+	}
+
+	@Override
+	public String toString() {
+
+		/* Returns the counters as text. */
+
+		return String.format("hits=%d misses=%d dropped=%d out=%d highWater=%d spares=%d", this.hits, this.misses, this.dropped, this.out, this.highWater, this.spareCount);
+	}
+}
+
+class Parallel {
+
+	/* Runs a loop over 0..n-1 as a fixed number of contiguous chunks on a ForkJoinPool, and waits for all of them.
+	   Each chunk is told its own number, so it can keep its results apart from the others' and the caller can
+	   go through them in chunk order afterwards, which is the same order a plain loop would have found them in.
+	   The tasks are made once and reused, so running a loop doesn't allocate. */
+
+	interface RangeBody {
+
+		/* The body of a loop, run for indices from (inclusive) to to (exclusive) as chunk number chunk. */
+
+		void run(int chunk, int from, int to);
+	}
+
+	// Fields //
+
+	private final ForkJoinPool pool;
+	private final Chunk[] chunks;
+	private final Root root = new Root();
+
+	// Constructor //
+
+	public Parallel(ForkJoinPool pool, int chunkCount) {
+
+		/* Constructs and returns a new Parallel that splits loops into chunkCount chunks. */
+
+		this.pool = pool;
+		this.chunks = new Chunk[chunkCount];
+		for (int i = 0; i < chunkCount; i++) this.chunks[i] = new Chunk(i);
+	}
+
+	public void forRange(int n, RangeBody body) {
+
+		/* Runs body over 0..n-1 in chunks, returning once every chunk is done. Chunks may be empty. */
+
+		int count = this.chunks.length;
+		for (int i = 0; i < count; i++) {
+			Chunk chunk = this.chunks[i];
+			chunk.reinitialize();
+			chunk.body = body;
+			chunk.from = (int) ((long) n * i / count);
+			chunk.to = (int) ((long) n * (i + 1) / count);
+		}
+		this.root.reinitialize();
+		this.pool.invoke(this.root);
+		for (Chunk chunk : this.chunks) chunk.body = null;
+	}
+
+	// Accessors //
+
+	public int getChunkCount() {
+
+		/* Returns how many chunks loops are split into. */
+
+		return this.chunks.length;
+	}
+
+	public ForkJoinPool getPool() {
+
+		/* Returns the pool the chunks run on. */
+
+		return this.pool;
+	}
+
+	private class Root extends RecursiveAction {
+
+		/* Forks every chunk and waits for them. */
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected void compute() {
+			invokeAll(Parallel.this.chunks);
+		}
+	}
+
+	private static class Chunk extends RecursiveAction {
+
+		/* One chunk of a loop. */
+
+		private static final long serialVersionUID = 1L;
+
+		private final int index;
+		private RangeBody body;
+		private int from, to;
+
+		Chunk(int index) {
+			this.index = index;
+		}
+
+		@Override
+		protected void compute() {
+			this.body.run(this.index, this.from, this.to);
+		}
+	}
+}
+
+class GameRandom extends Random {
+
+	/* A random number generator whose whole state is one long that can be read and set, so a game can be
+	   saved and rewound along with its random numbers. It's a SplitMix64 generator under java.util.Random's
+	   methods, so nextInt(bound), nextDouble() and the rest work as usual and give the same numbers for the
+	   same seed on every machine. Not thread safe, unlike Random; the game only uses it from the tick. */
+
+	// Fields //
+
+	private static final long serialVersionUID = 1L;
+
+	private long state;
+
+	// Constructor //
+
+	public GameRandom(long seed) {
+
+		/* Constructs and returns a new GameRandom started from a seed. */
+
+		super(seed);
+		this.state = seed;
+	}
+
+	@Override
+	public void setSeed(long seed) {
+
+		/* Starts the numbers over from a seed. (Random's constructor calls this before our fields are set up.) */
+
+		this.state = seed;
+	}
+
+	@Override
+	protected int next(int bits) {
+
+		/* Returns the next bits random bits. Random builds everything else from this. */
+
+		this.state += 0x9E3779B97F4A7C15L;
+		long z = this.state;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		z = z ^ (z >>> 31);
+		return (int) (z >>> (64 - bits));
+	}
+
+	// Accessors //
+
+	public long getState() {
+
+		/* Returns the whole state of the generator. */
+
+		return this.state;
+	}
+
+	public void setState(long state) {
+
+		/* Puts the generator back to a state from getState(). */
+
+		this.state = state;
+	}
+}
@@ -1,7 +1,7 @@
 /*
     Adam Mehdi & Syed Safwaan
-    Asteroids.java
-    The main file of the program.
+    Interface.java
+    The buttons and menus of the program.
 
     Classes:
     - GameButton	An extension of the JButton (for convenience)
@@ -42,13 +42,11 @@ class GameButton extends JButton {
 		this.setMargin(new Insets(0, 0, 0, 0));
 		this.setContentAreaFilled(false);
 
-		ImageIcon idleImg = new ImageIcon(new ImageIcon(String.format("Images/Button_%s0.png", imgName)).getImage().getScaledInstance((int) dimensions.getWidth(), (int) dimensions.getHeight(), Image.SCALE_DEFAULT));
-		ImageIcon hoverImg = new ImageIcon(new ImageIcon(String.format("Images/Button_%s1.png", imgName)).getImage().getScaledInstance((int) dimensions.getWidth(), (int) dimensions.getHeight(), Image.SCALE_DEFAULT));
-		ImageIcon pressedImg = new ImageIcon(new ImageIcon(String.format("Images/Button_%s2.png", imgName)).getImage().getScaledInstance((int) dimensions.getWidth(), (int) dimensions.getHeight(), Image.SCALE_DEFAULT));
-
-		this.setIcon(idleImg);
-		this.setRolloverIcon(hoverImg);
-		this.setPressedIcon(pressedImg);
+		// Every button of a kind shares the same three scaled images
+		int width = (int) dimensions.getWidth(), height = (int) dimensions.getHeight();
+		this.setIcon(Assets.icon(String.format("Button_%s0.png", imgName), width, height));
+		this.setRolloverIcon(Assets.icon(String.format("Button_%s1.png", imgName), width, height));
+		this.setPressedIcon(Assets.icon(String.format("Button_%s2.png", imgName), width, height));
 	}
 
 	// Accessors //
@@ -109,10 +107,10 @@ class Menu extends JPanel {
 
 	// Fields //
 
-	private ImageIcon title;
+	private Icon title;
 	private GameButton[] buttons;
 	private String name;  // used for CardLayout names
-	private Image background = new ImageIcon("Images/Background_MainScreen.jpg").getImage().getScaledInstance(1280, 720, Image.SCALE_DEFAULT);
+	private Icon background = Assets.icon("Background_MainScreen.jpg", 1280, 720);
 
 	// Constructors //
 
@@ -128,7 +126,7 @@ class Menu extends JPanel {
 		for (GameButton button : buttons) this.add(button);
 	}
 
-	public Menu(ImageIcon title, GameButton[] buttons, String name) {
+	public Menu(Icon title, GameButton[] buttons, String name) {
 
 		/* Constructs and returns a Menu with a title. */
 
@@ -138,10 +136,6 @@ class Menu extends JPanel {
 
 		this.setLayout(null);
 		for (GameButton button : buttons) this.add(button);
-
-		// Setup title image
-		JLabel back = new JLabel(new ImageIcon("Images/Background_MainScreen.jpg"));
-		this.add(back);
 	}
 
 	// Accessors //
@@ -169,7 +163,8 @@ class Menu extends JPanel {
 		super.paintComponent(g);
 
 		// Draw the background and title if possible
-		g.drawImage(this.background, 0, 0, this);
-		if (this.title != null) g.drawImage(this.title.getImage(), 640 - this.title.getIconWidth() / 2, 30, this);
+		this.background.paintIcon(this, g, 0, 0);
+		if (this.title != null) this.title.paintIcon(this, g, 640 - this.title.getIconWidth() / 2, 30);
+		Assets.menuShown();
 	}
 }
@@ -0,0 +1,944 @@
+/*
+    Adam Mehdi & Syed Safwaan
+    Netplay.java
+    Playing one game from more than one computer, over UDP.
+
+    Classes:
+    - NetServer     Runs the game and sends everyone snapshots of it, playing each Ship with the controls its client sends
+    - NetClient     Sends one player's controls to a NetServer and keeps a copy of the World from its snapshots to draw
+    - DeltaCodec    Packs a snapshot as the difference from an older one the other side already has
+    - RollbackPeer  One of two computers playing each other directly, guessing the other's controls and fixing up when wrong
+    - StateRing     The last few ticks of a World, saved whole so any of them can be gone back to
+    - LossyLink     Sends packets late, or not at all, on purpose, to try netplay out on one computer
+*/
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Random;
+
+class NetServer implements GameLoop.Simulation {
+
+	/* The authoritative side of a networked game. It owns the GameSession, so only the server ever steps the
+	   World; clients just send their controls and draw what they're told. The first client to send anything
+	   gets Ship 0, the next Ship 1, and so on, and everyone steers with the first player's keys on their own computer.
+
+	   Every few ticks the server takes a snapshot (World.writeSnapshot) and sends it to every client, packed
+	   by DeltaCodec against the newest snapshot that client has said it got. Snapshots that were lost don't
+	   matter: the next one is packed against what the client really has, not against what was sent.
+
+	   Packets, all big-endian:
+	     controls (client to server):  1, tick (4 bytes), newest snapshot received (4 bytes, -1 for none), controls (1 byte)
+	     snapshot (server to client):  2, snapshot number (4 bytes), what it's packed against (4 bytes, -1 for nothing), Ship (1 byte), DeltaCodec data */
+
+	// Fields //
+
+	public static final int CONTROLS = 1, SNAPSHOT = 2;  // packet types
+	public static final int MAX_PACKET = 65507;  // the most a UDP packet can carry
+	public static final int HISTORY = 32;  // snapshots kept to pack against (and that a client can lag behind by)
+	public static final int MAX_SNAPSHOT_INTS = (MAX_PACKET - 16) / 5;  // the most a snapshot can hold and always fit in a packet (5 bytes an int at worst)
+
+	private final DatagramChannel channel;
+	private final LossyLink link;
+	private final GameSession session;
+	private final boolean[] keys = new boolean[java.awt.event.KeyEvent.KEY_LAST + 1];  // what the session reads its controls from
+	private final Object lock = new Object();
+	private final ByteBuffer in = ByteBuffer.allocate(MAX_PACKET), out = ByteBuffer.allocate(MAX_PACKET);
+	private int snapshotTicks = 2;
+
+	// Clients, by Ship
+	private final SocketAddress[] addresses;
+	private final int[] controls, controlTicks, acked;
+	private final long[] bytesSent, snapshotsSent, fullSnapshotsSent;
+	private int clientCount;
+
+	// Snapshots sent lately, by number modulo HISTORY
+	private final int[][] history = new int[HISTORY][];
+	private final int[] historyLengths = new int[HISTORY], historyNumbers = new int[HISTORY];
+	private int snapshotNumber = -1;
+	private long rawInts;  // ints in every snapshot taken, before packing
+
+	// Constructor //
+
+	public NetServer(SocketAddress address, int difficulty, int playerCount, long seed) throws IOException {
+
+		/* Constructs and returns a new NetServer for a new game, listening at a given address. */
+
+		this.channel = DatagramChannel.open();
+		this.channel.bind(address);
+		this.channel.configureBlocking(false);
+		this.link = new LossyLink(this.channel);
+		this.session = new GameSession(difficulty, playerCount, seed, this.keys, this, this.lock, 60);
+
+		this.addresses = new SocketAddress[playerCount];
+		this.controls = new int[playerCount];
+		this.controlTicks = new int[playerCount];
+		this.acked = new int[playerCount];
+		this.bytesSent = new long[playerCount];
+		this.snapshotsSent = new long[playerCount];
+		this.fullSnapshotsSent = new long[playerCount];
+		Arrays.fill(this.controlTicks, -1);
+		Arrays.fill(this.acked, -1);
+		Arrays.fill(this.historyNumbers, -1);
+		for (int i = 0; i < HISTORY; i++) this.history[i] = new int[256];
+	}
+
+	public void start() {
+
+		/* Starts the game running in real time. */
+
+		this.session.start();
+	}
+
+	public void close() throws IOException {
+
+		/* Ends the game and stops listening. */
+
+		this.session.dispose();
+		this.channel.close();
+	}
+
+	@Override
+	public void tick() {
+
+		/* Takes in the controls that came since last tick (for the next one) and sends out a snapshot of the
+		   tick that just ran. Called by the GameSession after every step. A packet that can't be sent or
+		   received is only logged and left out, since the game has to carry on for everyone else. */
+
+		this.receiveControls();
+		if (this.session.getWorld().getTick() % this.snapshotTicks == 0) this.sendSnapshots();
+		try {
+			this.link.flush();
+		} catch (IOException e) {
+			System.err.println("Couldn't send held back packets: " + e.getMessage());
+		}
+	}
+
+	@Override
+	public void render(double alpha) {
+
+		/* Nothing to draw on the server. */
+
+	}
+
+	private void receiveControls() {
+
+		/* Reads every controls packet waiting, then sets keys to what all the clients are holding down. */
+
+		SocketAddress from;
+		while (true) {
+			this.in.clear();
+			try {
+				if ((from = this.channel.receive(this.in)) == null) break;
+			} catch (IOException e) {
+				System.err.println("Couldn't receive controls: " + e.getMessage());
+				break;  // whatever else is waiting can come next tick
+			}
+			this.in.flip();
+			if (this.in.remaining() < 10 || this.in.get() != CONTROLS) continue;
+
+			int ship = this.clientFor(from);
+			if (ship < 0) continue;  // game's full
+			int tick = this.in.getInt(), ack = this.in.getInt(), controls = this.in.get() & 31;
+			if (tick > this.controlTicks[ship]) {  // late packets are older news than what's already here
+				this.controlTicks[ship] = tick;
+				this.controls[ship] = controls;
+			}
+			if (ack > this.acked[ship] && ack <= this.snapshotNumber) this.acked[ship] = ack;
+		}
+
+		// Every client steers Ship 0's way, so each one's controls are moved up to its own Ship's bits
+		int packed = 0;
+		for (int i = 0; i < this.clientCount; i++) packed |= this.controls[i] << 5 * i;
+		Ship.unpackKeys(packed, this.keys);
+	}
+
+	private int clientFor(SocketAddress address) {
+
+		/* Returns which Ship a client plays, giving it the next one if it's new, or -1 if there are none left. */
+
+		for (int i = 0; i < this.clientCount; i++) if (this.addresses[i].equals(address)) return i;
+		if (this.clientCount == this.addresses.length) return -1;
+		this.addresses[this.clientCount] = address;
+		return this.clientCount++;
+	}
+
+	private void sendSnapshots() {
+
+		/* Takes a snapshot and sends it to every client, packed against what each one has. */
+
+		World world = this.session.getWorld();
+		int length = world.getSnapshotSize();
+		if (length > MAX_SNAPSHOT_INTS) {
+			System.err.println("Snapshot of " + length + " ints is too big to send");
+			return;
+		}
+		int number = ++this.snapshotNumber, slot = number % HISTORY;
+		if (this.history[slot].length < length) this.history[slot] = new int[Math.max(length, this.history[slot].length * 2)];
+		world.writeSnapshot(IntBuffer.wrap(this.history[slot]));
+		this.historyLengths[slot] = length;
+		this.historyNumbers[slot] = number;
+		this.rawInts += length;
+
+		for (int i = 0; i < this.clientCount; i++) {
+			int base = this.acked[i];
+			if (base >= 0 && this.historyNumbers[base % HISTORY] != base) base = -1;  // too far behind, so send it all
+			this.out.clear();
+			this.out.put((byte) SNAPSHOT).putInt(number).putInt(base).put((byte) i);
+			if (base < 0) {
+				DeltaCodec.encode(this.history[slot], length, null, 0, this.out);
+				this.fullSnapshotsSent[i]++;
+			} else {
+				DeltaCodec.encode(this.history[slot], length, this.history[base % HISTORY], this.historyLengths[base % HISTORY], this.out);
+			}
+			this.out.flip();
+			this.bytesSent[i] += this.out.remaining();
+			this.snapshotsSent[i]++;
+			try {
+				this.link.send(this.out, this.addresses[i]);
+			} catch (IOException e) {
+				System.err.println("Couldn't send a snapshot to " + this.addresses[i] + ": " + e.getMessage());
+			}
+		}
+	}
+
+	// Accessors //
+
+	public GameSession getSession() {
+
+		/* Returns the game being served. */
+
+		return this.session;
+	}
+
+	public SocketAddress getAddress() throws IOException {
+
+		/* Returns the address the server is listening at. */
+
+		return this.channel.getLocalAddress();
+	}
+
+	public LossyLink getLink() {
+
+		/* Returns what the server sends through, to make it lose packets on purpose. */
+
+		return this.link;
+	}
+
+	public void setSnapshotTicks(int snapshotTicks) {
+
+		/* Sets how many ticks apart snapshots are sent (2 by default). */
+
+		this.snapshotTicks = snapshotTicks;
+	}
+
+	public int getClientCount() {
+
+		/* Returns how many clients have joined. */
+
+		return this.clientCount;
+	}
+
+	public int[] getSnapshot(int number) {
+
+		/* Returns a copy of a snapshot that was sent lately, or null if it's too old. */
+
+		int slot = number % HISTORY;
+		if (number < 0 || this.historyNumbers[slot] != number) return null;
+		return Arrays.copyOf(this.history[slot], this.historyLengths[slot]);
+	}
+
+	public long getBytesSent(int ship) {
+
+		/* Returns how many bytes have been sent to the client playing a Ship (UDP and IP headers not included). */
+
+		return this.bytesSent[ship];
+	}
+
+	public long getSnapshotsSent(int ship) {
+
+		/* Returns how many snapshots have been sent to the client playing a Ship. */
+
+		return this.snapshotsSent[ship];
+	}
+
+	public long getFullSnapshotsSent(int ship) {
+
+		/* Returns how many of those weren't packed against anything. */
+
+		return this.fullSnapshotsSent[ship];
+	}
+
+	public long getRawBytes() {
+
+		/* Returns how many bytes all the snapshots taken would have been as plain ints. */
+
+		return this.rawInts * 4;
+	}
+}
+
+class NetClient {
+
+	/* One player's end of a networked game. tick() sends what that player is holding down (read as Ship 0's keys)
+	   and takes in the newest snapshot, which it unpacks and copies into its World. The World is only ever set
+	   from snapshots, never stepped, so it can be drawn like any other but always shows the server's game. */
+
+	// Fields //
+
+	public static final int TIMEOUT_TICKS = 5000 / World.TICK_MILLIS;  // how long without a snapshot before the server counts as gone
+
+	private final DatagramChannel channel;
+	private final LossyLink link;
+	private final World world = new World();
+	private final Object lock = new Object();  // held while the World is being changed
+	private final ByteBuffer in = ByteBuffer.allocate(NetServer.MAX_PACKET), out = ByteBuffer.allocate(10);
+	private int tick;
+	private int heardTick;  // when the newest snapshot came
+	private int ship = -1;  // which Ship the server gave this client
+
+	// Snapshots received lately, by number modulo HISTORY
+	private final int[][] history = new int[NetServer.HISTORY][];
+	private final int[] historyLengths = new int[NetServer.HISTORY], historyNumbers = new int[NetServer.HISTORY];
+	private int newest = -1;
+	private long bytesReceived, snapshotsReceived, snapshotsUnusable;
+
+	// Constructor //
+
+	public NetClient(SocketAddress server) throws IOException {
+
+		/* Constructs and returns a new NetClient that will join the game at a given address. */
+
+		this.channel = DatagramChannel.open();
+		this.channel.connect(server);
+		this.channel.configureBlocking(false);
+		this.link = new LossyLink(this.channel);
+		Arrays.fill(this.historyNumbers, -1);
+		for (int i = 0; i < NetServer.HISTORY; i++) this.history[i] = new int[256];
+	}
+
+	public void tick(boolean[] keys) throws IOException {
+
+		/* Sends the controls held down in keys, then takes in whatever snapshots have come. Meant to be called
+		   once a tick, like GameSession.tick(). */
+
+		this.out.clear();
+		this.out.put((byte) NetServer.CONTROLS).putInt(this.tick++).putInt(this.newest).put((byte) (Ship.packKeys(keys) & 31));
+		this.out.flip();
+		this.link.send(this.out, this.channel.getRemoteAddress());
+		this.link.flush();
+
+		int newest = this.newest;
+		while (true) {
+			this.in.clear();
+			if (this.channel.receive(this.in) == null) break;
+			this.in.flip();
+			this.bytesReceived += this.in.remaining();
+			if (this.in.remaining() < 10 || this.in.get() != NetServer.SNAPSHOT) continue;
+
+			int number = this.in.getInt(), base = this.in.getInt(), ship = this.in.get();
+			if (number <= newest) continue;  // came in late
+			int baseSlot = base % NetServer.HISTORY;
+			if (base >= 0 && this.historyNumbers[baseSlot] != base) {  // packed against something that's gone
+				this.snapshotsUnusable++;
+				continue;
+			}
+
+			// Nothing in the packet is trusted, so a snapshot that doesn't unpack cleanly is thrown away like one that can't
+			int slot = number % NetServer.HISTORY;
+			this.historyNumbers[slot] = -1;  // what was here is about to be written over
+			boolean unpacked;
+			try {
+				int length = DeltaCodec.readLength(this.in);
+				unpacked = length >= 0 && length <= NetServer.MAX_SNAPSHOT_INTS;
+				if (unpacked) {
+					if (this.history[slot].length < length) this.history[slot] = new int[Math.max(length, this.history[slot].length * 2)];
+					if (base < 0) unpacked = DeltaCodec.decode(this.in, length, null, 0, this.history[slot]);
+					else unpacked = DeltaCodec.decode(this.in, length, this.history[baseSlot], this.historyLengths[baseSlot], this.history[slot]);
+					this.historyLengths[slot] = length;
+				}
+			} catch (BufferUnderflowException e) {  // cut short
+				unpacked = false;
+			}
+			if (!unpacked || !World.isSnapshot(IntBuffer.wrap(this.history[slot], 0, this.historyLengths[slot]))) {
+				this.snapshotsUnusable++;
+				continue;
+			}
+			this.historyNumbers[slot] = number;
+			this.snapshotsReceived++;
+			this.ship = ship;
+			newest = number;
+		}
+
+		int slot = newest % NetServer.HISTORY;
+		if (newest != this.newest && this.historyNumbers[slot] == newest) {  // unless a bad packet has since been unpacked over it
+			this.newest = newest;
+			this.heardTick = this.tick;
+			synchronized (this.lock) {
+				this.world.readSnapshot(IntBuffer.wrap(this.history[slot], 0, this.historyLengths[slot]));
+			}
+		}
+	}
+
+	public void close() throws IOException {
+
+		/* Leaves the game. */
+
+		this.channel.close();
+		synchronized (this.lock) {
+			this.world.clear();
+		}
+	}
+
+	// Accessors //
+
+	public World getWorld() {
+
+		/* Returns the copy of the server's World, as of the newest snapshot. */
+
+		return this.world;
+	}
+
+	public Object getLock() {
+
+		/* Returns the lock held while the World is being changed, to hold while drawing it. */
+
+		return this.lock;
+	}
+
+	public LossyLink getLink() {
+
+		/* Returns what the client sends through, to make it lose packets on purpose. */
+
+		return this.link;
+	}
+
+	public int getShip() {
+
+		/* Returns which Ship this client plays, or -1 before the server has said. */
+
+		return this.ship;
+	}
+
+	public boolean hasTimedOut() {
+
+		/* Returns whether no snapshot has come for TIMEOUT_TICKS ticks, counting from the first if none has yet. */
+
+		return this.tick - this.heardTick > TIMEOUT_TICKS;
+	}
+
+	public int getNewest() {
+
+		/* Returns the number of the newest snapshot received, or -1 for none yet. */
+
+		return this.newest;
+	}
+
+	public int[] getSnapshot(int number) {
+
+		/* Returns a copy of a snapshot received lately, or null if it's too old or never came. */
+
+		int slot = number % NetServer.HISTORY;
+		if (number < 0 || this.historyNumbers[slot] != number) return null;
+		return Arrays.copyOf(this.history[slot], this.historyLengths[slot]);
+	}
+
+	public long getBytesReceived() {
+
+		/* Returns how many bytes have been received (UDP and IP headers not included). */
+
+		return this.bytesReceived;
+	}
+
+	public long getSnapshotsReceived() {
+
+		/* Returns how many snapshots have been received and unpacked. */
+
+		return this.snapshotsReceived;
+	}
+
+	public long getSnapshotsUnusable() {
+
+		/* Returns how many snapshots came packed against one this client no longer had. */
+
+		return this.snapshotsUnusable;
+	}
+}
+
+class DeltaCodec {
+
+	/* Packs an array of ints as how much each one changed from a base array (missing ints count as 0). Most of
+	   a snapshot doesn't change between two snapshots (sizes, health, anything standing still), and what does
+	   change changes by a little, so every change is written as a small varint and every run of unchanged ints
+	   as one varint holding how long the run is. Unchanged ints at the very end aren't written at all.
+
+	   Layout: length (varint), then tokens: (zigzag(change) << 1) for one changed int, or (run << 1 | 1) for run unchanged ints. */
+
+	public static void encode(int[] values, int length, int[] base, int baseLength, ByteBuffer out) {
+
+		/* Writes the first length values, packed against the first baseLength ints of base (null for none). */
+
+		writeVarint(out, length);
+		int run = 0;
+		for (int i = 0; i < length; i++) {
+			int change = values[i] - (i < baseLength ? base[i] : 0);
+			if (change == 0) {
+				run++;
+				continue;
+			}
+			if (run > 0) writeVarint(out, (long) run << 1 | 1);
+			run = 0;
+			writeVarint(out, ((change << 1 ^ change >> 31) & 0xFFFFFFFFL) << 1);
+		}
+	}
+
+	public static int readLength(ByteBuffer in) {
+
+		/* Reads how many ints the packed array holds, or -1 if it's too big to be real. Comes before decode. */
+
+		long length = readVarint(in);
+		return length > Integer.MAX_VALUE ? -1 : (int) length;
+	}
+
+	public static boolean decode(ByteBuffer in, int length, int[] base, int baseLength, int[] values) {
+
+		/* Reads the rest of a packed array (up to the end of in) into values, given the base it was packed against.
+		   Returns false if the data runs past length ints or has a number too long to be a varint, and throws
+		   BufferUnderflowException if it stops partway through one. */
+
+		for (int i = 0; i < length; i++) values[i] = i < baseLength ? base[i] : 0;
+		int i = 0;
+		while (in.hasRemaining()) {
+			long token = readVarint(in);
+			if (token < 0) return false;
+			if ((token & 1) != 0) {
+				if (token >>> 1 > length - i) return false;
+				i += (int) (token >>> 1);
+			} else {
+				if (i >= length) return false;
+				int zigzag = (int) (token >>> 1);
+				values[i++] += zigzag >>> 1 ^ -(zigzag & 1);
+			}
+		}
+		return true;
+	}
+
+	private static void writeVarint(ByteBuffer out, long value) {
+
+		/* Writes an unsigned number 7 bits at a time, low bits first, with the top bit set on all but the last byte. */
+
+		while ((value & ~0x7FL) != 0) {
+			out.put((byte) (value & 0x7F | 0x80));
+			value >>>= 7;
+		}
+		out.put((byte) value);
+	}
+
+	private static long readVarint(ByteBuffer in) {
+
+		/* Reads a number written by writeVarint, or returns -1 if it goes on for more bytes than any long needs. */
+
+		long value = 0;
+		for (int shift = 0; shift < 63; shift += 7) {
+			int b = in.get();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) return value;
+		}
+		return -1;
+	}
+}
+
+class RollbackPeer {
+
+	/* Peer to peer play for two Ships, with no server. Both computers run the whole game from the same seed,
+	   and each plays one Ship. Rather than wait to hear what the other player did, a peer guesses (they're
+	   still doing what they were last heard doing) and carries on. Every tick is saved in a StateRing first,
+	   so when the other player's real controls turn up and the guess was wrong, the peer goes back to the
+	   tick they're for and plays forward again with the right controls, all within the one call to tick().
+
+	   A peer never gets more than MAX_ROLLBACK ticks ahead of what it has heard, so going back is never more
+	   than that many ticks of work; if it would, it waits (stalls) instead. Controls are sent again in every
+	   packet until the other side says it has them, so lost packets only cost time.
+
+	   Packets, all big-endian:
+	     3, ticks of ours that the other side has heard (4 bytes), first tick sent (4 bytes), tick count (2 bytes), controls (1 byte each) */
+
+	// Fields //
+
+	public static final int INPUTS = 3;  // packet type
+	public static final int MAX_ROLLBACK = 8;  // most ticks played again in one go
+	private static final int INPUT_HISTORY = 1024;  // controls kept, by tick modulo this
+
+	private final DatagramChannel channel;
+	private final LossyLink link;
+	private final World world = new World();
+	private final StateRing states = new StateRing(MAX_ROLLBACK + 1, 4096);
+	private final boolean[] stepKeys = new boolean[java.awt.event.KeyEvent.KEY_LAST + 1];
+	private final ByteBuffer in = ByteBuffer.allocate(NetServer.MAX_PACKET), out = ByteBuffer.allocate(NetServer.MAX_PACKET);
+	private final int localShip, remoteShip;
+	private SocketAddress remote;
+
+	// Controls, by tick modulo INPUT_HISTORY
+	private final byte[] localInputs = new byte[INPUT_HISTORY], remoteInputs = new byte[INPUT_HISTORY];
+	private final byte[] guesses = new byte[INPUT_HISTORY];  // what each tick was played with for the other Ship
+	private int tick;  // the next tick to play
+	private int heard;  // ticks of the other side's controls heard so far
+	private int heardByRemote;  // ticks of ours the other side has said it heard
+
+	// Counters
+	private long rollbacks, replayedTicks, replayNanos, replayMaxNanos, stalls, saveNanos, saves;
+
+	// Constructor //
+
+	public RollbackPeer(SocketAddress address, int localShip, int difficulty, long seed) throws IOException {
+
+		/* Constructs and returns a new RollbackPeer that plays a given Ship (0 or 1), listening at a given address.
+		   Both peers have to be made with the same difficulty and seed. */
+
+		this.channel = DatagramChannel.open();
+		this.channel.bind(address);
+		this.channel.configureBlocking(false);
+		this.link = new LossyLink(this.channel);
+		this.localShip = localShip;
+		this.remoteShip = 1 - localShip;
+		this.world.init(difficulty, 2, seed);
+	}
+
+	public void connect(SocketAddress remote) {
+
+		/* Sets where the other peer is. */
+
+		this.remote = remote;
+	}
+
+	public void close() throws IOException {
+
+		/* Stops playing. */
+
+		this.channel.close();
+		this.world.clear();
+	}
+
+	public boolean tick(boolean[] keys) throws IOException {
+
+		/* Takes in the other side's controls (going back and playing again if a guess was wrong), then plays the
+		   next tick with what's held down in keys (read as Ship 0's keys). Returns whether it got to play the
+		   tick, or had to stall because it hasn't heard from the other side in too long. */
+
+		this.receive();
+		boolean stalled = this.tick - this.heard >= MAX_ROLLBACK;
+		if (stalled) {
+			this.stalls++;
+		} else {
+			this.localInputs[this.tick % INPUT_HISTORY] = (byte) (Ship.packKeys(keys) & 31);
+			this.play(this.tick++);
+		}
+		this.send();
+		return !stalled;
+	}
+
+	public void poll() throws IOException {
+
+		/* Takes in and sends out controls without playing a tick, e.g. to let the other side catch up at the end. */
+
+		this.receive();
+		this.send();
+	}
+
+	private void receive() throws IOException {
+
+		/* Reads every packet waiting, then goes back to the first tick that was played with a wrong guess, if any. */
+
+		int wrongFrom = Integer.MAX_VALUE;
+		while (true) {
+			this.in.clear();
+			if (this.channel.receive(this.in) == null) break;
+			this.in.flip();
+			if (this.in.remaining() < 11 || this.in.get() != INPUTS) continue;
+
+			this.heardByRemote = Math.max(this.heardByRemote, this.in.getInt());
+			int first = this.in.getInt(), count = this.in.getShort() & 0xFFFF;
+			for (int t = first; t < first + count; t++) {
+				byte input = this.in.get();
+				if (t != this.heard) continue;  // heard it already (or there's a gap, which a later packet will fill)
+				this.remoteInputs[t % INPUT_HISTORY] = input;
+				if (t < this.tick && this.guesses[t % INPUT_HISTORY] != input) wrongFrom = Math.min(wrongFrom, t);
+				this.heard++;
+			}
+		}
+		if (wrongFrom < this.tick) this.rollBack(wrongFrom);
+	}
+
+	private void rollBack(int from) {
+
+		/* Puts the World back to how it was before a tick and plays up to now again. */
+
+		long start = System.nanoTime();
+		this.states.restore(from, this.world);
+		for (int t = from; t < this.tick; t++) this.play(t);
+		long nanos = System.nanoTime() - start;
+
+		this.rollbacks++;
+		this.replayedTicks += this.tick - from;
+		this.replayNanos += nanos;
+		this.replayMaxNanos = Math.max(this.replayMaxNanos, nanos);
+	}
+
+	private void play(int tick) {
+
+		/* Saves the World, then plays one tick with the local controls and the other side's (or a guess at them). */
+
+		long start = System.nanoTime();
+		this.states.save(tick, this.world);
+		this.saveNanos += System.nanoTime() - start;
+		this.saves++;
+
+		byte remote = tick < this.heard ? this.remoteInputs[tick % INPUT_HISTORY] : this.heard > 0 ? this.remoteInputs[(this.heard - 1) % INPUT_HISTORY] : 0;
+		this.guesses[tick % INPUT_HISTORY] = remote;
+		Ship.unpackKeys(this.localInputs[tick % INPUT_HISTORY] << 5 * this.localShip | remote << 5 * this.remoteShip, this.stepKeys);
+		this.world.step(this.stepKeys);
+	}
+
+	private void send() throws IOException {
+
+		/* Sends every tick of controls the other side hasn't said it heard, then lets the link send what's due. */
+
+		if (this.remote != null) {
+			int first = this.heardByRemote, count = this.tick - first;
+			this.out.clear();
+			this.out.put((byte) INPUTS).putInt(this.heard).putInt(first).putShort((short) count);
+			for (int t = first; t < this.tick; t++) this.out.put(this.localInputs[t % INPUT_HISTORY]);
+			this.out.flip();
+			this.link.send(this.out, this.remote);
+		}
+		this.link.flush();
+	}
+
+	// Accessors //
+
+	public World getWorld() {
+
+		/* Returns the World being played. */
+
+		return this.world;
+	}
+
+	public SocketAddress getAddress() throws IOException {
+
+		/* Returns the address the peer is listening at. */
+
+		return this.channel.getLocalAddress();
+	}
+
+	public LossyLink getLink() {
+
+		/* Returns what the peer sends through, to hold packets back on purpose. */
+
+		return this.link;
+	}
+
+	public int getTick() {
+
+		/* Returns how many ticks have been played. */
+
+		return this.tick;
+	}
+
+	public int getHeard() {
+
+		/* Returns how many ticks of the other side's controls have been heard. */
+
+		return this.heard;
+	}
+
+	public long getRollbacks() {
+
+		/* Returns how many times a wrong guess meant going back. */
+
+		return this.rollbacks;
+	}
+
+	public long getReplayedTicks() {
+
+		/* Returns how many ticks have been played again in all. */
+
+		return this.replayedTicks;
+	}
+
+	public double getReplayMeanMillis() {
+
+		/* Returns how long going back and playing again took on average, in milliseconds. */
+
+		return this.rollbacks == 0 ? 0 : this.replayNanos / 1e6 / this.rollbacks;
+	}
+
+	public double getReplayMaxMillis() {
+
+		/* Returns the longest going back and playing again has taken, in milliseconds. */
+
+		return this.replayMaxNanos / 1e6;
+	}
+
+	public double getSaveMeanMicros() {
+
+		/* Returns how long saving the World takes on average, in microseconds. */
+
+		return this.saves == 0 ? 0 : this.saveNanos / 1e3 / this.saves;
+	}
+
+	public long getStalls() {
+
+		/* Returns how many ticks were spent waiting to hear from the other side. */
+
+		return this.stalls;
+	}
+}
+
+class StateRing {
+
+	/* The World as it was before each of the last few ticks, written by World.writeState into buffers that
+	   are made once and reused round and round, so saving every tick costs a copy and nothing else. */
+
+	// Fields //
+
+	private final ByteBuffer[] states;
+	private final int[] ticks;
+
+	// Constructor //
+
+	public StateRing(int capacity, int bytesEach) {
+
+		/* Constructs and returns a new StateRing holding the last capacity ticks, each starting with bytesEach bytes of room. */
+
+		this.states = new ByteBuffer[capacity];
+		this.ticks = new int[capacity];
+		for (int i = 0; i < capacity; i++) {
+			this.states[i] = ByteBuffer.allocate(bytesEach);
+			this.ticks[i] = -1;
+		}
+	}
+
+	public void save(int tick, World world) {
+
+		/* Saves the World as it is before a given tick, over the oldest tick kept. */
+
+		int slot = tick % this.states.length;
+		int size = world.getStateSize();
+		if (this.states[slot].capacity() < size) this.states[slot] = ByteBuffer.allocate(Math.max(size, this.states[slot].capacity() * 2));
+		this.states[slot].clear();
+		world.writeState(this.states[slot]);
+		this.ticks[slot] = tick;
+	}
+
+	public void restore(int tick, World world) {
+
+		/* Puts the World back to how it was before a given tick. */
+
+		int slot = tick % this.states.length;
+		if (this.ticks[slot] != tick) throw new IllegalStateException("tick " + tick + " is no longer saved");
+		this.states[slot].flip();
+		world.readState(this.states[slot]);
+	}
+}
+
+class LossyLink {
+
+	/* Sends packets through a DatagramChannel, holding each one back for a number of ticks and dropping some
+	   at random first, so lag and packet loss can be tried out without a real network. With no latency and
+	   no loss (the default) packets go straight out. */
+
+	private static class Packet {
+
+		/* A packet waiting to go out. */
+
+		byte[] data = new byte[64];
+		int length;
+		SocketAddress to;
+		long due;  // the flush it goes out on
+	}
+
+	// Fields //
+
+	private final DatagramChannel channel;
+	private final ArrayDeque<Packet> waiting = new ArrayDeque<>();
+	private final Pool<Packet> packetPool = new Pool<>(256, Packet::new);
+	private int latencyTicks;
+	private double loss;
+	private Random rng = new Random(0);
+	private long flushes, sent, dropped;
+
+	// Constructor //
+
+	public LossyLink(DatagramChannel channel) {
+
+		/* Constructs and returns a new LossyLink that sends through a given channel. */
+
+		this.channel = channel;
+	}
+
+	public void setConditions(int latencyTicks, double loss, long seed) {
+
+		/* Sets how many flushes packets are held back for, what fraction of them are dropped, and the seed
+		   the drops are picked with. */
+
+		this.latencyTicks = latencyTicks;
+		this.loss = loss;
+		this.rng = new Random(seed);
+	}
+
+	public void send(ByteBuffer packet, SocketAddress to) throws IOException {
+
+		/* Sends what's left in a buffer as one packet, or holds it back, or drops it. */
+
+		if (this.loss > 0 && this.rng.nextDouble() < this.loss) {
+			this.dropped++;
+			return;
+		}
+		this.sent++;
+		if (this.latencyTicks == 0) {
+			this.channel.send(packet, to);
+			return;
+		}
+
+		Packet waiting = this.packetPool.acquire();
+		if (waiting.data.length < packet.remaining()) waiting.data = new byte[Math.max(packet.remaining(), waiting.data.length * 2)];
+		waiting.length = packet.remaining();
+		packet.get(waiting.data, 0, waiting.length);
+		waiting.to = to;
+		waiting.due = this.flushes + this.latencyTicks;
+		this.waiting.addLast(waiting);
+	}
+
+	public void flush() throws IOException {
+
+		/* Sends out every packet that's been held back long enough. Meant to be called once a tick. */
+
+		this.flushes++;
+		while (!this.waiting.isEmpty() && this.waiting.peekFirst().due <= this.flushes) {
+			Packet packet = this.waiting.removeFirst();
+			this.channel.send(ByteBuffer.wrap(packet.data, 0, packet.length), packet.to);
+			packet.to = null;
+			this.packetPool.release(packet);
+		}
+	}
+
+	// Accessors //
+
+	public long getSent() {
+
+		/* Returns how many packets have been sent (or are waiting to be). */
+
+		return this.sent;
+	}
+
+	public long getDropped() {
+
+		/* Returns how many packets have been dropped on purpose. */
+
+		return this.dropped;
+	}
+}
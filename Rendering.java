@@ -0,0 +1,827 @@
+/*
+    Adam Mehdi & Syed Safwaan
+    Rendering.java
+    Getting frames onto the screen on our own schedule, without waiting on Swing.
+
+    Classes:
+    - GameCanvas    A Canvas the game loop draws straight into through a BufferStrategy
+    - > Painter     Something that can draw a whole frame
+    - StarField     The twinkling background, drawn ahead of time into a handful of images
+    - GlyphAtlas    A font drawn once into an image, so text can be stamped out without making Strings or Fonts
+    - ScoreBanner   The score line, kept as an image and only redrawn when the numbers in it change
+    - DamageMap     Which parts of the screen changed since the back buffer was last drawn, so only they are drawn again
+*/
+
+import java.awt.*;
+import java.awt.image.BufferStrategy;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+class GameCanvas extends Canvas {
+
+	/* An actively rendered Canvas. Instead of asking the repaint manager for a frame and hoping it comes,
+	   whoever calls present() draws into the back buffer and flips it to the screen right away. Toolkit.sync()
+	   is called after every flip so the frame isn't left sitting in the window system's queue (mainly on Linux).
+	   How long each flip takes and how far apart they land is kept, to see whether frames arrive evenly.
+
+	   While painting, getBufferAge() says how many frames old the back buffer's contents are, so a painter
+	   can draw just what changed since then. That depends on how the buffers are swapped: copying the back
+	   buffer to the screen leaves it as it was, but flipping may leave it a frame further behind, or empty. */
+
+	interface Painter {
+
+		/* Something that can draw a whole frame. */
+
+		void paint(Graphics2D g);
+	}
+
+	// Fields //
+
+	private static final long serialVersionUID = 1L;
+
+	private final int bufferCount;  // 2 for double buffering, 3 for triple
+	private volatile BufferStrategy strategy;  // only exists while the Canvas is on screen
+	private int keptFrames;  // how many frames behind the back buffer is after a present, 0 if it isn't kept
+	private int bufferAge;  // how many frames behind the buffer being painted is, 0 if it holds nothing useful
+
+	// Present timing
+	private long presents, lastPresent, lostFrames;
+	private long presentNanos, presentMax;  // time spent in show() and sync()
+	private long intervalNanos, intervalMax;  // time between one present and the next
+
+	// Constructor //
+
+	public GameCanvas(int width, int height, int bufferCount) {
+
+		/* Constructs and returns a new GameCanvas of a given size, flipping between bufferCount buffers. */
+
+		this.bufferCount = bufferCount;
+		this.setSize(width, height);
+		this.setBackground(Color.black);
+		this.setIgnoreRepaint(true);  // we draw when we want to, not when the window system asks
+		this.setFocusable(true);
+	}
+
+	@Override
+	public void addNotify() {
+
+		/* Makes the buffers once the Canvas has a peer to make them on. */
+
+		super.addNotify();
+		this.createBufferStrategy(this.bufferCount);
+		BufferStrategy strategy = this.getBufferStrategy();
+		BufferCapabilities capabilities = strategy.getCapabilities();
+		BufferCapabilities.FlipContents contents = capabilities.getFlipContents();
+		if (!capabilities.isPageFlipping() || contents == BufferCapabilities.FlipContents.COPIED) this.keptFrames = 1;
+		else if (contents == BufferCapabilities.FlipContents.PRIOR) this.keptFrames = this.bufferCount;
+		else this.keptFrames = 0;
+		this.bufferAge = 0;  // nothing has been drawn into the new buffers yet
+		this.strategy = strategy;
+	}
+
+	@Override
+	public void removeNotify() {
+
+		/* Lets go of the buffers before the Canvas loses its peer. */
+
+		this.strategy = null;
+		super.removeNotify();
+	}
+
+	public boolean present(Painter painter) {
+
+		/* Draws a frame with painter and shows it. Returns false if the Canvas isn't on screen to draw to. */
+
+		BufferStrategy strategy = this.strategy;
+		if (strategy == null || !this.isShowing()) return false;
+
+		try {
+			// Buffers can be lost at any time (e.g. the display mode changed), so redraw until one sticks
+			boolean lost;
+			do {
+				do {
+					Graphics2D g = (Graphics2D) strategy.getDrawGraphics();
+					try {
+						painter.paint(g);
+					} finally {
+						g.dispose();
+					}
+					this.bufferAge = 0;  // until the frame is shown, and again if the buffer was restored
+				} while (strategy.contentsRestored());
+
+				long start = System.nanoTime();
+				strategy.show();
+				Toolkit.getDefaultToolkit().sync();
+				this.recordPresent(start, System.nanoTime());
+
+				lost = strategy.contentsLost();
+				if (lost) this.lostFrames++;
+				else this.bufferAge = this.keptFrames;
+			} while (lost);
+		} catch (IllegalStateException e) {
+			// The peer went away while we were drawing
+			return false;
+		}
+		return true;
+	}
+
+	private void recordPresent(long start, long end) {
+
+		/* Adds one present to the timing totals. */
+
+		long took = end - start;
+		this.presentNanos += took;
+		if (took > this.presentMax) this.presentMax = took;
+		if (this.presents > 0) {
+			long interval = end - this.lastPresent;
+			this.intervalNanos += interval;
+			if (interval > this.intervalMax) this.intervalMax = interval;
+		}
+		this.lastPresent = end;
+		this.presents++;
+	}
+
+	// Accessors //
+
+	public long getPresents() {
+
+		/* Returns how many frames have been shown. */
+
+		return this.presents;
+	}
+
+	public int getBufferAge() {
+
+		/* Returns how many frames ago the buffer being painted was last drawn into (1 for the frame just before),
+		   or 0 if it has to be drawn from scratch. Only meaningful while painting. */
+
+		return this.bufferAge;
+	}
+
+	public long getLostFrames() {
+
+		/* Returns how many frames had to be redrawn because their buffer was lost. */
+
+		return this.lostFrames;
+	}
+
+	public double getMeanPresentMillis() {
+
+		/* Returns how long showing a frame takes on average, in milliseconds. */
+
+		return this.presents == 0 ? 0 : this.presentNanos / 1e6 / this.presents;
+	}
+
+	public double getMaxPresentMillis() {
+
+		/* Returns the longest showing a frame has taken, in milliseconds. */
+
+		return this.presentMax / 1e6;
+	}
+
+	public double getMeanIntervalMillis() {
+
+		/* Returns the average time between frames being shown, in milliseconds. */
+
+		return this.presents < 2 ? 0 : this.intervalNanos / 1e6 / (this.presents - 1);
+	}
+
+	public double getMaxIntervalMillis() {
+
+		/* Returns the longest gap between frames being shown, in milliseconds. */
+
+		return this.intervalMax / 1e6;
+	}
+}
+
+class StarField {
+
+	/* The star background as a cached layer. Every Star loops through the same PERIOD_TICKS long twinkle, so
+	   the whole field only ever has KEYFRAMES different looks. Each look is drawn into its own image the first
+	   time it's needed and reused every loop after that, so a frame costs one drawImage however many Stars
+	   there are, and nothing is drawn again until reset() changes the Stars.
+
+	   Keyframes are made compatible with the screen so Java2D can keep a copy of them in video memory, which
+	   makes the blit nearly free. Eight of them is about all the twinkle needs, since Stars are drawn at whole
+	   pixel sizes anyway, and keeps the cache under 30 MB at 1280x720. */
+
+	// Fields //
+
+	public static final int KEYFRAMES = 8, PERIOD_TICKS = 240;
+
+	private final int width, height;
+	private final ArrayList<Star> stars = new ArrayList<>();
+	private final BufferedImage[] keyframes = new BufferedImage[KEYFRAMES];
+	private final boolean[] drawn = new boolean[KEYFRAMES];  // whether each keyframe shows the current Stars
+	private int tick;
+	private long redraws;
+
+	// Constructor //
+
+	public StarField(int width, int height) {
+
+		/* Constructs and returns a new StarField with no Stars in it. */
+
+		this.width = width;
+		this.height = height;
+	}
+
+	public void reset(int count, Random rng) {
+
+		/* Replaces the Stars with count new ones scattered about, and starts the twinkle over. */
+
+		this.stars.clear();
+		for (int i = 0; i < count; i++) {
+			this.stars.add(new Star(rng.nextInt(this.width), rng.nextInt(this.height), rng.nextInt(3) + 3, rng));
+		}
+		Arrays.fill(this.drawn, false);
+		this.tick = 0;
+	}
+
+	public void tick() {
+
+		/* Moves the twinkle along by one tick. */
+
+		this.tick = (this.tick + 1) % PERIOD_TICKS;
+	}
+
+	public void update(Graphics g) {
+
+		/* Draws the whole field (black included) onto a Graphics component. */
+
+		g.drawImage(this.getLayer(), 0, 0, null);
+	}
+
+	public BufferedImage getLayer() {
+
+		/* Returns the image of the field as it looks right now. The same image comes back until the twinkle
+		   moves on to the next keyframe or the Stars change. */
+
+		return this.getKeyframe(this.tick * KEYFRAMES / PERIOD_TICKS);
+	}
+
+	private BufferedImage getKeyframe(int k) {
+
+		/* Returns keyframe k, drawing it first if it doesn't show the current Stars yet. */
+
+		if (this.keyframes[k] == null) this.keyframes[k] = this.makeImage();
+		if (!this.drawn[k]) {
+			Graphics2D g = this.keyframes[k].createGraphics();
+			g.setColor(Color.black);
+			g.fillRect(0, 0, this.width, this.height);
+			double phase = (double) k / KEYFRAMES;
+			for (Star star : this.stars) star.update(g, phase);
+			g.dispose();
+			this.drawn[k] = true;
+			this.redraws++;
+		}
+		return this.keyframes[k];
+	}
+
+	private BufferedImage makeImage() {
+
+		/* Returns a new opaque image the size of the field, in whatever format the screen is happiest with. */
+
+		if (GraphicsEnvironment.isHeadless()) return new BufferedImage(this.width, this.height, BufferedImage.TYPE_INT_RGB);
+		GraphicsConfiguration config = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().getDefaultConfiguration();
+		return config.createCompatibleImage(this.width, this.height, Transparency.OPAQUE);
+	}
+
+	// Accessors //
+
+	public int getStarCount() {
+
+		/* Returns how many Stars are in the field. */
+
+		return this.stars.size();
+	}
+
+	public long getRedraws() {
+
+		/* Returns how many times a keyframe has had to be drawn. */
+
+		return this.redraws;
+	}
+}
+
+class GlyphAtlas {
+
+	/* Every character text will need, drawn once side by side into a single image. Drawing text is then just
+	   copying the right bits of that image, which means no Font objects, no Strings and no glyph layout on
+	   every frame, and numbers can be drawn straight from an int. Characters not in the atlas are skipped. */
+
+	// Fields //
+
+	private final BufferedImage image;
+	private final int[] glyphX = new int[128], glyphWidth = new int[128];  // where each character is, by its code
+	private final int ascent, height;
+	private final int pad;  // spare room either side of every glyph, for bold and italic bits that stick out
+
+	// Constructor //
+
+	public GlyphAtlas(Font font, Color color, String chars) {
+
+		/* Constructs and returns a new GlyphAtlas holding chars in a given font and colour. */
+
+		// Measure the characters with a throwaway image, since a FontMetrics needs a Graphics to come from
+		BufferedImage scratch = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+		Graphics2D sg = scratch.createGraphics();
+		FontMetrics metrics = sg.getFontMetrics(font);
+		sg.dispose();
+
+		this.ascent = metrics.getAscent();
+		this.height = metrics.getAscent() + metrics.getDescent();
+		this.pad = this.height / 4;
+
+		Arrays.fill(this.glyphX, -1);
+		int width = 0;
+		for (int i = 0; i < chars.length(); i++) {
+			char c = chars.charAt(i);
+			if (c >= 128 || this.glyphX[c] >= 0) continue;
+			this.glyphX[c] = width + this.pad;
+			this.glyphWidth[c] = metrics.charWidth(c);
+			width += this.glyphWidth[c] + 2 * this.pad;
+		}
+
+		// Draw them all in one row
+		this.image = new BufferedImage(Math.max(1, width), this.height, BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g = this.image.createGraphics();
+		g.setFont(font);
+		g.setColor(color);
+		for (int c = 0; c < 128; c++) {
+			if (this.glyphX[c] >= 0) g.drawString(String.valueOf((char) c), this.glyphX[c], this.ascent);
+		}
+		g.dispose();
+	}
+
+	public int drawChar(Graphics g, char c, int x, int y) {
+
+		/* Draws a character with its baseline at y (like Graphics.drawString does). Returns where the next one goes. */
+
+		if (c >= 128 || this.glyphX[c] < 0) return x;
+		int sx = this.glyphX[c] - this.pad, w = this.glyphWidth[c] + 2 * this.pad, top = y - this.ascent;
+		g.drawImage(this.image, x - this.pad, top, x - this.pad + w, top + this.height, sx, 0, sx + w, this.height, null);
+		return x + this.glyphWidth[c];
+	}
+
+	public int drawString(Graphics g, String text, int x, int y) {
+
+		/* Draws some text with its baseline at y. Returns where the next character goes. */
+
+		for (int i = 0; i < text.length(); i++) x = this.drawChar(g, text.charAt(i), x, y);
+		return x;
+	}
+
+	public int drawNumber(Graphics g, long value, int x, int y) {
+
+		/* Draws a whole number with its baseline at y, without turning it into a String. Returns where the next character goes. */
+
+		if (value < 0) {
+			x = this.drawChar(g, '-', x, y);
+			value = -value;
+		}
+		long place = 1;
+		while (value / place >= 10) place *= 10;
+		for (; place > 0; place /= 10) x = this.drawChar(g, (char) ('0' + value / place % 10), x, y);
+		return x;
+	}
+
+	// Accessors //
+
+	public int getAscent() {
+
+		/* Returns how far the characters reach above the baseline. */
+
+		return this.ascent;
+	}
+
+	public int getHeight() {
+
+		/* Returns the height of a line of text. */
+
+		return this.height;
+	}
+
+	public int getPad() {
+
+		/* Returns how far a glyph may draw past either side of its width. */
+
+		return this.pad;
+	}
+
+	public int getWidth(char c) {
+
+		/* Returns how wide a character is, or 0 if it isn't in the atlas. */
+
+		return c < 128 && this.glyphX[c] >= 0 ? this.glyphWidth[c] : 0;
+	}
+
+	public int getWidth(long value) {
+
+		/* Returns how wide a whole number is drawn (pad aside), i.e. how far drawNumber() moves along. */
+
+		int width = 0;
+		if (value < 0) {
+			width += this.getWidth('-');
+			value = -value;
+		}
+		do {
+			width += this.getWidth((char) ('0' + value % 10));
+			value /= 10;
+		} while (value > 0);
+		return width;
+	}
+}
+
+class ScoreBanner {
+
+	/* The "SCORE: ... ASTEROID MASS: ..." line at the top of the screen. It only changes when a number in it
+	   does, so it's drawn into its own image once per change and that image is copied onto every frame. */
+
+	// Fields //
+
+	private static final int MAX_CHARS = 48;  // room for both labels and two ten digit numbers
+
+	private final GlyphAtlas glyphs;
+	private final BufferedImage image;
+	private int score = -1, weight = -1;  // what the image shows right now
+	private int width;  // how much of the image the text takes up, from the left
+	private long redraws;
+
+	// Constructor //
+
+	public ScoreBanner(Font font, Color color) {
+
+		/* Constructs and returns a new ScoreBanner drawn in a given font and colour. */
+
+		this.glyphs = new GlyphAtlas(font, color, "SCORE: ASTEROID MASS-0123456789");
+		this.image = new BufferedImage(this.glyphs.getWidth('M') * MAX_CHARS + 2 * this.glyphs.getPad(), this.glyphs.getHeight(), BufferedImage.TYPE_INT_ARGB);
+	}
+
+	public void update(Graphics g, int score, int weight, int x, int y) {
+
+		/* Draws the banner with its baseline at y, redrawing it first if score or weight have changed. */
+
+		this.refresh(score, weight);
+		this.draw(g, x, y);
+	}
+
+	public int refresh(int score, int weight) {
+
+		/* Redraws the banner's image if score or weight have changed. Returns how wide a strip from its left
+		   edge changed (whichever of the old and new text is longer), or 0 if nothing did. */
+
+		if (score == this.score && weight == this.weight) return 0;
+		this.score = score;
+		this.weight = weight;
+
+		Graphics2D ig = this.image.createGraphics();
+		ig.setComposite(AlphaComposite.Clear);
+		ig.fillRect(0, 0, this.image.getWidth(), this.image.getHeight());
+		ig.setComposite(AlphaComposite.SrcOver);
+		int baseline = this.glyphs.getAscent();
+		int next = this.glyphs.drawString(ig, "SCORE: ", this.glyphs.getPad(), baseline);
+		next = this.glyphs.drawNumber(ig, score, next, baseline);
+		next = this.glyphs.drawString(ig, " ASTEROID MASS: ", next, baseline);
+		next = this.glyphs.drawNumber(ig, weight, next, baseline);
+		ig.dispose();
+		this.redraws++;
+
+		int changed = Math.max(this.width, next + this.glyphs.getPad());
+		this.width = next + this.glyphs.getPad();
+		return changed;
+	}
+
+	public void draw(Graphics g, int x, int y) {
+
+		/* Draws the banner as it is with its baseline at y. */
+
+		g.drawImage(this.image, this.getLeft(x), this.getTop(y), null);
+	}
+
+	// Accessors //
+
+	public long getRedraws() {
+
+		/* Returns how many times the banner has been redrawn. */
+
+		return this.redraws;
+	}
+
+	public int getLeft(int x) {
+
+		/* Returns where the left edge of the banner is when its text starts at x. */
+
+		return x - this.glyphs.getPad();
+	}
+
+	public int getTop(int y) {
+
+		/* Returns where the top edge of the banner is when its baseline is at y. */
+
+		return y - this.glyphs.getAscent();
+	}
+
+	public int getWidth() {
+
+		/* Returns how wide the text in the banner is, pad included. */
+
+		return this.width;
+	}
+
+	public int getHeight() {
+
+		/* Returns how tall the banner is. */
+
+		return this.image.getHeight();
+	}
+}
+
+class DamageMap {
+
+	/* Which parts of the screen have to be drawn again. The screen is cut into TILE pixel squares, and the
+	   bounds of everything drawn in a frame mark the tiles under them. A buffer holding a frame from a few
+	   frames back can only differ from the new one on tiles marked in those frames or this one (where things
+	   were then and where they are now), so only those tiles have the static layer put back and drawn over.
+	   Marked tiles are merged into rectangles: runs along each row, stretched down while the rows below have
+	   a run in the same place.
+
+	   Past a set share of the screen, one blit of the whole layer beats lots of small ones, so the whole frame
+	   is drawn instead. The same goes for a buffer that holds nothing useful or was drawn over a different
+	   layer (the stars moved on a keyframe). How many pixels each frame touches is kept, to weigh against the
+	   width * height a full redraw touches.
+
+	   A frame goes begin(), add() for the bounds of everything about to be drawn, restore(), the drawing
+	   itself, then end(). */
+
+	// Fields //
+
+	public static final int TILE = 16;
+	public static final int HISTORY = 3;  // the furthest behind a buffer can be (triple buffering)
+	private static final int OUTLINE_REACH = 5;
+
+	private final int width, height, columns, rows;
+	private final double fullShare;  // share of the screen past which the whole frame is drawn
+	private final boolean[][] marks = new boolean[HISTORY + 1][];  // tiles marked this frame and the HISTORY before it, round a ring
+	private final Object[] layers = new Object[HISTORY + 1];  // the layer each of those frames was drawn over
+	private final boolean[] damaged;
+	private int frame;  // slot in the ring this frame's marks go in
+	private int known;  // how many frames before this one have their marks in the ring
+	private int bufferAge;
+	private boolean full;
+
+	// What's drawn this frame, as (x, y, width, height)
+	private int[] rects = new int[4 * 64];
+	private int rectCount;
+	private int[] open, lastOpen;  // rectangles that reach down to the row being merged, and the row above
+
+	// Pixel counts
+	private long frames, fullFrames, pixels;
+	private int lastPixels;
+
+	// Constructor //
+
+	public DamageMap(int width, int height, double fullShare) {
+
+		/* Constructs and returns a new DamageMap for a screen of a given size, drawing it all once more than
+		   fullShare of it (0 to 1) is damaged. */
+
+		this.width = width;
+		this.height = height;
+		this.fullShare = fullShare;
+		this.columns = (width + TILE - 1) / TILE;
+		this.rows = (height + TILE - 1) / TILE;
+		for (int i = 0; i < this.marks.length; i++) this.marks[i] = new boolean[this.columns * this.rows];
+		this.damaged = new boolean[this.columns * this.rows];
+		this.open = new int[this.columns];
+		this.lastOpen = new int[this.columns];
+	}
+
+	public void begin(int bufferAge, Object layer) {
+
+		/* Starts a frame going into a buffer last drawn bufferAge frames ago (0 if it holds nothing useful),
+		   over a given static layer. */
+
+		Arrays.fill(this.marks[this.frame], false);
+		this.layers[this.frame] = layer;
+		this.bufferAge = bufferAge;
+		this.full = bufferAge <= 0 || bufferAge > this.known;
+		for (int back = 1; back <= bufferAge && !this.full; back++) {
+			if (this.layers[this.slot(back)] != layer) this.full = true;
+		}
+	}
+
+	public void add(Rectangle bounds) {
+
+		/* Marks the tiles under something about to be drawn. */
+
+		this.add(bounds.x, bounds.y, bounds.width, bounds.height);
+	}
+
+	public void add(int x, int y, int width, int height) {
+
+		/* Marks the tiles under an area about to be drawn over. Anything off the screen is ignored. */
+
+		int left = Math.max(0, x), right = Math.min(this.width, x + width);
+		int top = Math.max(0, y), bottom = Math.min(this.height, y + height);
+		if (left >= right || top >= bottom) return;
+
+		boolean[] marks = this.marks[this.frame];
+		int lastColumn = (right - 1) / TILE, lastRow = (bottom - 1) / TILE;
+		for (int row = top / TILE; row <= lastRow; row++) {
+			for (int column = left / TILE, i = row * this.columns + column; column <= lastColumn; column++, i++) marks[i] = true;
+		}
+	}
+
+	public void restore(Graphics g, Image layer) {
+
+		/* Works out what has to be drawn this frame, and puts the layer back over it. */
+
+		if (!this.full) {
+			System.arraycopy(this.marks[this.frame], 0, this.damaged, 0, this.damaged.length);
+			for (int back = 1; back <= this.bufferAge; back++) {
+				boolean[] marks = this.marks[this.slot(back)];
+				for (int i = 0; i < marks.length; i++) this.damaged[i] |= marks[i];
+			}
+			this.merge();
+			if (this.countPixels() > this.fullShare * this.width * this.height) this.full = true;
+		}
+		if (this.full) {
+			this.rectCount = 0;
+			this.addRect(0, 0, this.width, this.height);
+			this.fullFrames++;
+		}
+
+		for (int i = 0, r = 0; i < this.rectCount; i++, r += 4) {
+			int x = this.rects[r], y = this.rects[r + 1], right = x + this.rects[r + 2], bottom = y + this.rects[r + 3];
+			g.drawImage(layer, x, y, right, bottom, x, y, right, bottom, null);
+		}
+		this.lastPixels = this.countPixels();
+		this.pixels += this.lastPixels;
+		this.frames++;
+	}
+
+	public void end() {
+
+		/* Finishes the frame, keeping its marks for the frames after it. */
+
+		this.frame = (this.frame + 1) % this.marks.length;
+		this.known = Math.min(this.known + 1, HISTORY);
+	}
+
+	public void reset() {
+
+		/* Forgets every frame so far, so the next one is drawn whole (e.g. after drawing somewhere else). */
+
+		this.known = 0;
+	}
+
+	public boolean clip(Graphics g, int i, int x, int y, int width, int height) {
+
+		/* Clips g to where rectangle i of this frame overlaps an area. Returns false (leaving g alone) if they
+		   don't overlap. */
+
+		int r = 4 * i;
+		int left = Math.max(x, this.rects[r]), right = Math.min(x + width, this.rects[r] + this.rects[r + 2]);
+		int top = Math.max(y, this.rects[r + 1]), bottom = Math.min(y + height, this.rects[r + 1] + this.rects[r + 3]);
+		if (left >= right || top >= bottom) return false;
+		g.setClip(left, top, right - left, bottom - top);
+		return true;
+	}
+
+	static void include(Rectangle bounds, Polygon p) {
+
+		/* Grows bounds to take in every pixel a Polygon covers once filled and outlined. Bounds with a negative
+		   width (e.g. (0, 0, -1, -1)) count as empty. */
+
+		// Outlines have mitred corners, which poke out past a sharp corner by up to half the miter limit (10)
+		// times the line width (1)
+		for (int i = 0; i < p.npoints; i++) {
+			bounds.add(p.xpoints[i] - OUTLINE_REACH, p.ypoints[i] - OUTLINE_REACH);
+			bounds.add(p.xpoints[i] + OUTLINE_REACH + 1, p.ypoints[i] + OUTLINE_REACH + 1);
+		}
+	}
+
+	private void merge() {
+
+		/* Turns the damaged tiles into rectangles. */
+
+		this.rectCount = 0;
+		int lastOpenCount = 0;
+		for (int row = 0; row < this.rows; row++) {
+			int openCount = 0, above = 0;
+			int y = row * TILE, tileHeight = Math.min(TILE, this.height - y);
+			for (int column = 0, i = row * this.columns; column < this.columns; ) {
+				if (!this.damaged[i]) {
+					column++;
+					i++;
+					continue;
+				}
+				int start = column;
+				while (column < this.columns && this.damaged[i]) {
+					column++;
+					i++;
+				}
+				int x = start * TILE, runWidth = Math.min(column * TILE, this.width) - x;
+
+				// Both rows' runs go left to right, so the one above that might line up is found walking along
+				while (above < lastOpenCount && this.rects[4 * this.lastOpen[above]] < x) above++;
+				int r = above < lastOpenCount ? 4 * this.lastOpen[above] : -1;
+				if (r >= 0 && this.rects[r] == x && this.rects[r + 2] == runWidth) {
+					this.rects[r + 3] += tileHeight;
+					this.open[openCount++] = r / 4;
+					above++;
+				} else {
+					this.open[openCount++] = this.rectCount;
+					this.addRect(x, y, runWidth, tileHeight);
+				}
+			}
+			int[] swap = this.lastOpen;
+			this.lastOpen = this.open;
+			this.open = swap;
+			lastOpenCount = openCount;
+		}
+	}
+
+	private void addRect(int x, int y, int width, int height) {
+
+		/* Adds a rectangle to this frame's, making room if need be. */
+
+		int r = 4 * this.rectCount;
+		if (r == this.rects.length) this.rects = Arrays.copyOf(this.rects, 2 * r);
+		this.rects[r] = x;
+		this.rects[r + 1] = y;
+		this.rects[r + 2] = width;
+		this.rects[r + 3] = height;
+		this.rectCount++;
+	}
+
+	private int countPixels() {
+
+		/* Returns how many pixels this frame's rectangles cover. They never overlap. */
+
+		int count = 0;
+		for (int r = 0; r < 4 * this.rectCount; r += 4) count += this.rects[r + 2] * this.rects[r + 3];
+		return count;
+	}
+
+	private int slot(int back) {
+
+		/* Returns where in the ring the marks from back frames ago are. */
+
+		return (this.frame + this.marks.length - back) % this.marks.length;
+	}
+
+	// Accessors //
+
+	public boolean isFull() {
+
+		/* Returns whether this frame is being drawn whole. */
+
+		return this.full;
+	}
+
+	public int getRectCount() {
+
+		/* Returns how many rectangles are being drawn this frame. */
+
+		return this.rectCount;
+	}
+
+	public int getLastPixels() {
+
+		/* Returns how many pixels the last frame touched. */
+
+		return this.lastPixels;
+	}
+
+	public double getMeanPixels() {
+
+		/* Returns how many pixels a frame has touched on average. */
+
+		return this.frames == 0 ? 0 : (double) this.pixels / this.frames;
+	}
+
+	public long getFrames() {
+
+		/* Returns how many frames have been drawn. */
+
+		return this.frames;
+	}
+
+	public long getFullFrames() {
+
+		/* Returns how many frames were drawn whole. */
+
+		return this.fullFrames;
+	}
+
+	public int getScreenPixels() {
+
+		/* Returns how many pixels a whole frame touches. */
+
+		return this.width * this.height;
+	}
+}
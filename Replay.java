@@ -0,0 +1,521 @@
+/*
+    Adam Mehdi & Syed Safwaan
+    Replay.java
+    Recording games so they can be played back exactly as they happened.
+
+    Classes:
+    - ReplayRecorder    Writes down the seed of a game and what keys were held on every tick, as compactly as it can
+    - ReplayPlayer      Reads a recording back straight out of the file, tick by tick, and can jump to any tick
+*/
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+class ReplayRecorder {
+
+	/* Records a game as its seed plus the Ships' controls on every tick (see Ship.packKeys). The World is
+	   deterministic, so that's everything needed to play the game again tick for tick.
+
+	   Controls hardly ever change from one tick to the next, so only changes are written: how many ticks the
+	   controls stayed the same (the run length), then which bits flipped (the delta). Nearly every change is
+	   one key going down or up, so the run and the number of that one bit share a single varint, and a typical
+	   change costs 1 or 2 bytes. Half an hour of play (180,000 ticks) comes to a few KB of controls.
+
+	   To be able to jump into the middle of a replay, the recording is split into blocks of keyframeTicks ticks,
+	   each starting with a keyframe: the whole World as World.writeState writes it. A footer at the end of the
+	   file says where every block starts, so reaching any tick means loading one keyframe and playing at most
+	   keyframeTicks ticks on from it. Keyframes cost a few KB each, so they're kept well apart.
+
+	   File layout:
+	     "SCRP", version (1 byte), seed (8 bytes), difficulty (1 byte), player count (1 byte), keyframeTicks (4 bytes)
+	     then every block:
+	       tick (8 bytes), controls at the start (4 bytes), keyframe length (4 bytes), keyframe
+	       then for every change:   run << 4 | bit (varint)               if only one bit flipped (bit < 14)
+	                            or  run << 4 | 14 (varint), delta (varint)  if more did (delta is the XOR)
+	       then at the end:         run << 4 | 15 (varint)
+	     then the footer:  block count (4 bytes), where each block starts (8 bytes each), ticks (8 bytes)
+	     then where the footer starts (8 bytes) */
+
+	// Fields //
+
+	public static final byte[] MAGIC = {'S', 'C', 'R', 'P'};
+	public static final int VERSION = 4;  // 3: Asteroids collide with each other, 4: Bullets hit along their path
+	public static final int MULTI_BIT = 14, END = 15;  // codes in the low 4 bits of a change that aren't bit numbers
+	public static final int DEFAULT_KEYFRAME_TICKS = 6000;  // a minute of play
+
+	private final long seed;
+	private final int difficulty, playerCount, keyframeTicks;
+	private byte[] bytes = new byte[256];
+	private int size;
+
+	private int input;  // controls as of the last tick
+	private int run;  // ticks they've stayed that way
+	private long ticks;
+	private boolean finished;
+
+	// Blocks
+	private long[] blockStarts = new long[16];
+	private int blockCount;
+	private ByteBuffer keyframe = ByteBuffer.allocate(4096);  // scratch space for World.writeState
+	private long keyframeBytes;
+
+	// Constructor //
+
+	public ReplayRecorder(long seed, int difficulty, int playerCount) {
+
+		/* Constructs and returns a new ReplayRecorder with the usual keyframe spacing. */
+
+		this(seed, difficulty, playerCount, DEFAULT_KEYFRAME_TICKS);
+	}
+
+	public ReplayRecorder(long seed, int difficulty, int playerCount, int keyframeTicks) {
+
+		/* Constructs and returns a new ReplayRecorder for a game started with a given seed, difficulty and player
+		   count, with a keyframe every keyframeTicks ticks. */
+
+		this.seed = seed;
+		this.difficulty = difficulty;
+		this.playerCount = playerCount;
+		this.keyframeTicks = keyframeTicks;
+
+		for (byte b : MAGIC) this.writeByte(b);
+		this.writeByte(VERSION);
+		this.writeLong(seed);
+		this.writeByte(difficulty);
+		this.writeByte(playerCount);
+		this.writeInt(keyframeTicks);
+	}
+
+	public void record(int input, World world) {
+
+		/* Adds one tick's controls (from Ship.packKeys) to the recording. Call it just before world is stepped
+		   with them, so a keyframe taken here is the World the controls were applied to. */
+
+		if (this.finished) throw new IllegalStateException("replay already finished");
+		if (this.ticks % this.keyframeTicks == 0) this.startBlock(world);
+
+		if (input != this.input) {
+			int delta = this.input ^ input;
+			int bit = Integer.numberOfTrailingZeros(delta);
+			if (delta == 1 << bit && bit < MULTI_BIT) {
+				this.writeVarint((long) this.run << 4 | bit);
+			} else {
+				this.writeVarint((long) this.run << 4 | MULTI_BIT);
+				this.writeVarint(delta & 0xFFFFFFFFL);
+			}
+			this.input = input;
+			this.run = 0;
+		}
+		this.run++;
+		this.ticks++;
+	}
+
+	private void startBlock(World world) {
+
+		/* Ends the block being written (if any) and starts a new one with a keyframe of world. */
+
+		if (this.blockCount > 0) this.writeVarint((long) this.run << 4 | END);
+		this.run = 0;
+
+		if (this.blockCount == this.blockStarts.length) this.blockStarts = Arrays.copyOf(this.blockStarts, this.blockCount * 2);
+		this.blockStarts[this.blockCount++] = this.size;
+
+		int stateSize = world.getStateSize();
+		if (this.keyframe.capacity() < stateSize) this.keyframe = ByteBuffer.allocate(Math.max(stateSize, this.keyframe.capacity() * 2));
+		this.keyframe.clear();
+		world.writeState(this.keyframe);
+
+		this.writeLong(this.ticks);
+		this.writeInt(this.input);
+		this.writeInt(this.keyframe.position());
+		for (int i = 0; i < this.keyframe.position(); i++) this.writeByte(this.keyframe.get(i));
+		this.keyframeBytes += this.keyframe.position();
+	}
+
+	public void finish() {
+
+		/* Ends the recording, writing the footer. Nothing more can be recorded afterwards. */
+
+		if (this.finished) return;
+		if (this.blockCount > 0) this.writeVarint((long) this.run << 4 | END);
+
+		long footer = this.size;
+		this.writeInt(this.blockCount);
+		for (int i = 0; i < this.blockCount; i++) this.writeLong(this.blockStarts[i]);
+		this.writeLong(this.ticks);
+		this.writeLong(footer);
+		this.finished = true;
+	}
+
+	public void writeTo(OutputStream out) throws IOException {
+
+		/* Finishes the recording and writes it out. */
+
+		this.finish();
+		out.write(this.bytes, 0, this.size);
+	}
+
+	public void save(File file) throws IOException {
+
+		/* Finishes the recording and saves it to a file. */
+
+		try (OutputStream out = new FileOutputStream(file)) {
+			this.writeTo(out);
+		}
+	}
+
+	private void writeVarint(long value) {
+
+		/* Writes an unsigned number 7 bits at a time, low bits first, with the top bit set on all but the last byte. */
+
+		while ((value & ~0x7FL) != 0) {
+			this.writeByte((int) (value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		this.writeByte((int) value);
+	}
+
+	private void writeLong(long value) {
+
+		/* Writes a number as 8 bytes, high byte first (as ByteBuffer reads it). */
+
+		for (int shift = 56; shift >= 0; shift -= 8) this.writeByte((int) (value >>> shift));
+	}
+
+	private void writeInt(int value) {
+
+		/* Writes a number as 4 bytes, high byte first (as ByteBuffer reads it). */
+
+		for (int shift = 24; shift >= 0; shift -= 8) this.writeByte(value >>> shift);
+	}
+
+	private void writeByte(int b) {
+
+		/* Appends a byte, growing the buffer if it's full. */
+
+		if (this.size == this.bytes.length) this.bytes = Arrays.copyOf(this.bytes, this.size * 2);
+		this.bytes[this.size++] = (byte) b;
+	}
+
+	// Accessors //
+
+	public long getSeed() {
+
+		/* Returns the seed the game was started with. */
+
+		return this.seed;
+	}
+
+	public int getDifficulty() {
+
+		/* Returns the difficulty the game was started with. */
+
+		return this.difficulty;
+	}
+
+	public int getPlayerCount() {
+
+		/* Returns how many players the game was started with. */
+
+		return this.playerCount;
+	}
+
+	public long getTicks() {
+
+		/* Returns how many ticks have been recorded. */
+
+		return this.ticks;
+	}
+
+	public int getSize() {
+
+		/* Returns how many bytes the recording takes so far. */
+
+		return this.size;
+	}
+
+	public long getKeyframeBytes() {
+
+		/* Returns how many of those bytes are keyframes. */
+
+		return this.keyframeBytes;
+	}
+}
+
+class ReplayPlayer {
+
+	/* Plays back a file written by ReplayRecorder. The file is memory mapped, so nothing is read until it's
+	   needed and the operating system takes care of caching it; controls are decoded one tick at a time as
+	   the game asks for them. seek() jumps to any tick by loading the keyframe before it and playing on from
+	   there, which takes at most one block's worth of ticks however long the replay is. */
+
+	// Fields //
+
+	private final File source;
+	private final MappedByteBuffer file;
+	private final long footer;  // where the last block ends
+	private final long seed;
+	private final int difficulty, playerCount, keyframeTicks;
+	private final long[] blockStarts;
+	private final long ticks;
+	private final boolean[] keys = new boolean[java.awt.event.KeyEvent.KEY_LAST + 1];  // scratch for fast forwarding
+
+	// Sizes of the fixed parts of a file, for checking it's all there
+	private static final int HEADER_BYTES = ReplayRecorder.MAGIC.length + 1 + 8 + 1 + 1 + 4;
+	private static final int BLOCK_HEADER_BYTES = 8 + 4 + 4;  // tick, controls and keyframe length
+	private static final int FOOTER_BYTES = 4 + 8 + 8;  // block count, ticks and where the footer starts, without the block starts
+
+	// Where playback is
+	private int block;
+	private long tick;
+	private int input;  // controls for the tick being played
+	private long runLeft;  // ticks left before the next change
+	private int pendingDelta;  // bits that flip when the run is up
+	private boolean pendingEnd;  // whether the block ends when the run is up
+	private boolean done;
+	private boolean broken;  // whether playback stopped early because of a bad change
+
+	// Constructor //
+
+	public ReplayPlayer(File file) throws IOException {
+
+		/* Constructs and returns a new ReplayPlayer at the start of a replay file. */
+
+		this.source = file;
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			this.file = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+
+		// Header
+		long size = this.file.limit();
+		if (size < HEADER_BYTES + FOOTER_BYTES) throw notAReplay(file, "it's too short");
+		for (byte b : ReplayRecorder.MAGIC) {
+			if (this.file.get() != b) throw notAReplay(file, "it doesn't start with SCRP");
+		}
+		int version = this.file.get();
+		if (version != ReplayRecorder.VERSION) throw new IOException(file + " is a version " + version + " replay, not " + ReplayRecorder.VERSION);
+		this.seed = this.file.getLong();
+		this.difficulty = this.file.get();
+		this.playerCount = this.file.get();
+		this.keyframeTicks = this.file.getInt();
+		if (this.keyframeTicks <= 0) throw notAReplay(file, "its keyframes are " + this.keyframeTicks + " ticks apart");
+
+		// Footer, checked against the size of the file so a cut off one can't send reads past its end
+		this.footer = this.file.getLong((int) size - 8);
+		if (this.footer < HEADER_BYTES || this.footer > size - FOOTER_BYTES) throw notAReplay(file, "its footer is missing");
+		this.file.position((int) this.footer);
+		int blocks = this.file.getInt();
+		if (blocks < 1 || this.footer + FOOTER_BYTES + 8L * blocks != size) throw notAReplay(file, "it has no blocks or is cut off");
+		this.blockStarts = new long[blocks];
+		for (int i = 0; i < blocks; i++) this.blockStarts[i] = this.file.getLong();
+		this.ticks = this.file.getLong();
+
+		// Blocks, each running up to the next, with room for its header and keyframe
+		for (int i = 0; i < blocks; i++) {
+			long start = this.blockStarts[i], end = this.blockEnd(i);
+			if (start < HEADER_BYTES || start > end - BLOCK_HEADER_BYTES) throw notAReplay(file, "block " + i + " is out of place");
+			int keyframe = this.file.getInt((int) start + 12);
+			if (keyframe < 0 || keyframe > end - start - BLOCK_HEADER_BYTES) throw notAReplay(file, "block " + i + " is cut off");
+		}
+		if (this.ticks < 0) throw notAReplay(file, "it's " + this.ticks + " ticks long");
+
+		this.enterBlock(0);
+	}
+
+	private static IOException notAReplay(File file, String why) {
+
+		/* Returns the exception for a file that can't be played back, and why. */
+
+		return new IOException(file + " isn't a replay (" + why + ")");
+	}
+
+	public boolean hasNext() {
+
+		/* Returns whether there are ticks left to play. */
+
+		return !this.done && this.tick < this.ticks;
+	}
+
+	public int nextInput() {
+
+		/* Returns the controls for the next tick (as Ship.packKeys packs them), or none once the replay is over. */
+
+		if (!this.hasNext()) return 0;
+		while (this.runLeft == 0) {
+			this.applyPending();
+			if (this.done) return 0;
+			this.readChange();
+		}
+		this.runLeft--;
+		this.tick++;
+		return this.input;
+	}
+
+	public void step(World world) {
+
+		/* Steps world by one tick with the next tick's controls. */
+
+		Ship.unpackKeys(this.nextInput(), this.keys);
+		world.step(this.keys);
+	}
+
+	public void seek(World world, long target) {
+
+		/* Puts world (and playback) at a given tick: loads the keyframe before it, then plays up to it. */
+
+		target = Math.max(0, Math.min(target, this.ticks));
+		this.enterBlock((int) Math.min(target / this.keyframeTicks, this.blockStarts.length - 1));
+		world.readState(this.keyframe());
+		while (this.tick < target && this.hasNext()) this.step(world);
+	}
+
+	private void enterBlock(int block) {
+
+		/* Moves playback to the start of a block, skipping over its keyframe. Reads stop at the end of the block,
+		   so a broken one can't run on into the next. */
+
+		this.block = block;
+		this.file.limit((int) this.blockEnd(block));
+		this.file.position((int) this.blockStarts[block]);
+		this.tick = this.file.getLong();
+		this.input = this.file.getInt();
+		int length = this.file.getInt();
+		this.file.position(this.file.position() + length);
+		this.runLeft = 0;
+		this.pendingDelta = 0;
+		this.pendingEnd = false;
+		this.done = false;
+	}
+
+	private long blockEnd(int block) {
+
+		/* Returns where a block ends: where the next one starts, or the footer for the last. */
+
+		return block + 1 < this.blockStarts.length ? this.blockStarts[block + 1] : this.footer;
+	}
+
+	private ByteBuffer keyframe() {
+
+		/* Returns the keyframe of the current block, as a buffer of its own. */
+
+		int start = (int) this.blockStarts[this.block] + 16;
+		ByteBuffer keyframe = this.file.duplicate();
+		keyframe.limit(start + this.file.getInt(start - 4)).position(start);
+		return keyframe;
+	}
+
+	private void applyPending() {
+
+		/* Makes the change the last run ended with: some bits flip, or the block ends and the next one starts. */
+
+		if (this.pendingEnd) {
+			if (this.block + 1 < this.blockStarts.length) this.enterBlock(this.block + 1);
+			else this.done = true;
+			return;
+		}
+		this.input ^= this.pendingDelta;
+		this.pendingDelta = 0;
+	}
+
+	private void readChange() {
+
+		/* Reads the next change: how long the controls stay as they are, and what happens after that. A change
+		   that's cut off or couldn't have been recorded ends playback there (see isBroken) rather than carrying
+		   on with made up controls. */
+
+		try {
+			long change = this.readVarint();
+			int code = (int) (change & 15);
+			this.runLeft = change >>> 4;
+			if (change < 0) {
+				this.stop("a change runs on too long");
+			} else if (code == ReplayRecorder.END) {
+				this.pendingEnd = true;
+			} else if (code == ReplayRecorder.MULTI_BIT) {
+				long delta = this.readVarint();
+				if (delta <= 0 || delta >>> Ship.KEY_BITS != 0) this.stop("controls " + Long.toBinaryString(delta) + " don't exist");
+				else this.pendingDelta = (int) delta;
+			} else if (code < Ship.KEY_BITS) {
+				this.pendingDelta = 1 << code;
+			} else {
+				this.stop("change code " + code + " doesn't exist");
+			}
+		} catch (BufferUnderflowException e) {
+			this.stop("block " + this.block + " is cut off");
+		}
+	}
+
+	private void stop(String why) {
+
+		/* Ends playback where it is, because the replay can't be read any further. */
+
+		System.err.println(this.source + " stops at tick " + this.tick + ", since " + why);
+		this.runLeft = 0;
+		this.pendingDelta = 0;
+		this.pendingEnd = false;
+		this.done = this.broken = true;
+	}
+
+	private long readVarint() {
+
+		/* Reads a number written by ReplayRecorder.writeVarint, or returns -1 if it goes on for more bytes than any
+		   long needs. */
+
+		long value = 0;
+		for (int shift = 0; shift < 63; shift += 7) {
+			int b = this.file.get();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) return value;
+		}
+		return -1;
+	}
+
+	// Accessors //
+
+	public long getSeed() {
+
+		/* Returns the seed the game was started with. */
+
+		return this.seed;
+	}
+
+	public int getDifficulty() {
+
+		/* Returns the difficulty the game was started with. */
+
+		return this.difficulty;
+	}
+
+	public int getPlayerCount() {
+
+		/* Returns how many players the game was started with. */
+
+		return this.playerCount;
+	}
+
+	public long getTicks() {
+
+		/* Returns how many ticks the replay lasts. */
+
+		return this.ticks;
+	}
+
+	public long getTick() {
+
+		/* Returns how many ticks have been played so far. */
+
+		return this.tick;
+	}
+
+	public boolean isBroken() {
+
+		/* Returns whether playback stopped before the end because part of the replay couldn't be read. */
+
+		return this.broken;
+	}
+}
@@ -6,212 +6,119 @@
     Classes:
     - SpaceObjects  To manage the other objects (maybe)
     - Asteroid      The "enemies" of the game
+    - AsteroidStore Where the state of the Asteroids is kept, as parallel arrays
+    - AsteroidShape One of the nine shapes an Asteroid can have, shared by every Asteroid with it
+    - Palette       The colours everything is drawn in, made once and shared
     - Ship          The playable objects
     - > Bullet      The Ship's main weapon
-    - Space         The playground of the other objects
-    - > Wall        A Space component that involves barriers and interesting physics
+    - Star          A twinkly background decoration
+    - Space         The playground of the other objects, drawing the World and passing it input
 */
 
 import javax.swing.*;
 import java.awt.*;
-import javax.swing.Timer;
 import java.awt.event.*;
 import java.awt.geom.AffineTransform;
 import java.awt.image.ImageObserver;
 import java.util.*;
 import java.awt.geom.Area;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
 
 class Asteroid {
 
-	/* Template for Asteroid objects, the main antagonistic entities in the game. */
+	/* Template for Asteroid objects, the main antagonistic entities in the game.
+	   An Asteroid is a handle onto one slot of an AsteroidStore, which is where its state actually lives. */
 
 	// Fields //
 
-	private static int weight = 0, maxWeight = 30;
-	private double x, y, vx, vy, rotation, rotationVel;  // asteroid state of motion
-	private int size, rectSize, hp;
-	private int bodyType;
-	private Color bodyCol, lineCol;
+	private static GlyphAtlas hpLabels;  // made the first time an Asteroid is drawn, so headless Worlds never load the font
 
-	// Polygon points
-	private int[][][] polygonX = {
-		{
-			{10, 30, 25, 0},
-			{15, 30, 10, 0},
-			{15, 30, 0}
-		},
-		{
-			{40, 55, 80, 35, 0},
-			{0, 0, 65, 80, 45},
-			{0, 15, 50, 80, 25}
-		},
-		{
-			{65, 200, 170, 80, 0, 0},
-			{0, 0, 160, 200, 175, 120, 40},
-			{0, 0, 70, 200, 170}
-		}
-	};
-	private int[][][] polygonY = {
-		{
-			{0, 25, 30, 20},
-			{30, 30, 0, 5},
-			{0, 30, 30}
-		},
-		{
-			{0, 0, 60, 80, 50},
-			{50, 30, 0, 40, 80},
-			{45, 15, 0, 40, 80}
-		},
-		{
-			{0, 35, 170, 200, 160, 30},
-			{150, 40, 0, 130, 200, 180, 200},
-			{120, 60, 0, 20, 200}
-		}
-	};
-	private Polygon body;
-
-	// To check for activity, since Java doesn't have destructors
-	private boolean exists;
+	private AsteroidStore store;
+	private int index;  // slot in the store, -1 once removed
+	private Polygon body;  // built from the store on request, for code that wants a Shape
 
 	// Constructor //
 
 	public Asteroid(int size, double x, double y, double vx, double vy, double rotationVel) {
 
-		/* Constructs and returns a new Asteroid object. */
-
-		int[] sizes = {30, 80, 200};
-		int[] hpSizes = {3, 10, 30};
+		/* Constructs and returns a new Asteroid object, in a store of its own until it's added to a World. */
 
-		this.size = size;
-		this.x = x;
-		this.y = y;
-		this.vx = vx;
-		this.vy = vy;
-		this.rotationVel = rotationVel;
-		this.rectSize = sizes[size];
-		this.hp = hpSizes[size];
-		this.exists = true;
-		this.bodyType = (new Random()).nextInt(3);
-		this.bodyCol = new Color(100, 100, 100, 100);
-		this.lineCol = new Color(200, 200, 200, 200);
-		this.makeShape();
-
-		// Adds the weight of the new asteroid to the whole weight
-		weight += (int) Math.pow(3, this.size);
+		new AsteroidStore(1).add(this, size, x, y, vx, vy, rotationVel);
 	}
 
-	private void makeShape() {
+	Asteroid() {
 
-		/* Constructs a Polygon for the Asteroid. */
+		/* Constructs a blank handle for an AsteroidStore to bind. */
 
-		// Used to construct polygon later
-		int pointCount = polygonX[this.size][bodyType].length;
-		int[] xCoords = new int[pointCount];
-		int[] yCoords = new int[pointCount];
-
-		// Gets all points of original polygon
-		for (int i = 0; i < pointCount; i++) {
-			xCoords[i] = (int) (this.x + polygonX[this.size][this.bodyType][i]);
-			yCoords[i] = (int) (this.y + polygonY[this.size][this.bodyType][i]);
-		}
-
-		// Uses winding function to rotate all points from original polygon
-		double centerX = this.x + this.rectSize / 2, centerY = this.y + this.rectSize / 2;
-		for (int i = 0; i < pointCount; i++) {
-			double dist = Math.hypot(xCoords[i] - centerX, yCoords[i] - centerY);
-			double ang = this.rotation + Math.atan2(yCoords[i] - centerY, xCoords[i] - centerX);
-			double newX = dist * (Math.cos(ang)) + centerX;
-			double newY = dist * (Math.sin(ang)) + centerY;
-			// Reassigns new points
-			xCoords[i] = (int) newX;
-			yCoords[i] = (int) newY;
-		}
-		// Reassigns body to polygon
-		this.body = new Polygon(xCoords, yCoords, pointCount);
+		this.index = -1;
 	}
 
-	// Accessors //
-
-	public static int getWeight() {
+	void bind(AsteroidStore store, int index) {
 
-		/* Returns the current weight of all Asteroids. */
+		/* Points the handle at a slot of a store. */
 
-		return weight;
+		this.store = store;
+		this.index = index;
 	}
 
-	public static void setWeight(int newWeight) {
+	void makeShape() {
 
-		/* Changes weight value */
+		/* Constructs a Polygon for the Asteroid. */
 
-		weight = newWeight;
+		this.store.makeShape(this.index);
 	}
 
-	public static void resetWeight() {
+	// Accessors //
+
+	AsteroidStore getStore() {
 
-		/* Resets weight back to 0. */
+		/* Returns the store holding the Asteroid. */
 
-		weight = 0;
+		return this.store;
 	}
 
-	public static int getMaxWeight() {
+	int getIndex() {
 
-		/* Returns the weight limit. */
+		/* Returns the slot of the Asteroid in its store. */
 
-		return maxWeight;
+		return this.index;
 	}
 
 	public int getRectSize() {
 
-		return this.rectSize;
-	}
-
-	public static void setMaxWeight(int max) {
-
-		/* Sets the weight limit. */
-
-		maxWeight = max;
+		return this.store.getRectSize(this.index);
 	}
 
 	public void move() {
 
 		/* Moves the Asteroid depending on velocity. */
 
-//		this.vx += 0.1 - Math.random() * 0.2;
-//		this.vx *= 0.98;
-//		this.vy += 0.1 - Math.random() * 0.2;
-//		this.vy *= 0.98;
-//		if(this.vy > 2) this.vy = 2;
-//		if(this.vy < -2) this.vy = -2;
-//		if(this.vx > 2) this.vx = 2;
-//		if(this.vx < -2) this.vx = -2;
-
-		this.x += this.vx;
-		this.x = ((this.x + 1280 + 2 * this.rectSize) % (1280 + this.rectSize)) - this.rectSize;
-		this.y += this.vy;
-		this.y = ((this.y + 720 + 2 * this.rectSize) % (720 + this.rectSize)) - this.rectSize;
-		this.rotation += this.rotationVel;
-		this.makeShape();
+		this.store.move(this.index);
 	}
 
 	public void takeDmg(int damage) {
 
 		/* Reduces Asteroid health by a given amount and kills it if necessary. */
 
-		this.hp -= damage;
-		if (this.hp <= 0) this.setExists(false);
+		this.store.takeDmg(this.index, damage);
 	}
 
 	public int getHp() {
 
 		/* Returns Asteroid health. */
 
-		return this.hp;
+		return this.store.getHp(this.index);
 	}
 
 	public Polygon getShape() {
 
 		/* Returns the body of the Asteroid. */
 
+		if (this.body == null) this.body = new Polygon();
+		this.store.copyShape(this.index, this.body);
 		return this.body;
 	}
 
@@ -219,79 +126,82 @@ class Asteroid {
 
 		/* Returns the x-position of the Asteroid. */
 
-		return this.x;
+		return this.store.getX(this.index);
 	}
 
 	public double getY() {
 
 		/* Returns the y-position of the Asteroid. */
 
-		return this.y;
+		return this.store.getY(this.index);
 	}
 
 	public double getVX() {
 
 		/* Returns the x-velocity of the Asteroid. */
 
-		return this.vx;
+		return this.store.getVX(this.index);
 	}
 
 	public void setVX(double vx) {
 
 		/* Sets the x-velocity of the Asteroid to a given value. */
 
-		this.vx = vx;
+		this.store.setVX(this.index, vx);
 	}
 
 	public double getVY() {
 
 		/* Returns the y-velocity of the Asteroid. */
 
-		return this.vy;
+		return this.store.getVY(this.index);
 	}
 
 	public void setVY(double vy) {
 
 		/* Sets the y-velocity of the Asteroid to a given value. */
 
-		this.vy = vy;
+		this.store.setVY(this.index, vy);
 	}
 
 	public int getSize() {
 
 		/* Returns the size of the Asteroid. */
 
-		return this.size;
+		return this.store.getSize(this.index);
 	}
 
 	public boolean exists() {
 
 		/* Returns whether the Asteroid exists or not. */
 
-		return this.exists;
+		return this.index >= 0 && this.store.exists(this.index);
 	}
 
 	public void setExists(boolean exists) {
 
 		/* Sets the existence of the Asteroid and edits the weight if necessary. */
 
-		this.exists = exists;
-		if (!exists) {
-			weight -= (int) Math.pow(3, this.size);
-		}
+		this.store.setExists(this.index, exists);
 	}
 
 	public Asteroid[] shatter() {
 
-		/* Returns 3 new smaller asteroids in an array. */
+		/* Returns 3 new smaller asteroids in an array. They go in the same store as this one rather than stores of
+		   their own, so for an Asteroid in a World they're in the World already. */
+
+		int size = this.getSize(), rectSize = this.getRectSize();
+		double x = this.getX(), y = this.getY(), vx = this.getVX(), vy = this.getVY();
+		AsteroidStore store = this.store;
+		Random rng = store.getRandom();
 
 		if (size > 0) {  // if the asteroid is not the smallest size
 
 			// Return 3 asteroids
 			return new Asteroid[]{
-				new Asteroid(this.size - 1, this.x, this.y, vx - 1, vy - 1, 0.02 - Math.random() * 0.05),
-				new Asteroid(this.size - 1, this.x + this.rectSize / 2, this.y, vx + 1, vy - 1, 0.02 - Math.random() * 0.05),
-				new Asteroid(this.size - 1, this.x + this.rectSize / 3, this.y + this.rectSize / 2, vx + 1, vy + 1, 0.02 - Math.random() * 0.05)
+				store.add(size - 1, x, y, vx - 1, vy - 1, 0.02 - rng.nextDouble() * 0.05),
+				store.add(size - 1, x + rectSize / 2, y, vx + 1, vy - 1, 0.02 - rng.nextDouble() * 0.05),
+				store.add(size - 1, x + rectSize / 3, y + rectSize / 2, vx + 1, vy + 1, 0.02 - rng.nextDouble() * 0.05)
 			};
 		} else return new Asteroid[]{};  // asteroid is broken, no new ones to return
 	}
@@ -300,13 +210,806 @@ class Asteroid {
 
 		/* Draws the Asteroid onto a given Graphics component. */
 
-		g.setColor(this.bodyCol);
-		g.fillPolygon(this.body);
-		g.setColor(this.lineCol);
-		g.drawPolygon(this.body);
-		g.setFont(new Font("Monospaced", Font.BOLD, 15));
-		g.setColor(Color.WHITE);
-		g.drawString("" + this.hp, (int) this.x + this.rectSize / 2, (int) this.y + this.rectSize / 2);
+		this.update(g, 1);
+	}
+
+	public void update(Graphics g, double alpha) {
+
+		/* Draws the Asteroid alpha of the way from its last position to its current one. */
+
+		AsteroidStore s = this.store;
+		int i = this.index, rectSize = s.getRectSize(i);
+		int dx = GameLoop.blendOffset(s.getPrevX(i), s.getX(i), alpha), dy = GameLoop.blendOffset(s.getPrevY(i), s.getY(i), alpha);
+		Polygon body = this.getShape();
+
+		g.translate(dx, dy);
+		g.setColor(Palette.ASTEROID_BODY);
+		g.fillPolygon(body);
+		g.setColor(Palette.OUTLINE);
+		g.drawPolygon(body);
+		hpLabels().drawNumber(g, s.getHp(i), (int) s.getX(i) + rectSize / 2, (int) s.getY(i) + rectSize / 2);
+		g.translate(-dx, -dy);
+	}
+
+	public void getBounds(double alpha, Rectangle bounds) {
+
+		/* Sets bounds to the area update(g, alpha) draws over, health included. */
+
+		AsteroidStore s = this.store;
+		int i = this.index, rectSize = s.getRectSize(i);
+		int dx = GameLoop.blendOffset(s.getPrevX(i), s.getX(i), alpha), dy = GameLoop.blendOffset(s.getPrevY(i), s.getY(i), alpha);
+
+		bounds.setBounds(0, 0, -1, -1);
+		DamageMap.include(bounds, this.getShape());
+		GlyphAtlas labels = hpLabels();
+		int left = (int) s.getX(i) + rectSize / 2 - labels.getPad(), top = (int) s.getY(i) + rectSize / 2 - labels.getAscent();
+		bounds.add(left, top);
+		bounds.add(left + labels.getWidth(s.getHp(i)) + 2 * labels.getPad(), top + labels.getHeight());
+		bounds.translate(dx, dy);
+	}
+
+	private static GlyphAtlas hpLabels() {
+
+		/* Returns the font health is drawn in, making it the first time it's needed. */
+
+		if (hpLabels == null) hpLabels = new GlyphAtlas(new Font("Monospaced", Font.BOLD, 15), Color.WHITE, "0123456789");
+		return hpLabels;
+	}
+}
+
+class AsteroidStore implements Iterable<Asteroid> {
+
+	/* Holds the state of many Asteroids as parallel arrays (structure of arrays), so that moving and
+	   colliding them walks through memory in order instead of hopping between objects.
+	   Each slot also has an Asteroid handle, for code that wants to deal with one Asteroid at a time.
+	   Removing a slot moves the last one into its place, so handles can change slots but are kept up to date. */
+
+	// Fields //
+
+	static final int MAX_POINTS = 7;  // most points in any Asteroid polygon
+	static final int SLOT_STATE_BYTES = 8 * 8 + 3 * 4 + 1;  // what writeState writes for each Asteroid
+	static final int SNAPSHOT_INTS = 5;  // what writeSnapshot writes for each Asteroid
+	static final int MAX_WEIGHT = 1500;  // most that setMaxWeight allows, see there
+	private static final long UNCUT = Long.MIN_VALUE;  // never a triangulate result
+	// Asteroid state, one slot per Asteroid
+	private double[] x, y, vx, vy, rotation, rotationVel;
+	private double[] prevX, prevY;  // position last tick, for drawing between ticks
+	private int[] hp;
+	private byte[] shape;  // which AsteroidShape each slot has, from AsteroidShape.get
+	private boolean[] exists;
+	private int[] pointsX, pointsY;  // current polygon of slot i starts at i * MAX_POINTS
+	private boolean[] shapeStale;  // whether slot i has moved or turned since its polygon was last worked out
+	private boolean[] convex;  // Collider.isConvex of slot i's polygon
+	private long[] triangles;  // Collider.triangulate of slot i's polygon, or UNCUT if the polygon has changed since
+	private Asteroid[] handles;
+	private int count;
+
+	// Spare handles, so Asteroids coming and going (e.g. shattering) don't need new objects
+	private Pool<Asteroid> handlePool;
+
+	// Total weight of the Asteroids, used to limit how many there are
+	private int weight = 0, maxWeight = 30;
+
+	// Where body types and shatter spins come from. Stores owned by a World share the World's, so one seed
+	// decides everything; loose Asteroids made with new Asteroid(...) share this fallback instead, which has a
+	// fixed seed so that nothing the game does ever depends on the clock.
+	private static final long LOOSE_SEED = 0x5EED;
+	private static final Random looseRandom = new GameRandom(LOOSE_SEED);
+	private Random rng = looseRandom;
+
+	// Constructor //
+
+	public AsteroidStore(int capacity) {
+
+		/* Constructs and returns an empty AsteroidStore with room for capacity Asteroids before it needs to grow. */
+
+		this.allocate(Math.max(1, capacity));
+		this.handlePool = new Pool<>(Math.max(4, capacity * 4), Asteroid::new);
+	}
+
+	private void allocate(int capacity) {
+
+		/* Resizes all the arrays to a given capacity, keeping what's in them. */
+
+		if (this.x == null) {
+			this.x = new double[capacity];
+			this.y = new double[capacity];
+			this.vx = new double[capacity];
+			this.vy = new double[capacity];
+			this.rotation = new double[capacity];
+			this.rotationVel = new double[capacity];
+			this.prevX = new double[capacity];
+			this.prevY = new double[capacity];
+			this.hp = new int[capacity];
+			this.shape = new byte[capacity];
+			this.exists = new boolean[capacity];
+			this.pointsX = new int[capacity * MAX_POINTS];
+			this.pointsY = new int[capacity * MAX_POINTS];
+			this.shapeStale = new boolean[capacity];
+			this.convex = new boolean[capacity];
+			this.triangles = new long[capacity];
+			this.handles = new Asteroid[capacity];
+		} else {
+			this.x = Arrays.copyOf(this.x, capacity);
+			this.y = Arrays.copyOf(this.y, capacity);
+			this.vx = Arrays.copyOf(this.vx, capacity);
+			this.vy = Arrays.copyOf(this.vy, capacity);
+			this.rotation = Arrays.copyOf(this.rotation, capacity);
+			this.rotationVel = Arrays.copyOf(this.rotationVel, capacity);
+			this.prevX = Arrays.copyOf(this.prevX, capacity);
+			this.prevY = Arrays.copyOf(this.prevY, capacity);
+			this.hp = Arrays.copyOf(this.hp, capacity);
+			this.shape = Arrays.copyOf(this.shape, capacity);
+			this.exists = Arrays.copyOf(this.exists, capacity);
+			this.pointsX = Arrays.copyOf(this.pointsX, capacity * MAX_POINTS);
+			this.pointsY = Arrays.copyOf(this.pointsY, capacity * MAX_POINTS);
+			this.shapeStale = Arrays.copyOf(this.shapeStale, capacity);
+			this.convex = Arrays.copyOf(this.convex, capacity);
+			this.triangles = Arrays.copyOf(this.triangles, capacity);
+			this.handles = Arrays.copyOf(this.handles, capacity);
+		}
+	}
+
+	public Asteroid add(int size, double x, double y, double vx, double vy, double rotationVel) {
+
+		/* Adds a new Asteroid to the store and returns its handle. */
+
+		return this.add(this.handlePool.acquire(), size, x, y, vx, vy, rotationVel);
+	}
+
+	Asteroid add(Asteroid handle, int size, double x, double y, double vx, double vy, double rotationVel) {
+
+		/* Adds a new Asteroid to the store under a given handle. */
+
+		if (this.count == this.x.length) this.allocate(this.count * 2);
+		int i = this.count++;
+
+		AsteroidShape shape = AsteroidShape.get(size, this.rng.nextInt(3));
+		this.shape[i] = shape.getIndex();
+		this.x[i] = this.prevX[i] = x;
+		this.y[i] = this.prevY[i] = y;
+		this.vx[i] = vx;
+		this.vy[i] = vy;
+		this.rotation[i] = 0;
+		this.rotationVel[i] = rotationVel;
+		this.hp[i] = shape.getHp();
+		this.exists[i] = true;
+		this.handles[i] = handle;
+		handle.bind(this, i);
+		this.shapeStale[i] = true;
+
+		// Adds the weight of the new asteroid to the whole weight
+		this.weight += shape.getWeight();
+		return handle;
+	}
+
+	public void adopt(Asteroid asteroid) {
+
+		/* Moves an Asteroid out of whatever store it's in and into this one (if it isn't here already). */
+
+		AsteroidStore from = asteroid.getStore();
+		int j = asteroid.getIndex();
+		if (from == this) return;
+
+		if (this.count == this.x.length) this.allocate(this.count * 2);
+		int i = this.count++;
+		this.copySlot(from, j, i);
+		this.handles[i] = asteroid;
+		if (this.exists[i]) this.weight += this.getShape(i).getWeight();
+
+		from.detach(j);
+		asteroid.bind(this, i);
+	}
+
+	private void copySlot(AsteroidStore from, int j, int i) {
+
+		/* Copies slot j of a store into slot i of this one. */
+
+		this.x[i] = from.x[j];
+		this.y[i] = from.y[j];
+		this.vx[i] = from.vx[j];
+		this.vy[i] = from.vy[j];
+		this.rotation[i] = from.rotation[j];
+		this.rotationVel[i] = from.rotationVel[j];
+		this.prevX[i] = from.prevX[j];
+		this.prevY[i] = from.prevY[j];
+		this.hp[i] = from.hp[j];
+		this.shape[i] = from.shape[j];
+		this.exists[i] = from.exists[j];
+		System.arraycopy(from.pointsX, j * MAX_POINTS, this.pointsX, i * MAX_POINTS, MAX_POINTS);
+		System.arraycopy(from.pointsY, j * MAX_POINTS, this.pointsY, i * MAX_POINTS, MAX_POINTS);
+		this.shapeStale[i] = from.shapeStale[j];
+		this.convex[i] = from.convex[j];
+		this.triangles[i] = from.triangles[j];
+	}
+
+	public void remove(int i) {
+
+		/* Removes slot i by moving the last Asteroid into it. The removed handle goes back to the pool. */
+
+		Asteroid handle = this.handles[i];
+		this.detach(i);
+		this.handlePool.release(handle);
+	}
+
+	private void detach(int i) {
+
+		/* Removes slot i by moving the last Asteroid into it. The removed handle is left pointing nowhere. */
+
+		int last = --this.count;
+		if (this.exists[i]) this.weight -= this.getShape(i).getWeight();
+		this.handles[i].bind(null, -1);
+		if (i != last) {
+			this.copySlot(this, last, i);
+			this.handles[i] = this.handles[last];
+			this.handles[i].bind(this, i);
+		}
+		this.handles[last] = null;
+	}
+
+	public void clear() {
+
+		/* Removes every Asteroid and resets the weight. */
+
+		for (int i = 0; i < this.count; i++) {
+			this.handles[i].bind(null, -1);
+			this.handlePool.release(this.handles[i]);
+			this.handles[i] = null;
+		}
+		this.count = 0;
+		this.weight = 0;
+	}
+
+	int getStateSize() {
+
+		/* Returns how many bytes writeState will write. */
+
+		return 12 + this.count * SLOT_STATE_BYTES;
+	}
+
+	void writeState(ByteBuffer out) {
+
+		/* Writes every Asteroid (and the weights) to a buffer. Polygons are left out, since makeShape gives them back. */
+
+		out.putInt(this.count).putInt(this.weight).putInt(this.maxWeight);
+		for (int i = 0; i < this.count; i++) {
+			out.putDouble(this.x[i]).putDouble(this.y[i]).putDouble(this.vx[i]).putDouble(this.vy[i]);
+			out.putDouble(this.rotation[i]).putDouble(this.rotationVel[i]).putDouble(this.prevX[i]).putDouble(this.prevY[i]);
+			AsteroidShape shape = this.getShape(i);
+			out.putInt(shape.getSize()).putInt(this.hp[i]).putInt(shape.getBodyType());
+			out.put((byte) (this.exists[i] ? 1 : 0));
+		}
+	}
+
+	void readState(ByteBuffer in) {
+
+		/* Replaces every Asteroid with ones read from a buffer written by writeState. Handles already in use are kept. */
+
+		this.resize(in.getInt());
+		this.weight = in.getInt();
+		this.maxWeight = in.getInt();
+
+		for (int i = 0; i < count; i++) {
+			this.x[i] = in.getDouble();
+			this.y[i] = in.getDouble();
+			this.vx[i] = in.getDouble();
+			this.vy[i] = in.getDouble();
+			this.rotation[i] = in.getDouble();
+			this.rotationVel[i] = in.getDouble();
+			this.prevX[i] = in.getDouble();
+			this.prevY[i] = in.getDouble();
+			int size = in.getInt();
+			this.hp[i] = in.getInt();
+			this.shape[i] = AsteroidShape.get(size, in.getInt()).getIndex();
+			this.exists[i] = in.get() != 0;
+			this.shapeStale[i] = true;
+		}
+	}
+
+	int getSnapshotSize() {
+
+		/* Returns how many ints writeSnapshot will write. */
+
+		return 1 + this.count * SNAPSHOT_INTS;
+	}
+
+	void writeSnapshot(IntBuffer out) {
+
+		/* Writes where every Asteroid is and what it looks like to a buffer, rounded off as World.writeSnapshot does. */
+
+		out.put(this.count);
+		for (int i = 0; i < this.count; i++) {
+			out.put(World.quantise(this.x[i])).put(World.quantise(this.y[i])).put(World.quantiseAngle(this.rotation[i]));
+			AsteroidShape shape = this.getShape(i);
+			out.put(shape.getSize() | shape.getBodyType() << 2 | (this.exists[i] ? 1 << 4 : 0)).put(this.hp[i]);
+		}
+	}
+
+	void readSnapshot(IntBuffer in) {
+
+		/* Replaces every Asteroid with ones read from a buffer written by writeSnapshot, standing still. */
+
+		this.resize(in.get());
+		for (int i = 0; i < this.count; i++) {
+			this.x[i] = this.prevX[i] = World.unquantise(in.get());
+			this.y[i] = this.prevY[i] = World.unquantise(in.get());
+			this.rotation[i] = World.unquantiseAngle(in.get());
+			this.vx[i] = this.vy[i] = this.rotationVel[i] = 0;
+			int look = in.get();
+			this.shape[i] = AsteroidShape.get(look & 3, look >> 2 & 3).getIndex();
+			this.exists[i] = (look & 1 << 4) != 0;
+			this.hp[i] = in.get();
+			this.shapeStale[i] = true;
+		}
+	}
+
+	private void resize(int count) {
+
+		/* Sets how many slots are in use, handing out or taking back handles for the slots that come or go.
+		   The slots themselves are left for the caller to fill in. */
+
+		if (count > this.x.length) this.allocate(Math.max(count, this.x.length * 2));
+		for (int i = count; i < this.count; i++) {
+			this.handles[i].bind(null, -1);
+			this.handlePool.release(this.handles[i]);
+			this.handles[i] = null;
+		}
+		for (int i = this.count; i < count; i++) {
+			this.handles[i] = this.handlePool.acquire();
+			this.handles[i].bind(this, i);
+		}
+		this.count = count;
+	}
+
+	public void shatter(int i) {
+
+		/* Adds the 3 smaller asteroids that slot i breaks into (if it isn't the smallest size). */
+
+		int size = this.getSize(i);
+		if (size == 0) return;  // asteroid is broken, no new ones to add
+
+		int rectSize = this.getRectSize(i);
+		double x = this.x[i], y = this.y[i], vx = this.vx[i], vy = this.vy[i];
+		this.add(size - 1, x, y, vx - 1, vy - 1, 0.02 - this.rng.nextDouble() * 0.05);
+		this.add(size - 1, x + rectSize / 2, y, vx + 1, vy - 1, 0.02 - this.rng.nextDouble() * 0.05);
+		this.add(size - 1, x + rectSize / 3, y + rectSize / 2, vx + 1, vy + 1, 0.02 - this.rng.nextDouble() * 0.05);
+	}
+
+	public void moveAll() {
+
+		/* Moves every Asteroid depending on velocity. */
+
+		for (int i = 0; i < this.count; i++) this.move(i);
+	}
+
+	public void move(int i) {
+
+		/* Moves Asteroid i depending on velocity. */
+
+		int rectSize = this.getRectSize(i);
+		this.prevX[i] = this.x[i];
+		this.prevY[i] = this.y[i];
+		this.x[i] = ((this.x[i] + this.vx[i] + 1280 + 2 * rectSize) % (1280 + rectSize)) - rectSize;
+		this.y[i] = ((this.y[i] + this.vy[i] + 720 + 2 * rectSize) % (720 + rectSize)) - rectSize;
+		this.rotation[i] += this.rotationVel[i];
+		if (this.x[i] != this.prevX[i] || this.y[i] != this.prevY[i] || this.rotationVel[i] != 0) this.shapeStale[i] = true;
+	}
+
+	void updateShape(int i) {
+
+		/* Works out the polygon of Asteroid i again if it has moved or turned since it was last worked out.
+		   Anything reading the polygon arrays directly calls this first. Different slots can be updated on
+		   different threads at once. */
+
+		if (this.shapeStale[i]) this.makeShape(i);
+	}
+
+	void makeShape(int i) {
+
+		/* Works out the polygon of Asteroid i from its template. */
+
+		AsteroidShape shape = this.getShape(i);
+		shape.place(this.x[i], this.y[i], this.rotation[i], this.pointsX, this.pointsY, i * MAX_POINTS);
+		this.shapeStale[i] = false;
+		this.triangles[i] = UNCUT;
+	}
+
+	private void cut(int i) {
+
+		/* Works out whether the polygon of Asteroid i is convex and how it cuts into triangles, if that isn't
+		   known for the polygon it has now. Asteroids are tested against many others in a tick, so it's kept. */
+
+		if (this.triangles[i] != UNCUT) return;
+		int off = i * MAX_POINTS, n = this.getPointCount(i);
+		this.convex[i] = Collider.isConvex(this.pointsX, this.pointsY, off, n);
+		this.triangles[i] = Collider.triangulate(this.pointsX, this.pointsY, off, n);
+	}
+
+	void copyShape(int i, Polygon p) {
+
+		/* Copies the polygon of Asteroid i into a given Polygon, reusing its arrays. */
+
+		this.updateShape(i);
+		int n = this.getPointCount(i);
+		if (p.xpoints.length < MAX_POINTS) {
+			p.xpoints = new int[MAX_POINTS];
+			p.ypoints = new int[MAX_POINTS];
+		}
+		System.arraycopy(this.pointsX, i * MAX_POINTS, p.xpoints, 0, n);
+		System.arraycopy(this.pointsY, i * MAX_POINTS, p.ypoints, 0, n);
+		p.npoints = n;
+		p.invalidate();
+	}
+
+	public void takeDmg(int i, int damage) {
+
+		/* Reduces the health of Asteroid i by a given amount and kills it if necessary. */
+
+		this.hp[i] -= damage;
+		if (this.hp[i] <= 0) this.setExists(i, false);
+	}
+
+	// Accessors //
+
+	public int size() {
+
+		/* Returns the number of Asteroids in the store. */
+
+		return this.count;
+	}
+
+	public Asteroid get(int i) {
+
+		/* Returns the handle of Asteroid i. */
+
+		return this.handles[i];
+	}
+
+	@Override
+	public Iterator<Asteroid> iterator() {
+
+		/* Returns an Iterator over the handles of all the Asteroids. */
+
+		return Arrays.asList(this.handles).subList(0, this.count).iterator();
+	}
+
+	public Pool<Asteroid> getHandlePool() {
+
+		/* Returns the pool of spare Asteroid handles. */
+
+		return this.handlePool;
+	}
+
+	public int getWeight() {
+
+		/* Returns the current weight of all Asteroids. */
+
+		return this.weight;
+	}
+
+	public int getMaxWeight() {
+
+		/* Returns the weight limit. */
+
+		return this.maxWeight;
+	}
+
+	public void setMaxWeight(int max) {
+
+		/* Sets the weight limit, up to MAX_WEIGHT. Colliding Asteroids costs more the more of them share the
+		   1280 x 720 field, and a field of only the smallest ones (weight 1 each) takes about 9 ms a tick at
+		   weight 3000 on one core, against World.TICK_MILLIS of 10. Half of that leaves room for everything else. */
+
+		this.maxWeight = Math.min(max, MAX_WEIGHT);
+	}
+
+	public Random getRandom() {
+
+		/* Returns where the store gets its random numbers. */
+
+		return this.rng;
+	}
+
+	public void setRandom(Random rng) {
+
+		/* Sets where the store gets its random numbers (body types and shattering). */
+
+		this.rng = rng;
+	}
+
+	public int[] getPointsX() {
+
+		/* Returns the x-coordinates of every polygon, with slot i starting at i * MAX_POINTS. Slot i is only
+		   up to date after updateShape(i). */
+
+		return this.pointsX;
+	}
+
+	public int[] getPointsY() {
+
+		/* Returns the y-coordinates of every polygon, with slot i starting at i * MAX_POINTS. Slot i is only
+		   up to date after updateShape(i). */
+
+		return this.pointsY;
+	}
+
+	boolean isConvex(int i) {
+
+		/* Returns whether the polygon of Asteroid i is convex. Call updateShape first. */
+
+		this.cut(i);
+		return this.convex[i];
+	}
+
+	long getTriangles(int i) {
+
+		/* Returns the polygon of Asteroid i cut into triangles, as Collider.triangulate packs them. Call updateShape first. */
+
+		this.cut(i);
+		return this.triangles[i];
+	}
+
+	public int getPointCount(int i) {
+
+		/* Returns the number of points in the polygon of Asteroid i. */
+
+		return this.getShape(i).getPointCount();
+	}
+
+	public double getX(int i) {
+
+		return this.x[i];
+	}
+
+	public double getY(int i) {
+
+		return this.y[i];
+	}
+
+	public double getPrevX(int i) {
+
+		return this.prevX[i];
+	}
+
+	public double getPrevY(int i) {
+
+		return this.prevY[i];
+	}
+
+	public double getVX(int i) {
+
+		return this.vx[i];
+	}
+
+	public void setVX(int i, double vx) {
+
+		this.vx[i] = vx;
+	}
+
+	public double getVY(int i) {
+
+		return this.vy[i];
+	}
+
+	public void setVY(int i, double vy) {
+
+		this.vy[i] = vy;
+	}
+
+	public AsteroidShape getShape(int i) {
+
+		/* Returns the shape of Asteroid i. */
+
+		return AsteroidShape.get(this.shape[i]);
+	}
+
+	public int getSize(int i) {
+
+		return this.getShape(i).getSize();
+	}
+
+	public int getRectSize(int i) {
+
+		return this.getShape(i).getRectSize();
+	}
+
+	public int getHp(int i) {
+
+		return this.hp[i];
+	}
+
+	public boolean exists(int i) {
+
+		return this.exists[i];
+	}
+
+	public void setExists(int i, boolean exists) {
+
+		/* Sets the existence of Asteroid i and edits the weight if necessary. */
+
+		this.exists[i] = exists;
+		if (!exists) {
+			this.weight -= this.getShape(i).getWeight();
+		}
+	}
+}
+
+final class AsteroidShape {
+
+	/* The outline, size and starting health an Asteroid is made with. There are only nine of these (three
+	   sizes, three body types each), made once and never changed, so every Asteroid just keeps the index of
+	   its shape rather than any of this itself. */
+
+	// Fields //
+
+	private static final int[] sizes = {30, 80, 200};
+	private static final int[] hpSizes = {3, 10, 30};
+
+	// Polygon points
+	private static final int[][][] polygonX = {
+		{
+			{10, 30, 25, 0},
+			{15, 30, 10, 0},
+			{15, 30, 0}
+		},
+		{
+			{40, 55, 80, 35, 0},
+			{0, 0, 65, 80, 45},
+			{0, 15, 50, 80, 25}
+		},
+		{
+			{65, 200, 170, 80, 0, 0},
+			{0, 0, 160, 200, 175, 120, 40},
+			{0, 0, 70, 200, 170}
+		}
+	};
+	private static final int[][][] polygonY = {
+		{
+			{0, 25, 30, 20},
+			{30, 30, 0, 5},
+			{0, 30, 30}
+		},
+		{
+			{0, 0, 60, 80, 50},
+			{50, 30, 0, 40, 80},
+			{45, 15, 0, 40, 80}
+		},
+		{
+			{0, 35, 170, 200, 160, 30},
+			{150, 40, 0, 130, 200, 180, 200},
+			{120, 60, 0, 20, 200}
+		}
+	};
+
+	private static final AsteroidShape[] shapes = new AsteroidShape[9];
+	static {
+		for (int size = 0; size < 3; size++) {
+			for (int type = 0; type < 3; type++) shapes[size * 3 + type] = new AsteroidShape(size, type);
+		}
+	}
+
+	private final int size, bodyType, rectSize, hp, weight;
+	private final byte index;
+
+	// The points folded into offsets from the centre, so rotating only needs one sin/cos pair
+	private final double[] offsetX, offsetY;
+
+	// Constructor //
+
+	private AsteroidShape(int size, int bodyType) {
+
+		/* Constructs and returns one of the nine shapes. */
+
+		this.size = size;
+		this.bodyType = bodyType;
+		this.index = (byte) (size * 3 + bodyType);
+		this.rectSize = sizes[size];
+		this.hp = hpSizes[size];
+		this.weight = (int) Math.pow(3, size);
+
+		int pointCount = polygonX[size][bodyType].length;
+		this.offsetX = new double[pointCount];
+		this.offsetY = new double[pointCount];
+		for (int i = 0; i < pointCount; i++) {
+			this.offsetX[i] = polygonX[size][bodyType][i] - this.rectSize / 2;
+			this.offsetY[i] = polygonY[size][bodyType][i] - this.rectSize / 2;
+		}
+	}
+
+	public static AsteroidShape get(int size, int bodyType) {
+
+		/* Returns the shape with a given size and body type. */
+
+		return shapes[size * 3 + bodyType];
+	}
+
+	static AsteroidShape get(byte index) {
+
+		/* Returns the shape with a given index. */
+
+		return shapes[index];
+	}
+
+	void place(double x, double y, double rotation, int[] pointsX, int[] pointsY, int base) {
+
+		/* Works out the polygon of an Asteroid at (x, y) turned by rotation, writing it into two arrays from base on. */
+
+		// Rotates the offsets around the centre
+		double centerX = x + this.rectSize / 2, centerY = y + this.rectSize / 2;
+		double cos = Math.cos(rotation), sin = Math.sin(rotation);
+		for (int k = 0; k < this.offsetX.length; k++) {
+			pointsX[base + k] = (int) (centerX + this.offsetX[k] * cos - this.offsetY[k] * sin);
+			pointsY[base + k] = (int) (centerY + this.offsetX[k] * sin + this.offsetY[k] * cos);
+		}
+	}
+
+	// Accessors //
+
+	byte getIndex() {
+
+		return this.index;
+	}
+
+	public int getSize() {
+
+		return this.size;
+	}
+
+	public int getBodyType() {
+
+		return this.bodyType;
+	}
+
+	public int getRectSize() {
+
+		return this.rectSize;
+	}
+
+	public int getHp() {
+
+		return this.hp;
+	}
+
+	public int getWeight() {
+
+		/* Returns how much an Asteroid of this shape counts towards the weight limit. */
+
+		return this.weight;
+	}
+
+	public int getPointCount() {
+
+		return this.offsetX.length;
+	}
+}
+
+final class Palette {
+
+	/* Every colour the game draws with, made once. Nothing should need to make a Color while drawing. */
+
+	static final Color ASTEROID_BODY = new Color(100, 100, 100, 100);
+	static final Color OUTLINE = new Color(200, 200, 200, 200);
+	static final Color[] SHIP_BODIES = {new Color(0, 255, 0, 100), new Color(0, 0, 255, 100)};  // by Ship ID
+	static final Color FLAME = new Color(255, 0, 0, 200);
+	static final Color BULLET_BODY = new Color(255, 0, 0, 100);
+
+	// Every shade of grey, for the Stars
+	private static final Color[] greys = new Color[256];
+	static {
+		for (int i = 0; i < 256; i++) greys[i] = new Color(i, i, i);
+	}
+
+	private Palette() {
+
+		/* Not to be made; everything here is static. */
+
+	}
+
+	static Color grey(int level) {
+
+		/* Returns the grey with a given level (0 to 255). */
+
+		return greys[level];
 	}
 }
 
@@ -317,49 +1020,159 @@ class Ship {
 	// Fields //
 
 	private static int count = 0;  // to count active Ships
+	static final int STATE_BYTES = 4 + 11 * 8 + 2 * 4 + 2;  // what writeState writes
+	static final int SNAPSHOT_INTS = 6;  // what writeSnapshot writes
 
 	// Controls
 	private static int controls[][] = {
 		{KeyEvent.VK_UP, KeyEvent.VK_RIGHT, KeyEvent.VK_DOWN, KeyEvent.VK_LEFT, KeyEvent.VK_SPACE},
 		{KeyEvent.VK_W, KeyEvent.VK_D, KeyEvent.VK_S, KeyEvent.VK_A, KeyEvent.VK_R}
 	};
+	static final int KEY_BITS = 5 * 2;  // bits packKeys sets, 5 for each Ship's controls
 	// Name vars for direction
 	private static int FORWARD = 0, RIGHT = 1, BACK = 2, LEFT = 3, SHOOT = 4;
 	private double x, y, vx = 0, vy = 0, angle, accel, drag, turnSpeed, flameDir;  // state of motion
+	private double prevX, prevY;  // position last tick, for drawing between ticks
 	private int ID;  // ID used for identification
 	private int shootingCooldown = 0;
 	private boolean isAccelerating;
-	private Polygon body, fireBody;
-	private int[] polygonX = {10, 20, 0};
-	private int[] polygonY = {0, 30, 30};
+	private final Polygon body = new Polygon(), fireBody = new Polygon();  // empty until first used
+	private boolean bodyStale, fireStale;  // whether body or fireBody needs working out again before it's used
+	private static final int[] polygonX = {10, 20, 0};
+	private static final int[] polygonY = {0, 30, 30};
 	private int[] fireX = {10, 20, 0};
 	private int[] fireY = {50, 30, 30};
 	private final int width = 20, height = 30;
-	private Image fireImage = new ImageIcon("Images/Sprite_ShipFire.png").getImage().getScaledInstance(width, height * 3 / 5, Image.SCALE_DEFAULT);
-	private Image image;
+
+	private Icon fireImage = Assets.icon("Sprite_ShipFire.png", width, height * 3 / 5);
+	private Icon image;
 	private boolean exists;
-	private Color bodyCol, lineCol, fireCol;
+	private Color bodyCol;  // from the Palette, by ID
 
 	public Ship(double x, double y, double accel, double drag, double turnSpeed) {
 
-		/* Constructs and returns a new Ship object. */
+		/* Constructs and returns a new Ship object, taking the next free ID. */
+
+		this(count, x, y, accel, drag, turnSpeed);
+	}
+
+	public Ship(int ID, double x, double y, double accel, double drag, double turnSpeed) {
 
-		this.ID = count++;
+		/* Constructs and returns a new Ship object with a given ID (which picks its controls and colour). */
+
+		count++;
+		this.ID = ID;
 		this.x = x;
 		this.y = y;
+		this.prevX = x;
+		this.prevY = y;
 		this.accel = accel;
 		this.drag = drag;
 		this.turnSpeed = turnSpeed;
 		this.exists = true;
-		this.image = new ImageIcon(String.format("Images/Sprite_ShipSimple%d.png", this.ID + 1)).getImage().getScaledInstance(width, height, Image.SCALE_DEFAULT);
-		Color[] colors = {new Color(0, 255, 0, 100), new Color(0, 0, 255, 100)};
-		this.bodyCol = colors[ID];
-		this.lineCol = new Color(200, 200, 200, 200);
-		this.fireCol = new Color(255, 0, 0, 200);
+		this.image = Assets.icon(String.format("Sprite_ShipSimple%d.png", this.ID + 1), width, height);
+		this.bodyCol = Palette.SHIP_BODIES[ID];
 		this.flameDir = 1;
 		this.makeShape();
 	}
 
+	void writeState(ByteBuffer out) {
+
+		/* Writes everything about the Ship that can change (and what it was made with) to a buffer. */
+
+		out.putInt(this.ID);
+		out.putDouble(this.accel).putDouble(this.drag).putDouble(this.turnSpeed);
+		out.putDouble(this.x).putDouble(this.y).putDouble(this.vx).putDouble(this.vy).putDouble(this.angle);
+		out.putDouble(this.flameDir).putDouble(this.prevX).putDouble(this.prevY);
+		out.putInt(this.shootingCooldown).putInt(this.fireY[0]);
+		out.put((byte) (this.isAccelerating ? 1 : 0)).put((byte) (this.exists ? 1 : 0));
+	}
+
+	static Ship readState(ByteBuffer in, Ship reuse) {
+
+		/* Returns a Ship read from a buffer written by writeState, reusing a given Ship if it has the same ID. */
+
+		int ID = in.getInt();
+		double accel = in.getDouble(), drag = in.getDouble(), turnSpeed = in.getDouble();
+		Ship ship = reuse != null && reuse.ID == ID ? reuse : new Ship(ID, 0, 0, accel, drag, turnSpeed);
+		ship.accel = accel;
+		ship.drag = drag;
+		ship.turnSpeed = turnSpeed;
+		ship.x = in.getDouble();
+		ship.y = in.getDouble();
+		ship.vx = in.getDouble();
+		ship.vy = in.getDouble();
+		ship.angle = in.getDouble();
+		ship.flameDir = in.getDouble();
+		ship.prevX = in.getDouble();
+		ship.prevY = in.getDouble();
+		ship.shootingCooldown = in.getInt();
+		ship.fireY[0] = in.getInt();
+		ship.isAccelerating = in.get() != 0;
+
+		// Keep the count of active Ships right if this one has come back to life or died
+		boolean exists = in.get() != 0;
+		if (exists != ship.exists) count += exists ? 1 : -1;
+		ship.exists = exists;
+
+		ship.makeShape();
+		return ship;
+	}
+
+	void writeSnapshot(IntBuffer out) {
+
+		/* Writes where the Ship is and what it looks like to a buffer, rounded off as World.writeSnapshot does. */
+
+		out.put(this.ID).put(World.quantise(this.x)).put(World.quantise(this.y)).put(World.quantiseAngle(this.angle));
+		out.put(this.fireY[0]).put((this.isAccelerating ? 1 : 0) | (this.exists ? 2 : 0));
+	}
+
+	static Ship readSnapshot(IntBuffer in, Ship reuse) {
+
+		/* Returns a Ship read from a buffer written by writeSnapshot, standing still, reusing a given Ship if it has the same ID. */
+
+		int ID = in.get();
+		Ship ship = reuse != null && reuse.ID == ID ? reuse : new Ship(ID, 0, 0, 0, 0, 0);
+		ship.x = ship.prevX = World.unquantise(in.get());
+		ship.y = ship.prevY = World.unquantise(in.get());
+		ship.angle = World.unquantiseAngle(in.get());
+		ship.vx = ship.vy = 0;
+		ship.fireY[0] = in.get();
+		int flags = in.get();
+		ship.isAccelerating = (flags & 1) != 0;
+
+		boolean exists = (flags & 2) != 0;
+		if (exists != ship.exists) count += exists ? 1 : -1;
+		ship.exists = exists;
+
+		ship.makeShape();
+		return ship;
+	}
+
+	public static int packKeys(boolean[] keys) {
+
+		/* Returns the state of every Ship's controls as bits, 5 per Ship (forward, right, back, left, shoot). */
+
+		int packed = 0;
+		for (int ship = 0; ship < controls.length; ship++) {
+			for (int k = 0; k < controls[ship].length; k++) {
+				if (keys[controls[ship][k]]) packed |= 1 << (ship * 5 + k);
+			}
+		}
+		return packed;
+	}
+
+	public static void unpackKeys(int packed, boolean[] keys) {
+
+		/* Sets the control keys of every Ship in keys from bits made by packKeys. Other keys are left alone. */
+
+		for (int ship = 0; ship < controls.length; ship++) {
+			for (int k = 0; k < controls[ship].length; k++) {
+				keys[controls[ship][k]] = (packed & 1 << (ship * 5 + k)) != 0;
+			}
+		}
+	}
+
 	public static int getCount() {
 
 		/* Returns the number of active Ships. */
@@ -367,71 +1180,64 @@ class Ship {
 		return count;
 	}
 
-	private void makeShape() {
+	void makeShape() {
 
-		/* Constructs a Polygon for the Ship. */
+		/* Marks the hull and flame as out of date, so they're worked out again (in place) when next used. */
 
-		// Used to construct polygon later
-		int pointCount = 3;
-		int[] xCoords = new int[pointCount];
-		int[] yCoords = new int[pointCount];
+		this.bodyStale = true;
+		this.fireStale = true;
+	}
 
-		// Makes original polygon without rotation
-		for (int i = 0; i < pointCount; i++) {
-			xCoords[i] = (int) (this.x + polygonX[i]);
-			yCoords[i] = (int) (this.y + polygonY[i]);
-		}
+	private void rotateInto(Polygon p, int[] pointsX, int[] pointsY) {
+
+		/* Works out a polygon from points on the unturned Ship, turned around its centre by its angle. */
 
-		// Uses winding function to rotate all points from original polygon
 		double centerX = this.x + this.width / 2, centerY = this.y + this.height / 2;
-		for (int i = 0; i < pointCount; i++) {
-			double dist = Math.hypot(xCoords[i] - centerX, yCoords[i] - centerY);
-			double ang = this.angle + Math.atan2(yCoords[i] - centerY, xCoords[i] - centerX);
-			double newX = dist * (Math.cos(ang)) + centerX;
-			double newY = dist * (Math.sin(ang)) + centerY;
-			// Reassigns new points
-			xCoords[i] = (int) newX;
-			yCoords[i] = (int) newY;
+		double cos = Math.cos(this.angle), sin = Math.sin(this.angle);
+		p.npoints = pointsX.length;  // a new Polygon has room for 4
+		for (int i = 0; i < p.npoints; i++) {
+			double offX = pointsX[i] - this.width / 2, offY = pointsY[i] - this.height / 2;
+			p.xpoints[i] = (int) (centerX + offX * cos - offY * sin);
+			p.ypoints[i] = (int) (centerY + offX * sin + offY * cos);
 		}
+		p.invalidate();
+	}
 
-		int[] fxCoords = new int[pointCount];
-		int[] fyCoords = new int[pointCount];
+	public Polygon getShape() {
 
-		// Makes original polygon without rotation
-		for (int i = 0; i < pointCount; i++) {
-			fxCoords[i] = (int) (this.x + fireX[i]);
-			fyCoords[i] = (int) (this.y + fireY[i]);
-		}
+		/* Returns the Polygon of the Ship, working it out first if the Ship has moved or turned. Collision code
+		   relies on this being called once on the game thread before any parallel work reads it. */
 
-		// Uses winding function to rotate all points from original polygon
-		double fcenterX = this.x + this.width / 2, fcenterY = this.y + this.height / 2;
-		for (int i = 0; i < pointCount; i++) {
-			double dist = Math.hypot(fxCoords[i] - fcenterX, fyCoords[i] - fcenterY);
-			double ang = this.angle + Math.atan2(fyCoords[i] - fcenterY, fxCoords[i] - fcenterX);
-			double newX = dist * (Math.cos(ang)) + fcenterX;
-			double newY = dist * (Math.sin(ang)) + fcenterY;
-			// Reassigns new points
-			fxCoords[i] = (int) newX;
-			fyCoords[i] = (int) newY;
+		if (this.bodyStale) {
+			this.rotateInto(this.body, polygonX, polygonY);
+			this.bodyStale = false;
 		}
-		// Reassigns body
-		this.body = new Polygon(xCoords, yCoords, pointCount);
-		this.fireBody = new Polygon(fxCoords, fyCoords, pointCount);
-
+		return this.body;
 	}
 
-	public Polygon getShape() {
+	Polygon getFireShape() {
 
-		/* Returns the Polygon of the Ship. */
+		/* Returns the Polygon of the Ship's flame, working it out first if it has changed. Only drawing needs it. */
 
-		return this.body;
+		if (this.fireStale) {
+			this.rotateInto(this.fireBody, this.fireX, this.fireY);
+			this.fireStale = false;
+		}
+		return this.fireBody;
 	}
 
 	public Bullet shoot(boolean[] keys) {
+		return this.shoot(keys, null);
+	}
+
+	public Bullet shoot(boolean[] keys, Pool<Bullet> pool) {
+
+		/* Fires a Bullet (taken from a pool if one is given) if the shoot key is down and the Ship has cooled down. */
+
 		this.shootingCooldown--;
 		if (keys[controls[this.ID][SHOOT]] && this.shootingCooldown < 0) {
 			this.shootingCooldown = 15;
-			return this.fire();
+			return pool == null ? this.fire() : this.fire(pool);
 		} else {
 			return null;
 		}
@@ -444,6 +1250,15 @@ class Ship {
 		return new Bullet(this.x + this.width / 2, this.y + this.height / 2, this.angle - 1.57, 14, 3);
 	}
 
+	public Bullet fire(Pool<Bullet> pool) {
+
+		/* Returns a Bullet taken from a pool, set up as if it were just fired. */
+
+		Bullet bullet = pool.acquire();
+		bullet.reset(this.x + this.width / 2, this.y + this.height / 2, this.angle - 1.57, 14, 3);
+		return bullet;
+	}
+
 	public double getVX() {
 
 		/* Returns the x-velocity of the Ship. */
@@ -499,12 +1314,15 @@ class Ship {
 
 			if (this.fireY[0] == 70 || this.fireY[0] == 40) this.flameDir *= -1;
 			this.fireY[0] += this.flameDir;
+			this.fireStale = true;
 		}
 		if (keys[controls[this.ID][RIGHT]]) {  // turning right
 			this.angle += this.turnSpeed;
+			this.makeShape();
 		}
 		if (keys[controls[this.ID][LEFT]]) {  // turning left
 			this.angle -= this.turnSpeed;
+			this.makeShape();
 		}
 
 		// Slowing ship down by a factor gives ship a max speed
@@ -517,19 +1335,32 @@ class Ship {
 
 		/* Moves the Ship. */
 
+		this.prevX = this.x;
+		this.prevY = this.y;
+
 		// Allow screen wrapping with modular operator
 		this.x += this.vx + 1280;
 		this.x %= 1280;
 		this.y += this.vy + 720;
 		this.y %= 720;
 
-		this.makeShape();
+		if (this.x != this.prevX || this.y != this.prevY) this.makeShape();
 	}
 
 	public void update(Graphics g, ImageObserver observer) {
 
 		/* Draws the Ship onto a given Graphics component. */
 
+		this.update(g, observer, 1);
+	}
+
+	public void update(Graphics g, ImageObserver observer, double alpha) {
+
+		/* Draws the Ship alpha of the way from its last position to its current one. */
+
+		int dx = GameLoop.blendOffset(this.prevX, this.x, alpha), dy = GameLoop.blendOffset(this.prevY, this.y, alpha);
+		g.translate(dx, dy);
+
 		// Using AffineTransform to rotate images
 //		Graphics2D g2D = (Graphics2D) g;
 //		AffineTransform saveXform = g2D.getTransform();
@@ -537,38 +1368,55 @@ class Ship {
 //		at.rotate(this.angle, this.x + this.width / 2, this.y + this.height / 2);
 //		g2D.transform(at);
 //
-//		g2D.drawImage(this.image, (int) this.x, (int) this.y, observer);
+//		this.image.paintIcon(null, g2D, (int) this.x, (int) this.y);
 //		if (this.isAccelerating) {
-//			g2D.drawImage(this.fireImage, (int) this.x, (int) this.y + this.height, observer);
+//			this.fireImage.paintIcon(null, g2D, (int) this.x, (int) this.y + this.height);
 //		}
 //		g2D.setTransform(saveXform);
 
+		Polygon body = this.getShape();
 		g.setColor(this.bodyCol);
-		g.fillPolygon(this.body);
-		g.setColor(this.lineCol);
-		g.drawPolygon(this.body);
+		g.fillPolygon(body);
+		g.setColor(Palette.OUTLINE);
+		g.drawPolygon(body);
 
 		if (isAccelerating) {
-			g.setColor(this.fireCol);
-			g.fillPolygon(this.fireBody);
-			g.setColor(this.lineCol);
-			g.drawPolygon(this.fireBody);
+			Polygon fireBody = this.getFireShape();
+			g.setColor(Palette.FLAME);
+			g.fillPolygon(fireBody);
+			g.setColor(Palette.OUTLINE);
+			g.drawPolygon(fireBody);
 		}
+		g.translate(-dx, -dy);
+	}
+
+	public void getBounds(double alpha, Rectangle bounds) {
+
+		/* Sets bounds to the area update(g, observer, alpha) draws over, flame included. */
+
+		bounds.setBounds(0, 0, -1, -1);
+		DamageMap.include(bounds, this.getShape());
+		if (isAccelerating) DamageMap.include(bounds, this.getFireShape());
+		bounds.translate(GameLoop.blendOffset(this.prevX, this.x, alpha), GameLoop.blendOffset(this.prevY, this.y, alpha));
 	}
 
 
-	public class Bullet {
+	public static class Bullet {
 
-		/* Template for Bullet objects, the primary offensive projectile of the game. */
+		/* Template for Bullet objects, the primary offensive projectile of the game.
+		   Bullets can be reused through a Pool: once one stops existing it can be reset and fired again. */
 
 		// Fields //
 
 		private double x, y, vx, vy;
+		private double prevX, prevY;  // position last tick, for drawing between ticks
 		private boolean exists;
-		private Polygon hitbox;
+		private final Polygon hitbox = new Polygon();  // has room for the 4 corners, filled in when first used
+		private boolean hitboxStale;  // whether the hitbox needs working out again before it's used
 		private int radius = 3;
 		private int damage, durability;
-		private Color bodyCol, lineCol;
+		static final int STATE_BYTES = 6 * 8 + 2 * 4 + 1;  // what writeState writes
+		static final int SNAPSHOT_INTS = 3;  // what writeSnapshot writes
 
 		// Constructor //
 
@@ -576,36 +1424,146 @@ class Ship {
 
 			/* Constructs and returns a new Bullet object. */
 
+			this.reset(x, y, angle, speed, damage);
+		}
+
+		Bullet() {
+
+			/* Constructs a spare Bullet for a Pool, which doesn't exist until it's reset. */
+
+		}
+
+		void reset(double x, double y, double angle, double speed, int damage) {
+
+			/* Sets the Bullet up as if it were just fired. */
+
 			this.x = x;
 			this.y = y;
+			this.prevX = x;
+			this.prevY = y;
 			this.vx = speed * Math.cos(angle);
 			this.vy = speed * Math.sin(angle);
 			this.exists = true;
 			this.damage = damage;
 			this.durability = 2;
-			this.bodyCol = new Color(255, 0, 0, 100);
-			this.lineCol = new Color(200, 200, 200, 200);
+			this.makeShape();
+		}
+
+		void writeState(ByteBuffer out) {
+
+			/* Writes everything about the Bullet that can change to a buffer. */
+
+			out.putDouble(this.x).putDouble(this.y).putDouble(this.vx).putDouble(this.vy).putDouble(this.prevX).putDouble(this.prevY);
+			out.putInt(this.damage).putInt(this.durability);
+			out.put((byte) (this.exists ? 1 : 0));
+		}
+
+		void readState(ByteBuffer in) {
+
+			/* Sets the Bullet from a buffer written by writeState. */
+
+			this.x = in.getDouble();
+			this.y = in.getDouble();
+			this.vx = in.getDouble();
+			this.vy = in.getDouble();
+			this.prevX = in.getDouble();
+			this.prevY = in.getDouble();
+			this.damage = in.getInt();
+			this.durability = in.getInt();
+			this.exists = in.get() != 0;
+			this.makeShape();
+		}
+
+		void writeSnapshot(IntBuffer out) {
+
+			/* Writes where the Bullet is to a buffer, rounded off as World.writeSnapshot does. */
+
+			out.put(World.quantise(this.x)).put(World.quantise(this.y)).put(this.exists ? 1 : 0);
+		}
+
+		void readSnapshot(IntBuffer in) {
+
+			/* Sets the Bullet from a buffer written by writeSnapshot, standing still. */
+
+			this.x = this.prevX = World.unquantise(in.get());
+			this.y = this.prevY = World.unquantise(in.get());
+			this.vx = this.vy = 0;
+			this.exists = in.get() != 0;
 			this.makeShape();
 		}
 
 		public void makeShape() {
 
-			/* Constructs the Bullet hitbox Rectangle. */
+			/* Marks the hitbox as out of date, so it's worked out again (in place) when next used. */
+
+			this.hitboxStale = true;
+		}
 
-			int[] xCoords = {(int) this.x, (int) this.x + this.radius * 2, (int) this.x + this.radius * 2, (int) this.x};
-			int[] yCoords = {(int) this.y, (int) this.y, (int) this.y + this.radius * 2, (int) this.y + this.radius * 2};
-			this.hitbox = new Polygon(xCoords, yCoords, 4);
+		private void updateHitbox() {
+
+			/* Works out the Bullet hitbox square in place. */
+
+			int left = (int) this.x, top = (int) this.y, right = left + this.radius * 2, bottom = top + this.radius * 2;
+			int[] xCoords = this.hitbox.xpoints, yCoords = this.hitbox.ypoints;
+			xCoords[0] = left;
+			xCoords[1] = right;
+			xCoords[2] = right;
+			xCoords[3] = left;
+			yCoords[0] = top;
+			yCoords[1] = top;
+			yCoords[2] = bottom;
+			yCoords[3] = bottom;
+			this.hitbox.npoints = 4;
+			this.hitbox.invalidate();
+			this.hitboxStale = false;
 		}
 
 		// Accessors //
 
 		public Polygon getShape() {
 
-			/* Returns the Bullet hitbox. */
+			/* Returns the Bullet hitbox, working it out first if the Bullet has moved. Collisions use the path the
+			   Bullet took instead (see World.Physics.sweep), so only spawning checks this. */
 
+			if (this.hitboxStale) this.updateHitbox();
 			return this.hitbox;
 		}
 
+		public double getX() {
+
+			/* Returns the x-position of the Bullet. */
+
+			return this.x;
+		}
+
+		public double getY() {
+
+			/* Returns the y-position of the Bullet. */
+
+			return this.y;
+		}
+
+		public double getPrevX() {
+
+			/* Returns where the Bullet was at the start of its last move. */
+
+			return this.prevX;
+		}
+
+		public double getPrevY() {
+
+			/* Returns the y-position the Bullet had at the start of its last move. */
+
+			return this.prevY;
+		}
+
+		public int getRadius() {
+
+			/* Returns the radius of the Bullet. */
+
+			return this.radius;
+		}
+
 		public int getDamage() {
 
 			/* Returns the Bullet's damage potential. */
@@ -667,77 +1625,131 @@ class Ship {
 
 			/* Moves the Bullet. */
 
+			this.prevX = this.x;
+			this.prevY = this.y;
 			this.x += this.vx;
 			this.y += this.vy;
-
-			// Set rotation
-			this.makeShape();
+			if ((int) this.x != (int) this.prevX || (int) this.y != (int) this.prevY) this.makeShape();
 		}
 
 		public void update(Graphics g) {
 
 			/* Draws The Bullet onto a Graphics component.*/
 
-			g.setColor(this.bodyCol);
-			g.drawOval((int) this.x, (int) this.y, this.radius * 2, this.radius * 2);
-			g.setColor(this.lineCol);
-			g.fillOval((int) this.x, (int) this.y, this.radius * 2, this.radius * 2);
+			this.update(g, 1);
+		}
+
+		public void update(Graphics g, double alpha) {
+
+			/* Draws the Bullet alpha of the way from its last position to its current one. */
+
+			int drawX = (int) this.x + GameLoop.blendOffset(this.prevX, this.x, alpha);
+			int drawY = (int) this.y + GameLoop.blendOffset(this.prevY, this.y, alpha);
+			g.setColor(Palette.BULLET_BODY);
+			g.drawOval(drawX, drawY, this.radius * 2, this.radius * 2);
+			g.setColor(Palette.OUTLINE);
+			g.fillOval(drawX, drawY, this.radius * 2, this.radius * 2);
+		}
+
+		public void getBounds(double alpha, Rectangle bounds) {
+
+			/* Sets bounds to the area update(g, alpha) draws over. */
+
+			int drawX = (int) this.x + GameLoop.blendOffset(this.prevX, this.x, alpha);
+			int drawY = (int) this.y + GameLoop.blendOffset(this.prevY, this.y, alpha);
+			bounds.setBounds(drawX, drawY, this.radius * 2 + 1, this.radius * 2 + 1);  // an outline takes in its far edge
 		}
 	}
 }
 
 class Star {
-	private int x, y, startRadius, startTwinkle, pulseDir, twinkleDir;
-	private double radius;
-	private Color bodyCol;
 
-	public Star(int x, int y, int radius) {
+	/* A twinkly background star. Its size and brightness follow a loop, so how it looks depends only on how
+	   far through that loop it is (its phase), which lets the StarField draw it ahead of time. */
+
+	private int x, y, startRadius, startTwinkle;
+	private double radiusStart, twinkleStart;  // phases the Star starts its two loops at
+
+	public Star(int x, int y, int radius, Random rng) {
 		this.x = x;
 		this.y = y;
-		this.radius = startRadius = radius;
-		this.startTwinkle = (new Random()).nextInt(150) + 50;
-		this.bodyCol = new Color(200, 200, 200, startTwinkle);
-		this.pulseDir = twinkleDir = 1;
+		this.startRadius = radius;
+		this.startTwinkle = rng.nextInt(150) + 50;
+
+		// Start growing from radius and brightening from startTwinkle, like before
+		this.radiusStart = (double) (radius - 2) / (radius + 1) / 2;
+		this.twinkleStart = 0.25;
 	}
 
-	public void pulse() {
-		if ((int) this.radius == startRadius + 3 || (int) this.radius == 2) this.pulseDir *= -1;
-		this.radius += this.pulseDir * 0.05;
+	public int getRadius(double phase) {
 
-		if (this.bodyCol.getAlpha() == startTwinkle + 50 || this.bodyCol.getAlpha() == startTwinkle - 50) this.twinkleDir *= -1;
-		this.bodyCol = new Color(bodyCol.getRed(), bodyCol.getGreen(), bodyCol.getBlue(), bodyCol.getAlpha() + twinkleDir);
+		/* Returns the radius at a phase (0 to 1), swinging between 2 and 3 past the starting radius. */
+
+		return 2 + (int) ((this.startRadius + 1) * triangle(phase + this.radiusStart));
 	}
 
-	public void update(Graphics g) {
-		g.setColor(this.bodyCol);
-		g.fillOval(this.x - (int) this.radius, this.y - (int) this.radius, (int) this.radius * 2, (int) this.radius * 2);
+	public int getBrightness(double phase) {
+
+		/* Returns how bright the Star is at a phase (0 to 1), as how opaque it is (0 to 255). */
+
+		return this.startTwinkle + (int) Math.round(50 * (2 * triangle(phase + this.twinkleStart) - 1));
+	}
+
+	private static double triangle(double phase) {
+
+		/* Returns a wave that climbs from 0 to 1 and back over each whole phase. */
+
+		double p = phase - Math.floor(phase);
+		return 1 - Math.abs(2 * p - 1);
+	}
+
+	public void update(Graphics g, double phase) {
+
+		/* Draws the Star as it looks at a phase, over black. */
+
+		int radius = this.getRadius(phase);
+		int grey = 200 * this.getBrightness(phase) / 255;  // what the see-through grey came out as over black
+		g.setColor(Palette.grey(grey));
+		g.fillOval(this.x - radius, this.y - radius, radius * 2, radius * 2);
 	}
 }
 
-class Space extends JPanel implements ActionListener, KeyListener {
+class Space extends JPanel implements KeyListener, GameLoop.Simulation {
 
 	/* Used for managing the rest of the active game objects. */
 
 	// Fields //
 
-	// Arraylists for the objects
-	private ArrayList<Ship> ships = new ArrayList<>();
-	private ArrayList<Asteroid> asteroids = new ArrayList<>();
-	private ArrayList<Ship.Bullet> bullets = new ArrayList<>();
-	private ArrayList<Space.Wall> walls = new ArrayList<>();
-	private ArrayList<Star> stars = new ArrayList<>();
-
-	// Game score
-	private int score;
+	// The game being played, either here or (in a networked game) by a NetServer that the client gets snapshots from
+	private GameSession session;
+	private NetServer server;  // if this computer is hosting
+	private NetClient client;
+	private GameLoop netLoop;  // ticks the client and draws its World
+	private StarField starField = new StarField(1280, 720);
+	private ScoreBanner scoreBanner = new ScoreBanner(new Font("Monospaced", Font.BOLD, 40), Color.white);
+	private PerfOverlay perfOverlay;  // made the first time F3 is pressed
+	private boolean perfOverlayShown;  // whether it was drawn on the last frame
+	private boolean timeFrames;  // whether frames are being timed for a FrameBudgetEvent
+
+	// Only what changed since the buffer being drawn into was last drawn is drawn again
+	private DamageMap damage = new DamageMap(1280, 720, 0.5);
+	private final Rectangle bounds = new Rectangle();  // reused for each thing's bounds
 
 	// Things to work with events
-	private Timer timer, asteroidsTimer;
+	private final Object worldLock = new Object();  // held by the loop while ticking and by whoever is drawing
+	private volatile double alpha = 1;  // how far between the last two ticks to draw
 	private boolean[] keys;
 
-	private Image background;
+	// Frames are drawn straight into this while the game is on, and Swing only takes over once it ends
+	private GameCanvas canvas = new GameCanvas(1280, 720, 2);
+	private GameCanvas.Painter painter = g -> this.paintFrame(g, canvas.getBufferAge());
+	private Runnable focusRequest = () -> canvas.requestFocusInWindow();
+	private Runnable hideCanvas = () -> canvas.setVisible(false);
 
-	// For random fun
-	private Random rng = new Random();
+	private Icon background;
+
+	// Games are saved here to be played back later, if the replay.dir property is set (e.g. -Dreplay.dir=Replays)
+	private String replayDir = System.getProperty("replay.dir");
 
 	public Space() {
 
@@ -752,271 +1764,325 @@ class Space extends JPanel implements ActionListener, KeyListener {
 		// Use null LM
 		this.setLayout(null);
 
-		this.background = new ImageIcon("Images/Background_GameScreen.png").getImage().getScaledInstance(1280, 720, Image.SCALE_DEFAULT);
+		// The Canvas sits over the whole panel and takes the keyboard while the game is on
+		canvas.setLocation(0, 0);
+		canvas.addKeyListener(this);
+		canvas.setVisible(false);
+		this.add(canvas);
+
+		this.background = Assets.icon("Background_GameScreen.png", 1280, 720);
 	}
 
 	public void init(int difficulty, int playerCount) {
 
 		/* Initializes the Space for game activity. */
 
-		// Reset all the values
-		this.score = 0;
-		Asteroid.resetWeight();
-		Asteroid.setMaxWeight(30 + 18 * (difficulty - 1));
+		// Tear down the old game before anything else
+		this.dispose();
 
-		// Clear all lists
-		this.asteroids.clear();
-		this.ships.clear();
-		this.bullets.clear();
+		// Everything random in the game (stars included) comes from this one seed
+		long seed = System.nanoTime();
+		starField.reset(100, new GameRandom(seed));
+		damage.reset();  // the keyframes are drawn afresh into the same images
 
-		// Add in players
-		for (int i = 0; i < playerCount; i++) {
-			this.addShip(new Ship(620, 260 + i * 100, 0.05, 0.995, 0.1));
-		}
+		// Start the new game
+		Arrays.fill(keys, false);
+		session = new GameSession(difficulty, playerCount, seed, keys, this, worldLock, 60);
+		if (replayDir != null) session.setRecorder(new ReplayRecorder(seed, difficulty, playerCount));
+		canvas.setVisible(true);
+		session.start();
+	}
 
-		// Add in walls
-		walls.add(new Wall(-20, 0, 30, 720));
-		walls.add(new Wall(1270, 0, 30, 720));
-		walls.add(new Wall(0, -20, 1280, 30));
-		walls.add(new Wall(0, 710, 1280, 30));
+	public void playReplay(File file) throws IOException {
 
-		for (int i = 0; i < 100; i++) {
-			stars.add(new Star(rng.nextInt(1280), rng.nextInt(720), rng.nextInt(3) + 3));
-		}
+		/* Initializes the Space to show a recorded game, played at the speed it was played at. */
+
+		ReplayPlayer player = new ReplayPlayer(file);
+		this.dispose();
 
-		// Start timers
-		timer = new Timer(10, this);
-		timer.start();
-		asteroidsTimer = new Timer(5, this);
-		asteroidsTimer.start();
+		starField.reset(100, new GameRandom(player.getSeed()));
+		damage.reset();
+		Arrays.fill(keys, false);
+		session = new GameSession(player.getDifficulty(), player.getPlayerCount(), player.getSeed(), keys, this, worldLock, 60);
+		session.setPlayer(player);
+		canvas.setVisible(true);
+		session.start();
 	}
 
-	private void spawnAsteroid() {
+	public void host(int difficulty, int port) throws IOException {
 
-		/* Spawns a new Asteroid and checks its viability. */
+		/* Initializes the Space for a 2 player game that another computer can join on a given port, and joins it. */
+
+		this.dispose();  // the last game might still be holding the port
+		NetServer server = new NetServer(new java.net.InetSocketAddress(port), difficulty, 2, System.nanoTime());
+		try {
+			this.join(new java.net.InetSocketAddress(java.net.InetAddress.getLoopbackAddress(), port));
+		} catch (IOException e) {
+			server.close();
+			throw e;
+		}
+		this.server = server;
+		server.start();
+	}
 
-		Asteroid newA;
-		int aX, aY, aVX, aVY;
+	public void join(java.net.SocketAddress address) throws IOException {
 
-		// Pick a random side to start on
-		int side = rng.nextInt(4);
+		/* Initializes the Space to play in a game hosted by a NetServer at a given address. The World drawn is
+		   the client's copy, and the keyboard is sent to the server as this player's controls. */
 
-		// Set a location based on the side taken
-		switch (side) {
-			case 0:  // left
-				aX = rng.nextInt(150) + 150;
-				aY = rng.nextInt(720);
-				aVX = rng.nextInt(20) + 5;
-				aVY = rng.nextInt(30) - 30;
-				break;
-			case 1:  // top
-				aX = rng.nextInt(1280);
-				aY = rng.nextInt(150) + 150;
-				aVX = rng.nextInt(30) - 30;
-				aVY = rng.nextInt(20) + 5;
-				break;
-			case 2:  // right
-				aX = 1280 - (rng.nextInt(150) + 150);
-				aY = rng.nextInt(720);
-				aVX = -(rng.nextInt(20) + 5);
-				aVY = rng.nextInt(30) - 30;
-				break;
-			default:  // bottom
-				aX = 1280 - (rng.nextInt(150) + 150);
-				aY = 720 - (rng.nextInt(720));
-				aVX = -(rng.nextInt(20) + 5);
-				aVY = -(rng.nextInt(30) - 30);
-				break;
+		NetClient client = new NetClient(address);
+		this.dispose();
 
-		}
+		starField.reset(100, new GameRandom(System.nanoTime()));
+		damage.reset();
+		Arrays.fill(keys, false);
+		this.client = client;
+		netLoop = new GameLoop(this, worldLock, World.TICK_MILLIS, 60);
+		canvas.setVisible(true);
+		netLoop.start();
+	}
 
-		// Make the asteroid
-		newA = new Asteroid(2, aX, aY, aVX / 10, aVY / 10, rng.nextDouble() / 100);
-		Asteroid.setWeight(Asteroid.getWeight() - 9);
+	public void pause() {
 
-		// Check for collisions and kill the asteroid if needed
+		/* Freezes the game in place. */
 
-		for (Asteroid asteroid : asteroids) {
-			if (Physics.collide(newA.getShape(), asteroid.getShape())) return;
-		}
+		if (session != null) session.pause();
+	}
 
-		for (Ship ship : ships) {
-			if (Physics.collide(newA.getShape(), ship.getShape())) return;
-		}
+	public void resume() {
 
-		for (Ship.Bullet bullet : bullets) {
-			if (Physics.collide(newA.getShape(), bullet.getShape())) return;
-		}
+		/* Carries on a paused game. */
 
-		Asteroid.setWeight(Asteroid.getWeight() + 9);
-		addAsteroid(newA);
+		if (session != null) session.resume();
 	}
 
-	private void addAsteroid(Asteroid a) {
+	public void dispose() {
 
-		/* Adds a Asteroid to the Space. */
+		/* Ends the current game, if there is one, and lets go of everything it was using. */
 
-		asteroids.add(a);
+		if (session != null) {
+			session.dispose();
+			this.saveReplay(session.getRecorder());
+		}
+		if (netLoop != null) netLoop.stop();
+		synchronized (worldLock) {
+			session = null;
+			this.closeNetwork();
+		}
+		canvas.setVisible(false);
 	}
 
-	private void addShip(Ship s) {
+	private void closeNetwork() {
 
-		/* Adds a Ship to the Space. */
+		/* Leaves the networked game, if there is one, closing the server too if this computer is hosting. Called
+		   holding worldLock, so nothing is drawn from the client's World as it's emptied. */
 
-		ships.add(s);
+		try {
+			if (client != null) client.close();
+			if (server != null) server.close();
+		} catch (IOException e) {
+			System.err.println("Couldn't leave the network game: " + e.getMessage());
+		}
+		server = null;
+		client = null;
+		netLoop = null;
 	}
 
-	private void queryCollisions() {
+	private void leave(String why) {
 
-		/* Checking for collisions between pairs of objects. */
+		/* Ends a networked game that can't carry on, from the loop's own thread. There's no World left to play
+		   afterwards, so hasGameEnded() is true and the restart button comes up to get back to the menus. */
 
-//		// Asteroids colliding
-//		for (int i = 0; i < asteroids.size(); i++) {
-//			for (int j = 0; j < i; j++) {
-//				if (Physics.collide(asteroids.get(i).getShape(), asteroids.get(j).getShape())) {
-//					Physics.colliding(asteroids.get(i), asteroids.get(j));
-//				}
-//			}
-//		}
+		System.err.println("Left the network game: " + why);
+		netLoop.stop();  // just stops it looping, since this is its thread
+		this.closeNetwork();
+	}
 
-		// Asteroids with ship
-		for (Asteroid asteroid : asteroids) {
-			for (Ship ship : ships) {
-				if (Physics.collide(asteroid.getShape(), ship.getShape())) {
-					Physics.colliding(ship, asteroid);
-				}
-			}
-		}
+	private void saveReplay(ReplayRecorder recorder) {
 
-		// Asteroids with bullets
-		for (Asteroid asteroid : asteroids) {
-			for (Ship.Bullet bullet : bullets) {
-				if (Physics.collide(asteroid.getShape(), bullet.getShape())) {
-					Physics.colliding(bullet, asteroid);
-				}
-			}
-		}
+		/* Saves a finished game's recording into the replay folder, named after its seed. */
 
-		// Bullets with walls
-		for (Ship.Bullet bullet : bullets) {
-			for (Wall wall : walls) {
-				if (Physics.collide(bullet.getShape(), wall.getShape())) {
-					Physics.colliding(bullet, wall);
-				}
-			}
+		if (recorder == null) return;
+		File file = new File(replayDir, String.format("%016x.replay", recorder.getSeed()));
+		try {
+			file.getParentFile().mkdirs();
+			recorder.save(file);
+		} catch (IOException e) {
+			System.err.println("Couldn't save replay " + file + ": " + e.getMessage());
 		}
 	}
 
-	private void playerAction(boolean[] keys) {
-
-		/* Queries the player for any possible actions. */
+	public boolean hasGameEnded() {
 
-		for (Ship ship : ships) {
-			ship.accelerate(keys);
-			Ship.Bullet tempBullet = ship.shoot(keys);
-			if (tempBullet != null) {
-				bullets.add(tempBullet);
-			}
+		/* Returns whether the game has ended or not. */
 
-			ship.move();
-		}
+		if (client != null) return client.getNewest() >= 0 && client.getWorld().hasGameEnded();  // not over before the first snapshot
+		return session == null || session.getWorld().hasGameEnded();
 	}
 
-	private void moveBullets() {
+	private World getWorld() {
 
-		/* Moves all Bullets in the Space. */
+		/* Returns the World being drawn, or null if there's no game. */
 
-		for (Ship.Bullet bullet : bullets) bullet.move();
+		if (client != null) return client.getWorld();
+		return session == null ? null : session.getWorld();
 	}
 
-	private void moveAsteroids() {
+	private void drawEntities(Graphics g, World world, double alpha) {
 
-		/* Moves all Asteroids in the Space. */
+		/* Draws all entities in a World onto a Graphics component. */
 
-		for (Asteroid asteroid : asteroids) asteroid.move();
+		for (Ship ship : world.getShips()) ship.update(g, this, alpha);
+		for (Asteroid asteroid : world.getAsteroids()) asteroid.update(g, alpha);
+		for (Ship.Bullet bullet : world.getBullets()) bullet.update(g, alpha);
 	}
 
-	private void moveStars() {
-		for (Star star : stars) star.pulse();
+	private void addDamage(World world, double alpha) {
+
+		/* Marks where every entity in a World is about to be drawn. */
+
+		for (Ship ship : world.getShips()) {
+			ship.getBounds(alpha, this.bounds);
+			this.damage.add(this.bounds);
+		}
+		for (Asteroid asteroid : world.getAsteroids()) {
+			asteroid.getBounds(alpha, this.bounds);
+			this.damage.add(this.bounds);
+		}
+		for (Ship.Bullet bullet : world.getBullets()) {
+			bullet.getBounds(alpha, this.bounds);
+			this.damage.add(this.bounds);
+		}
 	}
 
-	private void filterExistingObjects() {
+	@Override
+	public void tick() {
 
-		/* Removes nonexistent entities. */
+		/* Advances the Space's own scenery by one tick of game time. Called by the GameSession after it steps the
+		   World, or in a networked game by the GameLoop, in which case the client is ticked first. */
 
-		// Removes asteroids
-		for (int i = this.asteroids.size() - 1; i >= 0; i--) {
-			if (!asteroids.get(i).exists()) {
-				this.score += 100 + 100 * asteroids.get(i).getSize();
-				for (Asteroid asteroid : asteroids.get(i).shatter()) addAsteroid(asteroid);
-				asteroids.remove(i);
+		if (client != null) {
+			try {
+				client.tick(keys);
+				if (client.hasTimedOut()) this.leave("nothing heard from the host in " + NetClient.TIMEOUT_TICKS * World.TICK_MILLIS / 1000 + " seconds");
+			} catch (IOException e) {
+				this.leave(e.toString());  // e.g. PortUnreachableException, once the host has stopped listening
 			}
 		}
+		starField.tick();
+	}
 
-		// Removes ships
-		for (int i = this.ships.size() - 1; i >= 0; i--) {
-			if (!ships.get(i).exists()) {
-				ships.remove(i);
-			}
+	@Override
+	public void render(double alpha) {
+
+		/* Draws a frame alpha of the way between the last two ticks, straight onto the Canvas if it's up and
+		   through Swing otherwise. Called by the GameLoop. */
+
+		this.alpha = alpha;
+		FrameBudgetEvent event = Diagnostics.isRecording() ? FrameBudgetEvent.start() : null;
+		timeFrames = event != null;
+		long t = Diagnostics.start(timeFrames);
+		boolean presented = canvas.present(painter);
+		if (!presented) this.repaint();
+		Diagnostics.end(Diagnostics.FRAME, t);
+
+		World world = this.getWorld();
+		if (event != null && event.shouldCommit() && world != null) {
+			event.stars = Diagnostics.getLastNanos(Diagnostics.STARS);
+			event.draw = Diagnostics.getLastNanos(Diagnostics.DRAW);
+			event.asteroids = world.getAsteroids().size();
+			event.bullets = world.getBullets().size();
+			event.presented = presented;
+			event.pixels = damage.getLastPixels();
+			event.commit();
 		}
 
-		// Removes bullets
-		for (int i = this.bullets.size() - 1; i >= 0; i--) {
-			if (!bullets.get(i).exists()) {
-				bullets.remove(i);
-			}
+		// Step aside once the game is over so the restart button can be seen and clicked
+		if (this.hasGameEnded()) {
+			if (canvas.isVisible()) EventQueue.invokeLater(hideCanvas);
+		} else if (!canvas.isFocusOwner()) {
+			EventQueue.invokeLater(focusRequest);
 		}
 	}
 
-	private void setAsteroidSpawnRate() {
+	private void paintFrame(Graphics2D g, int bufferAge) {
 
-		/* Sets the spawn rate for Asteroids in the Space. */
+		/* Draws a frame of the Space into a buffer last drawn bufferAge frames ago (0 for one to draw whole). */
 
-		asteroidsTimer.setDelay(50 * Asteroid.getWeight() / Asteroid.getMaxWeight() + 500);
+		synchronized (worldLock) {
+			this.paintFrame(g, this.getWorld(), this.alpha, bufferAge);
+		}
 	}
 
-	public boolean hasGameEnded() {
+	void paintFrame(Graphics2D g, World world, double alpha, int bufferAge) {
 
-		/* Returns whether the game has ended or not. */
+		/* Draws a frame of a World alpha of the way between its last two ticks. The stars are the static layer:
+		   only where things were drawn in the frames since the buffer was last drawn, or are about to be now,
+		   is put back from them, and the entities are drawn over that. Entities only draw inside their own
+		   bounds, so they can be drawn whole, but the banner and overlay above them are clipped to what was put
+		   back, since they'd otherwise be drawn over themselves. */
 
-		return ships.isEmpty();
+		// Draw the background image and the Space
+//		this.background.paintIcon(this, g, 0, 0);
+		long t = Diagnostics.start(timeFrames);
+		Image layer = starField.getLayer();
+		damage.begin(world == null ? 0 : bufferAge, layer);  // with no World, nothing on top is kept track of
+		if (world != null) {
+			this.addDamage(world, alpha);
+			int changed = scoreBanner.refresh(world.getScore(), world.getAsteroids().getWeight());
+			if (changed > 0) damage.add(scoreBanner.getLeft(20), scoreBanner.getTop(40), changed, scoreBanner.getHeight());
+		}
+		boolean overlay = perfOverlay != null && Diagnostics.isEnabled() && world != null;
+		if (overlay && perfOverlay.refresh(world, damage) || overlay != perfOverlayShown) {
+			damage.add(900, 10, perfOverlay.getWidth(), perfOverlay.getHeight());
+		}
+		perfOverlayShown = overlay;
+		damage.restore(g, layer);
+		t = Diagnostics.end(Diagnostics.STARS, t);
+
+		// Anything that isn't drawn whole has to stay inside what was put back
+		boolean clipped = !damage.isFull();
+		Shape clip = clipped ? g.getClip() : null;
+		if (world != null) {
+			this.drawEntities(g, world, alpha);
+
+			// Displays score in the top left of the screen
+			if (!clipped) scoreBanner.draw(g, 20, 40);
+			else for (int i = 0; i < damage.getRectCount(); i++) {
+				if (damage.clip(g, i, scoreBanner.getLeft(20), scoreBanner.getTop(40), scoreBanner.getWidth(), scoreBanner.getHeight())) scoreBanner.draw(g, 20, 40);
+			}
+		}
+		if (overlay) {
+			if (!clipped) perfOverlay.draw(g, 900, 10);
+			else for (int i = 0; i < damage.getRectCount(); i++) {
+				if (damage.clip(g, i, 900, 10, perfOverlay.getWidth(), perfOverlay.getHeight())) perfOverlay.draw(g, 900, 10);
+			}
+		}
+		if (clipped) g.setClip(clip);
+		Diagnostics.end(Diagnostics.DRAW, t);
+		damage.end();
+		if (world == null) damage.reset();
 	}
 
-	public void update(Graphics g) {
-
-		/* Draws all entities in the Space onto a Graphics component.  */
+	public GameCanvas getCanvas() {
 
-		for (Ship ship : ships) ship.update(g, this);
-		for (Asteroid asteroid : asteroids) asteroid.update(g);
-		for (Ship.Bullet bullet : bullets) bullet.update(g);
-		for (Star star : stars) star.update(g);
+		/* Returns the Canvas frames are drawn onto. */
 
-		// Displays score in the top left of the screen
-		g.setColor(Color.white);
-		g.setFont(new Font("Monospaced", Font.BOLD, 40));
-		g.drawString(String.format("SCORE: %d ASTEROID MASS: %d", this.score, Asteroid.getWeight()), 20, 40);
+		return this.canvas;
 	}
 
-	@Override
-	public void actionPerformed(ActionEvent e) {
+	StarField getStarField() {
+
+		/* Returns the stars drawn behind the game. */
 
-		/* Processes all events from listeners in the Space. */
+		return this.starField;
+	}
 
-		Object src = e.getSource();
+	DamageMap getDamage() {
 
-		if (src == timer) {  // main timer
-			this.filterExistingObjects();
-			this.repaint();
-			this.requestFocusInWindow();
-			this.queryCollisions();
-			this.playerAction(keys);
-			this.moveBullets();
-			this.moveAsteroids();
-			this.moveStars();
-			this.setAsteroidSpawnRate();
-		} else if (src == asteroidsTimer) {  // asteroid spawn timer
-			if (Asteroid.getWeight() < Asteroid.getMaxWeight()) spawnAsteroid();
-		}
+		/* Returns what keeps track of which parts of frames need drawing. */
+
+		return this.damage;
 	}
 
 	// KeyListener methods
@@ -1031,9 +2097,13 @@ class Space extends JPanel implements ActionListener, KeyListener {
 	@Override
 	public void keyPressed(KeyEvent e) {
 
-		/* Updates a pressed key to true. */
+		/* Updates a pressed key to true. F3 switches the performance overlay on and off. */
 
 		keys[e.getKeyCode()] = true;
+		if (e.getKeyCode() == KeyEvent.VK_F3) {
+			if (perfOverlay == null) perfOverlay = new PerfOverlay();
+			Diagnostics.setEnabled(!Diagnostics.isEnabled());
+		}
 	}
 
 	@Override
@@ -1052,124 +2122,11 @@ class Space extends JPanel implements ActionListener, KeyListener {
 		// Clear the screen
 		super.paintComponent(g);
 
-		// Draw the background image and the Space
-//		g.drawImage(this.background, 0, 0, this);
-		g.setColor(Color.black);
-		g.fillRect(0, 0, 1280, 720);
-		Space.this.update(g);
-	}
-
-	private static class Physics {
-
-		/* Convenience class to deal with collisions. */
-
-		/* Checks if ship collided with an asteroid */
-
-		private static boolean collide(Shape a, Shape b) {
-
-			/* Checks if two shapes are colliding. */
-
-			Area areaA = new Area(a);
-			areaA.intersect(new Area(b));
-			return !areaA.isEmpty();
-		}
-
-		private static void colliding(Asteroid a, Asteroid b) {
-
-			/* Handles collision between two Asteroids. */
-
-			// Generates new velocities for the two, depending on their current velocities and their distances
-			double newAvx = a.getVX() + 0.01 * (a.getX() + a.getRectSize() / 2 - b.getX() - b.getRectSize() / 2) * (1 + b.getSize()) / (1 + a.getSize());
-			double newAvy = a.getVY() + 0.01 * (a.getY() + a.getRectSize() / 2 - b.getY() - b.getRectSize() / 2) * (1 + b.getSize()) / (1 + a.getSize());
-			double newBvx = b.getVX() + 0.01 * (b.getX() + b.getRectSize() / 2 - a.getX() - a.getRectSize() / 2) * (1 + a.getSize()) / (1 + b.getSize());
-			double newBvy = b.getVY() + 0.01 * (b.getY() + b.getRectSize() / 2 - a.getY() - a.getRectSize() / 2) * (1 + a.getSize()) / (1 + b.getSize());
-
-			// Sets the velocities
-			a.setVX(newAvx);
-			a.setVY(newAvy);
-			b.setVX(newBvx);
-			b.setVY(newBvy);
-		}
-
-		private static void colliding(Ship ship, Asteroid asteroid) {
-
-			/* Handles collision between a Ship and Asteroid. */
-
-			// Kills Ship and stops Asteroid
-			ship.setExists(false);
-			asteroid.setVX(0);
-			asteroid.setVY(0);
-		}
-
-		private static void colliding(Ship.Bullet bullet, Asteroid asteroid) {
-
-			/* Handles collision between a Bullet and Asteroid. */
-
-			// Kills the bullet
-			bullet.setExists(false);
-
-			// Damages and moves the Asteroid
-			asteroid.takeDmg(bullet.getDamage());
-			asteroid.setVX(asteroid.getVX() + bullet.getVX() / (25 * asteroid.getSize()));
-			asteroid.setVY(asteroid.getVY() + bullet.getVY() / (25 * asteroid.getSize()));
-		}
-
-		private static void colliding(Ship.Bullet bullet, Wall wall) {
-
-			/* Handles collision between a Bullet and Wall. */
-
-			if (wall.getWidth() > wall.getHeight()) {  // Checks if wall is vertical or horizontal
-				bullet.setVY(-bullet.getVY());
-			} else {
-				bullet.setVX(-bullet.getVX());
-			}
-
-			// Damages bullet
-			bullet.takeDmg();
-		}
-
-	}
-
-	private class Wall {
-
-		/* Used to make Wall objects, impervious barriers with some special effects. */
-
-		private int x, y, width, height;
-
-		private Rectangle rect;
-
-
-		public Wall(int x, int y, int width, int height) {
-
-			/* Constructs and returns a new Wall object. */
-
-			this.x = x;
-			this.y = y;
-			this.width = width;
-			this.height = height;
-			this.rect = new Rectangle(this.x, this.y, this.width, this.height);
-
-		}
-
-		public Rectangle getShape() {
-
-			/* Returns the Rectangle hitbox of the Wall. */
-
-			return this.rect;
-		}
-
-		public int getWidth() {
-
-			/* Returns the width of the Wall. */
-
-			return this.width;
-		}
-
-		public int getHeight() {
-
-			/* Returns the height of the Wall. */
-
-			return this.height;
+		// Only reached while the Canvas is hidden, i.e. before and after a game. Swing's buffer isn't the
+		// Canvas's, so the Canvas's next frame can't go by this one
+		synchronized (worldLock) {
+			this.paintFrame((Graphics2D) g, 0);
+			damage.reset();
 		}
 	}
 }
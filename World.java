@@ -0,0 +1,961 @@
+/*
+    Adam Mehdi & Syed Safwaan
+    World.java
+    The game itself, with none of the drawing or input handling attached.
+
+    Classes:
+    - World         Holds every object in play and steps the game forward one tick at a time
+    - > Physics     Convenience class to deal with collisions
+    - > Wall        A World component that involves barriers and interesting physics
+*/
+
+import java.awt.*;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+class World {
+
+	/* The headless half of the Space. Holds all the Ships, Asteroids and Bullets and runs the game rules on them,
+	   but never touches Swing, so it can be stepped as fast as the CPU allows (e.g. with java.awt.headless=true). */
+
+	// Fields //
+
+	public static final int WIDTH = 1280, HEIGHT = 720;
+	public static final int TICK_MILLIS = 10;  // game time covered by one step
+
+	// How a step spreads its work over the CPU (see setTickMode)
+	public static final int SERIAL = 0, PARALLEL = 1, AUTO = 2;
+	public static final int PARALLEL_THRESHOLD = 1000;  // Asteroids plus Bullets before AUTO goes parallel
+
+	// Snapshots (see writeSnapshot) round positions to 1/16 of a pixel and angles to 1/4096 of a turn
+	public static final int POSITION_STEPS = 16, ANGLE_STEPS = 4096;
+
+	// Bullet hits are timed to 1/65536 of a tick, so only the first thing in a Bullet's path is hit
+	public static final int IMPACT_STEPS = 1 << 16;
+
+	// Arraylists for the objects
+	private ArrayList<Ship> ships = new ArrayList<>();
+	private AsteroidStore asteroids = new AsteroidStore(256);
+	private ArrayList<Ship.Bullet> bullets = new ArrayList<>();
+	private ArrayList<Wall> walls = new ArrayList<>();
+
+	// Spent Bullets, kept to be fired again
+	private Pool<Ship.Bullet> bulletPool = new Pool<>(512, Ship.Bullet::new);
+
+	// Broad phase grids, rebuilt every tick
+	private SpatialHash shipGrid = new SpatialHash(WIDTH, HEIGHT, 80);
+	private SpatialHash bulletGrid = new SpatialHash(WIDTH, HEIGHT, 80);
+	private SpatialHash wallGrid = new SpatialHash(WIDTH, HEIGHT, 80);
+	private SpatialHash.Candidates candidates = new SpatialHash.Candidates();
+
+	// Broad phase for Asteroids against each other, kept sorted from one tick to the next
+	private SweepAndPrune asteroidSweep = new SweepAndPrune();
+	private int asteroidPairHits;  // how many of the sweep's pairs really collided last tick, for Diagnostics
+
+	// Parallel ticking. Every chunk finds hits into its own lists, which are then applied one chunk after
+	// another, so collisions are handled in exactly the order the serial loops would handle them.
+	private int tickMode = AUTO;
+	private ForkJoinPool forkJoinPool = ForkJoinPool.commonPool();
+	private Parallel parallel;  // made the first time a step goes parallel
+	private boolean parallelStep;  // whether the step under way is parallel
+	private int chunksUsed = 1;  // how many chunks the last loop was split into
+	private SpatialHash.Candidates[] chunkCandidates = {candidates};
+	private SpatialHash.Candidates[] shipHits = {new SpatialHash.Candidates()};  // pairs of (Asteroid, Ship)
+	private SpatialHash.Candidates[] bulletHits = {new SpatialHash.Candidates()};  // (Asteroid, Bullet, impact time) triples
+	private SpatialHash.Candidates[] wallHits = {new SpatialHash.Candidates()};  // (Bullet, Wall, impact time) triples
+	private int[] firstImpact = new int[64];  // per Bullet, the earliest of its impact times this tick
+	private int[] asteroidTests = {0}, wallTests = {0};  // narrow phase tests each chunk ran, for Diagnostics
+	private final Parallel.RangeBody asteroidHitFinder = this::findAsteroidHits;
+	private final Parallel.RangeBody wallHitFinder = this::findWallHits;
+	private final Parallel.RangeBody bulletMover = this::moveBullets;
+	private final Parallel.RangeBody asteroidMover = this::moveAsteroids;
+
+	// Game score
+	private int score;
+
+	// Game time
+	private long tick;
+	private int spawnDelay, spawnCountdown;  // asteroid spawning, in milliseconds of game time
+
+	// For random fun. Every random choice the World makes comes from here, so a seed replays a whole game
+	private GameRandom rng = new GameRandom(0);
+
+	// Constructor //
+
+	public World() {
+
+		/* Constructs and returns a new, empty World. */
+
+		// Add in walls
+		walls.add(new Wall(-20, 0, 30, HEIGHT));
+		walls.add(new Wall(WIDTH - 10, 0, 30, HEIGHT));
+		walls.add(new Wall(0, -20, WIDTH, 30));
+		walls.add(new Wall(0, HEIGHT - 10, WIDTH, 30));
+
+		this.asteroids.setRandom(this.rng);
+	}
+
+	public void init(int difficulty, int playerCount, long seed) {
+
+		/* Resets the World for a new game that will play out the same way every time for a given seed and input. */
+
+		this.setSeed(seed);
+		this.init(difficulty, playerCount);
+	}
+
+	public void init(int difficulty, int playerCount) {
+
+		/* Resets the World for a new game, carrying on with the random numbers from where they were. */
+
+		// Reset all the values
+		this.score = 0;
+		this.tick = 0;
+		this.spawnDelay = this.spawnCountdown = 5;
+		// Clear all lists
+		this.clear();
+		this.asteroids.setMaxWeight(30 + 18 * (difficulty - 1));
+
+		// Add in players
+		for (int i = 0; i < playerCount; i++) {
+			this.addShip(new Ship(i, 620, 260 + i * 100, 0.05, 0.995, 0.1));
+		}
+	}
+
+	public void clear() {
+
+		/* Empties the World of every Ship, Asteroid and Bullet, handing anything pooled back to its pool. */
+
+		this.asteroids.clear();
+		for (Ship ship : this.ships) if (ship.exists()) ship.setExists(false);  // keeps Ship.getCount() honest
+		this.ships.clear();
+		for (Ship.Bullet bullet : this.bullets) bulletPool.release(bullet);
+		this.bullets.clear();
+	}
+
+	public void step(boolean[] keys) {
+
+		/* Advances the World by one tick, with keys holding which keys are down. */
+
+		TickEvent event = Diagnostics.isRecording() ? TickEvent.start() : null;
+		long t = Diagnostics.start(event != null);
+		this.parallelStep = this.shouldGoParallel();
+		this.filterExistingObjects();
+		t = Diagnostics.end(Diagnostics.FILTER, t);
+		this.queryCollisions();
+		t = Diagnostics.end(Diagnostics.COLLIDE, t);
+		this.playerAction(keys);
+		t = Diagnostics.end(Diagnostics.PLAYERS, t);
+		this.moveBullets();
+		this.moveAsteroids();
+		t = Diagnostics.end(Diagnostics.MOVE, t);
+		this.setAsteroidSpawnRate();
+
+		// Asteroid spawning, counted in game time so it keeps pace with everything else
+		spawnCountdown -= TICK_MILLIS;
+		if (spawnCountdown <= 0) {
+			if (asteroids.getWeight() < asteroids.getMaxWeight()) spawnAsteroid();
+			spawnCountdown += spawnDelay;
+		}
+		Diagnostics.end(Diagnostics.SPAWN, t);
+
+		if (event != null && event.shouldCommit()) {
+			event.tick = this.tick;
+			event.filter = Diagnostics.getLastNanos(Diagnostics.FILTER);
+			event.collide = Diagnostics.getLastNanos(Diagnostics.COLLIDE);
+			event.players = Diagnostics.getLastNanos(Diagnostics.PLAYERS);
+			event.move = Diagnostics.getLastNanos(Diagnostics.MOVE);
+			event.spawn = Diagnostics.getLastNanos(Diagnostics.SPAWN);
+			event.ships = ships.size();
+			event.asteroids = asteroids.size();
+			event.bullets = bullets.size();
+			event.parallel = this.parallelStep;
+			event.commit();
+		}
+		this.tick++;
+	}
+
+	private void spawnAsteroid() {
+
+		/* Spawns a new Asteroid and checks its viability. */
+
+		Asteroid newA;
+		int aX, aY, aVX, aVY;
+		SpawnEvent event = Diagnostics.isRecording() ? SpawnEvent.start() : null;
+
+		// Pick a random side to start on
+		int side = rng.nextInt(4);
+
+		// Set a location based on the side taken
+		switch (side) {
+			case 0:  // left
+				aX = rng.nextInt(150) + 150;
+				aY = rng.nextInt(720);
+				aVX = rng.nextInt(20) + 5;
+				aVY = rng.nextInt(30) - 30;
+				break;
+			case 1:  // top
+				aX = rng.nextInt(1280);
+				aY = rng.nextInt(150) + 150;
+				aVX = rng.nextInt(30) - 30;
+				aVY = rng.nextInt(20) + 5;
+				break;
+			case 2:  // right
+				aX = 1280 - (rng.nextInt(150) + 150);
+				aY = rng.nextInt(720);
+				aVX = -(rng.nextInt(20) + 5);
+				aVY = rng.nextInt(30) - 30;
+				break;
+			default:  // bottom
+				aX = 1280 - (rng.nextInt(150) + 150);
+				aY = 720 - (rng.nextInt(720));
+				aVX = -(rng.nextInt(20) + 5);
+				aVY = -(rng.nextInt(30) - 30);
+				break;
+
+		}
+
+		// Make the asteroid
+		newA = asteroids.add(2, aX, aY, aVX / 10, aVY / 10, rng.nextDouble() / 100);
+		int a = newA.getIndex();
+
+		// Check for collisions and kill the asteroid if needed
+		String blocker = null;
+
+		for (int i = 0; i < a && blocker == null; i++) {
+			if (Physics.collide(asteroids, a, i)) blocker = "asteroid";
+		}
+
+		for (Ship ship : ships) {
+			if (blocker == null && Physics.collide(asteroids, a, ship.getShape())) blocker = "ship";
+		}
+
+		for (Ship.Bullet bullet : bullets) {
+			if (blocker == null && Physics.collide(asteroids, a, bullet.getShape())) blocker = "bullet";
+		}
+
+		if (blocker != null) asteroids.remove(a);
+
+		if (event != null && event.shouldCommit()) {
+			event.side = side;
+			event.x = aX;
+			event.y = aY;
+			event.rejectedBy = blocker;
+			event.weight = asteroids.getWeight();
+			event.commit();
+		}
+	}
+
+	void addAsteroid(Asteroid a) {
+
+		/* Adds a Asteroid to the World. */
+
+		asteroids.adopt(a);
+	}
+
+	void addShip(Ship s) {
+
+		/* Adds a Ship to the World. */
+
+		ships.add(s);
+	}
+
+	private void queryCollisions() {
+
+		/* Checking for collisions between pairs of objects. */
+
+		// Asteroids colliding, in the same order as going through every i and every j < i
+		asteroidSweep.update(asteroids);
+		asteroidPairHits = 0;
+		for (int k = 0; k < asteroidSweep.getPairCount(); k++) {
+			int i = asteroidSweep.getFirst(k), j = asteroidSweep.getSecond(k);
+			if (Physics.collide(asteroids, i, j)) {
+				Physics.colliding(asteroids.get(i), asteroids.get(j));
+				asteroidPairHits++;
+			}
+		}
+
+		// Refile everything that can be hit into the grids
+		shipGrid.clear();
+		for (int i = 0; i < ships.size(); i++) shipGrid.insert(i, ships.get(i).getShape());
+		bulletGrid.clear();
+		for (int i = 0; i < bullets.size(); i++) {
+			Ship.Bullet bullet = bullets.get(i);
+			bulletGrid.insert(i, sweptMinX(bullet), sweptMinY(bullet), sweptMaxX(bullet), sweptMaxY(bullet));
+		}
+		wallGrid.clear();
+		for (int i = 0; i < walls.size(); i++) wallGrid.insert(i, walls.get(i).getShape());
+
+		// Finding hits only reads, so it can be split up; handling them writes, so it can't
+		this.forRange(asteroids.size(), asteroidHitFinder);
+		this.forRange(bullets.size(), wallHitFinder);
+
+		// Asteroids with ship
+		for (int k = 0; k < chunksUsed; k++) {
+			SpatialHash.Candidates hits = shipHits[k];
+			for (int i = 0; i < hits.size(); i += 2) Physics.colliding(ships.get(hits.get(i + 1)), asteroids.get(hits.get(i)));
+		}
+
+		// A Bullet only hits the first thing in its path, whether that's an Asteroid or a Wall
+		if (firstImpact.length < bullets.size()) firstImpact = new int[Math.max(bullets.size(), firstImpact.length * 2)];
+		Arrays.fill(firstImpact, 0, bullets.size(), Integer.MAX_VALUE);
+		for (int k = 0; k < chunksUsed; k++) {
+			SpatialHash.Candidates hits = bulletHits[k];
+			for (int i = 0; i < hits.size(); i += 3) firstImpact[hits.get(i + 1)] = Math.min(firstImpact[hits.get(i + 1)], hits.get(i + 2));
+			hits = wallHits[k];
+			for (int i = 0; i < hits.size(); i += 3) firstImpact[hits.get(i)] = Math.min(firstImpact[hits.get(i)], hits.get(i + 2));
+		}
+
+		// Asteroids with bullets
+		for (int k = 0; k < chunksUsed; k++) {
+			SpatialHash.Candidates hits = bulletHits[k];
+			for (int i = 0; i < hits.size(); i += 3) {
+				int b = hits.get(i + 1);
+				if (hits.get(i + 2) != firstImpact[b]) continue;
+				firstImpact[b] = -1;  // dealt with, so a tie further on doesn't count too
+				Physics.colliding(bullets.get(b), asteroids.get(hits.get(i)));
+			}
+		}
+
+		// Bullets with walls
+		for (int k = 0; k < chunksUsed; k++) {
+			SpatialHash.Candidates hits = wallHits[k];
+			for (int i = 0; i < hits.size(); i += 3) {
+				int b = hits.get(i);
+				if (hits.get(i + 2) != firstImpact[b]) continue;
+				firstImpact[b] = -1;
+				Physics.colliding(bullets.get(b), walls.get(hits.get(i + 1)));
+			}
+		}
+
+		if (Diagnostics.isEnabled()) {
+			int tests = asteroidSweep.getPairCount(), hits = asteroidPairHits;
+			for (int k = 0; k < chunksUsed; k++) {
+				tests += asteroidTests[k] + wallTests[k];
+				hits += shipHits[k].size() / 2 + (bulletHits[k].size() + wallHits[k].size()) / 3;
+			}
+			Diagnostics.count(Diagnostics.TESTS, tests);
+			Diagnostics.count(Diagnostics.HITS, hits);
+		}
+	}
+
+	private void findAsteroidHits(int chunk, int from, int to) {
+
+		/* Finds which Ships and Bullets Asteroids from..to-1 are hitting, into chunk's hit lists. */
+
+		SpatialHash.Candidates found = chunkCandidates[chunk], ships = shipHits[chunk], bullets = bulletHits[chunk];
+		ships.clear();
+		bullets.clear();
+
+		// Asteroid polygons, all in one pair of arrays
+		int[] pointsX = asteroids.getPointsX(), pointsY = asteroids.getPointsY();
+		int tests = 0;
+
+		for (int a = from; a < to; a++) {
+			asteroids.updateShape(a);  // only this chunk touches slot a
+			int off = a * AsteroidStore.MAX_POINTS, n = asteroids.getPointCount(a);
+
+			shipGrid.query(pointsX, pointsY, off, n, found);
+			tests += found.size();
+			for (int i = 0; i < found.size(); i++) {
+				if (Physics.collide(asteroids, a, this.ships.get(found.get(i)).getShape())) {
+					ships.add(a);
+					ships.add(found.get(i));
+				}
+			}
+
+			bulletGrid.query(pointsX, pointsY, off, n, found);
+			tests += found.size();
+			for (int i = 0; i < found.size(); i++) {
+				double impact = Physics.sweep(asteroids, a, this.bullets.get(found.get(i)));
+				if (impact >= 0) {
+					bullets.add(a);
+					bullets.add(found.get(i));
+					bullets.add((int) (impact * IMPACT_STEPS));
+				}
+			}
+		}
+		asteroidTests[chunk] = tests;
+	}
+
+	private void findWallHits(int chunk, int from, int to) {
+
+		/* Finds which Walls Bullets from..to-1 are hitting, into chunk's hit list. */
+
+		SpatialHash.Candidates found = chunkCandidates[chunk], hits = wallHits[chunk];
+		hits.clear();
+
+		int tests = 0;
+		for (int b = from; b < to; b++) {
+			Ship.Bullet bullet = bullets.get(b);
+			wallGrid.query(sweptMinX(bullet), sweptMinY(bullet), sweptMaxX(bullet), sweptMaxY(bullet), found);
+			tests += found.size();
+			for (int i = 0; i < found.size(); i++) {
+				double impact = Physics.sweep(bullet, walls.get(found.get(i)));
+				if (impact >= 0) {
+					hits.add(b);
+					hits.add(found.get(i));
+					hits.add((int) (impact * IMPACT_STEPS));
+				}
+			}
+		}
+		wallTests[chunk] = tests;
+	}
+
+	private static int sweptMinX(Ship.Bullet bullet) {
+
+		/* Returns the left of the box around everywhere a Bullet has been in its last move. */
+
+		return (int) Math.floor(Math.min(bullet.getPrevX(), bullet.getX()));
+	}
+
+	private static int sweptMinY(Ship.Bullet bullet) {
+
+		/* Returns the top of the box around everywhere a Bullet has been in its last move. */
+
+		return (int) Math.floor(Math.min(bullet.getPrevY(), bullet.getY()));
+	}
+
+	private static int sweptMaxX(Ship.Bullet bullet) {
+
+		/* Returns the right of the box around everywhere a Bullet has been in its last move. */
+
+		return (int) Math.ceil(Math.max(bullet.getPrevX(), bullet.getX())) + bullet.getRadius() * 2;
+	}
+
+	private static int sweptMaxY(Ship.Bullet bullet) {
+
+		/* Returns the bottom of the box around everywhere a Bullet has been in its last move. */
+
+		return (int) Math.ceil(Math.max(bullet.getPrevY(), bullet.getY())) + bullet.getRadius() * 2;
+	}
+
+	private void playerAction(boolean[] keys) {
+
+		/* Queries the player for any possible actions. */
+
+		for (Ship ship : ships) {
+			ship.accelerate(keys);
+			Ship.Bullet tempBullet = ship.shoot(keys, bulletPool);
+			if (tempBullet != null) {
+				bullets.add(tempBullet);
+			}
+
+			ship.move();
+		}
+	}
+
+	private void moveBullets() {
+
+		/* Moves all Bullets in the World. */
+
+		this.forRange(bullets.size(), bulletMover);
+	}
+
+	private void moveBullets(int chunk, int from, int to) {
+
+		/* Moves Bullets from..to-1. */
+
+		for (int i = from; i < to; i++) bullets.get(i).move();
+	}
+
+	private void moveAsteroids() {
+
+		/* Moves all Asteroids in the World. */
+
+		this.forRange(asteroids.size(), asteroidMover);
+	}
+
+	private void moveAsteroids(int chunk, int from, int to) {
+
+		/* Moves Asteroids from..to-1. */
+
+		for (int i = from; i < to; i++) asteroids.move(i);
+	}
+
+	private boolean shouldGoParallel() {
+
+		/* Decides whether this step should be split over the ForkJoinPool. */
+
+		if (this.tickMode == PARALLEL) return true;
+		if (this.tickMode == SERIAL) return false;
+
+		// Forking costs a few microseconds a loop, which only pays off with plenty to do and somewhere to do it
+		return this.forkJoinPool.getParallelism() > 1 && asteroids.size() + bullets.size() >= PARALLEL_THRESHOLD;
+	}
+
+	private void forRange(int n, Parallel.RangeBody body) {
+
+		/* Runs body over 0..n-1, split into chunks if this step is parallel and as one chunk otherwise. */
+
+		if (!this.parallelStep) {
+			this.chunksUsed = 1;
+			body.run(0, 0, n);
+			return;
+		}
+
+		if (this.parallel == null) {
+			this.parallel = new Parallel(this.forkJoinPool, this.forkJoinPool.getParallelism() * 4);
+			int chunks = this.parallel.getChunkCount();
+			this.chunkCandidates = Arrays.copyOf(this.chunkCandidates, chunks);
+			this.shipHits = Arrays.copyOf(this.shipHits, chunks);
+			this.bulletHits = Arrays.copyOf(this.bulletHits, chunks);
+			this.wallHits = Arrays.copyOf(this.wallHits, chunks);
+			this.asteroidTests = new int[chunks];
+			this.wallTests = new int[chunks];
+			for (int i = 1; i < chunks; i++) {
+				this.chunkCandidates[i] = new SpatialHash.Candidates();
+				this.shipHits[i] = new SpatialHash.Candidates();
+				this.bulletHits[i] = new SpatialHash.Candidates();
+				this.wallHits[i] = new SpatialHash.Candidates();
+			}
+		}
+		this.chunksUsed = this.parallel.getChunkCount();
+		this.parallel.forRange(n, body);
+	}
+
+	public void setSeed(long seed) {
+
+		/* Seeds every random choice the World makes, so two Worlds seeded alike play out alike. */
+
+		this.rng.setSeed(seed);
+	}
+
+	public int getStateSize() {
+
+		/* Returns how many bytes writeState will write. */
+
+		return 36 + asteroids.getStateSize() + ships.size() * Ship.STATE_BYTES + bullets.size() * Ship.Bullet.STATE_BYTES;
+	}
+
+	public void writeState(ByteBuffer out) {
+
+		/* Writes the whole state of the World to a buffer, enough for readState to carry on exactly from here. */
+
+		out.putInt(this.score).putLong(this.tick).putInt(this.spawnDelay).putInt(this.spawnCountdown);
+		out.putLong(this.rng.getState());
+		asteroids.writeState(out);
+		out.putInt(ships.size());
+		for (Ship ship : ships) ship.writeState(out);
+		out.putInt(bullets.size());
+		for (Ship.Bullet bullet : bullets) bullet.writeState(out);
+	}
+
+	public void readState(ByteBuffer in) {
+
+		/* Puts the World back to a state written by writeState. Ships, Bullets and Asteroid handles are reused where they can be. */
+
+		this.score = in.getInt();
+		this.tick = in.getLong();
+		this.spawnDelay = in.getInt();
+		this.spawnCountdown = in.getInt();
+		this.rng.setState(in.getLong());
+		asteroids.readState(in);
+
+		// Ships only ever go away during a game, so the ones still here line up with the start of the list
+		int shipCount = in.getInt();
+		for (int i = 0; i < shipCount; i++) {
+			Ship old = i < ships.size() ? ships.get(i) : null;
+			Ship ship = Ship.readState(in, old);
+			if (old == null) {
+				ships.add(ship);
+			} else if (ship != old) {
+				if (old.exists()) old.setExists(false);
+				ships.set(i, ship);
+			}
+		}
+		while (ships.size() > shipCount) {
+			Ship ship = ships.remove(ships.size() - 1);
+			if (ship.exists()) ship.setExists(false);
+		}
+
+		int bulletCount = in.getInt();
+		while (bullets.size() > bulletCount) bulletPool.release(bullets.remove(bullets.size() - 1));
+		while (bullets.size() < bulletCount) bullets.add(bulletPool.acquire());
+		for (Ship.Bullet bullet : bullets) bullet.readState(in);
+	}
+
+	public int getSnapshotSize() {
+
+		/* Returns how many ints writeSnapshot will write. */
+
+		return 4 + asteroids.getSnapshotSize() + ships.size() * Ship.SNAPSHOT_INTS + bullets.size() * Ship.Bullet.SNAPSHOT_INTS;
+	}
+
+	public void writeSnapshot(IntBuffer out) {
+
+		/* Writes what the World looks like to a buffer, rounded off (see quantise) and with nothing that's only
+		   needed to carry on playing. It's enough for readSnapshot to draw the same picture somewhere else. */
+
+		out.put(this.score).put((int) this.tick);
+		asteroids.writeSnapshot(out);
+		out.put(ships.size());
+		for (Ship ship : ships) ship.writeSnapshot(out);
+		out.put(bullets.size());
+		for (Ship.Bullet bullet : bullets) bullet.writeSnapshot(out);
+	}
+
+	public void readSnapshot(IntBuffer in) {
+
+		/* Makes the World look like a snapshot written by writeSnapshot. The World can be drawn afterwards, but
+		   not stepped, since velocities and the like aren't in snapshots. */
+
+		this.score = in.get();
+		this.tick = in.get();
+		asteroids.readSnapshot(in);
+
+		int shipCount = in.get();
+		for (int i = 0; i < shipCount; i++) {
+			Ship old = i < ships.size() ? ships.get(i) : null;
+			Ship ship = Ship.readSnapshot(in, old);
+			if (old == null) {
+				ships.add(ship);
+			} else if (ship != old) {
+				if (old.exists()) old.setExists(false);
+				ships.set(i, ship);
+			}
+		}
+		while (ships.size() > shipCount) {
+			Ship ship = ships.remove(ships.size() - 1);
+			if (ship.exists()) ship.setExists(false);
+		}
+
+		int bulletCount = in.get();
+		while (bullets.size() > bulletCount) bulletPool.release(bullets.remove(bullets.size() - 1));
+		while (bullets.size() < bulletCount) bullets.add(bulletPool.acquire());
+		for (Ship.Bullet bullet : bullets) bullet.readSnapshot(in);
+	}
+
+	static boolean isSnapshot(IntBuffer in) {
+
+		/* Returns whether what's left in a buffer is something readSnapshot can read: every count fits what
+		   follows it, and every Asteroid shape and Ship ID is one that exists. Doesn't move the buffer. */
+
+		int at = in.position() + 2, end = in.limit();
+		if (at >= end) return false;
+		int asteroids = in.get(at++);
+		if (asteroids < 0 || at + (long) asteroids * AsteroidStore.SNAPSHOT_INTS >= end) return false;
+		for (int i = 0; i < asteroids; i++, at += AsteroidStore.SNAPSHOT_INTS) {
+			int look = in.get(at + 3);
+			if ((look & 3) > 2 || (look >> 2 & 3) > 2) return false;
+		}
+
+		int ships = in.get(at++);
+		if (ships < 0 || at + (long) ships * Ship.SNAPSHOT_INTS >= end) return false;
+		for (int i = 0; i < ships; i++, at += Ship.SNAPSHOT_INTS) {
+			int ID = in.get(at);
+			if (ID < 0 || ID >= Palette.SHIP_BODIES.length) return false;
+		}
+
+		int bullets = in.get(at++);
+		return bullets >= 0 && at + (long) bullets * Ship.Bullet.SNAPSHOT_INTS == end;
+	}
+
+	static int quantise(double position) {
+
+		/* Returns a position rounded to the nearest snapshot step. */
+
+		return (int) Math.round(position * POSITION_STEPS);
+	}
+
+	static double unquantise(int position) {
+
+		/* Returns the position a snapshot step stands for. */
+
+		return (double) position / POSITION_STEPS;
+	}
+
+	static int quantiseAngle(double angle) {
+
+		/* Returns an angle in radians rounded to the nearest snapshot step, between 0 and ANGLE_STEPS. */
+
+		return Math.floorMod(Math.round(angle * ANGLE_STEPS / (2 * Math.PI)), ANGLE_STEPS);
+	}
+
+	static double unquantiseAngle(int angle) {
+
+		/* Returns the angle in radians a snapshot step stands for. */
+
+		return angle * 2 * Math.PI / ANGLE_STEPS;
+	}
+
+	public GameRandom getRandom() {
+
+		/* Returns where the World gets its random numbers. */
+
+		return this.rng;
+	}
+
+	public void setTickMode(int tickMode) {
+
+		/* Sets whether steps run SERIAL, PARALLEL, or pick for themselves (AUTO, the default). */
+
+		this.tickMode = tickMode;
+	}
+
+	public void setForkJoinPool(ForkJoinPool forkJoinPool) {
+
+		/* Sets the pool parallel steps run on (the common pool by default). */
+
+		this.forkJoinPool = forkJoinPool;
+		this.parallel = null;
+	}
+
+	private void filterExistingObjects() {
+
+		/* Removes nonexistent entities. */
+
+		// Removes asteroids (the last one is swapped into the gap, so nothing has to shuffle down)
+		ShatterEvent shatter = Diagnostics.isRecording() ? ShatterEvent.start() : null;
+		int destroyed = 0, pieces = 0, largest = -1, scoreBefore = this.score;
+		for (int i = this.asteroids.size() - 1; i >= 0; i--) {
+			if (!asteroids.exists(i)) {
+				int size = asteroids.getSize(i);
+				this.score += 100 + 100 * size;
+				asteroids.shatter(i);
+				asteroids.remove(i);
+				destroyed++;
+				if (size > 0) pieces += 3;
+				largest = Math.max(largest, size);
+			}
+		}
+		if (shatter != null && destroyed > 0 && shatter.shouldCommit()) {
+			shatter.tick = this.tick;
+			shatter.destroyed = destroyed;
+			shatter.pieces = pieces;
+			shatter.largestSize = largest;
+			shatter.scoreGained = this.score - scoreBefore;
+			shatter.commit();
+		}
+
+		// Removes ships
+		for (int i = this.ships.size() - 1; i >= 0; i--) {
+			if (!ships.get(i).exists()) {
+				ships.remove(i);
+			}
+		}
+
+		// Removes bullets
+		for (int i = this.bullets.size() - 1; i >= 0; i--) {
+			if (!bullets.get(i).exists()) {
+				bulletPool.release(bullets.remove(i));
+			}
+		}
+	}
+
+	private void setAsteroidSpawnRate() {
+
+		/* Sets the spawn rate for Asteroids in the World. */
+
+		spawnDelay = 50 * asteroids.getWeight() / asteroids.getMaxWeight() + 500;
+	}
+
+	public boolean hasGameEnded() {
+
+		/* Returns whether the game has ended or not. */
+
+		return ships.isEmpty();
+	}
+
+	// Accessors //
+
+	public ArrayList<Ship> getShips() {
+
+		/* Returns the Ships in the World. */
+
+		return this.ships;
+	}
+
+	public AsteroidStore getAsteroids() {
+
+		/* Returns the Asteroids in the World. */
+
+		return this.asteroids;
+	}
+
+	public ArrayList<Ship.Bullet> getBullets() {
+
+		/* Returns the Bullets in the World. */
+
+		return this.bullets;
+	}
+
+	public Pool<Ship.Bullet> getBulletPool() {
+
+		/* Returns the pool of spare Bullets. */
+
+		return this.bulletPool;
+	}
+
+	public int getScore() {
+
+		/* Returns the game score. */
+
+		return this.score;
+	}
+
+	public long getTick() {
+
+		/* Returns the number of ticks since the game started. */
+
+		return this.tick;
+	}
+
+	static class Physics {
+
+		/* Convenience class to deal with collisions. */
+
+		/* Checks if ship collided with an asteroid */
+
+		static boolean collide(Shape a, Shape b) {
+
+			/* Checks if two shapes are colliding. */
+
+			if (a instanceof Polygon && b instanceof Polygon) return Collider.collide((Polygon) a, (Polygon) b);
+			if (a instanceof Polygon && b instanceof Rectangle) return Collider.collide((Polygon) a, (Rectangle) b);
+			if (a instanceof Rectangle && b instanceof Polygon) return Collider.collide((Polygon) b, (Rectangle) a);
+			return Collider.areas(a, b);
+		}
+
+		static boolean collide(AsteroidStore asteroids, int a, Polygon p) {
+
+			/* Checks if Asteroid a of a store is colliding with a Polygon. */
+
+			asteroids.updateShape(a);
+			return Collider.collide(asteroids.getPointsX(), asteroids.getPointsY(), a * AsteroidStore.MAX_POINTS, asteroids.getPointCount(a), p.xpoints, p.ypoints, 0, p.npoints);
+		}
+
+		static boolean collide(AsteroidStore asteroids, int a, int b) {
+
+			/* Checks if two Asteroids of a store are colliding. */
+
+			asteroids.updateShape(a);
+			asteroids.updateShape(b);
+			int[] pointsX = asteroids.getPointsX(), pointsY = asteroids.getPointsY();
+			return Collider.collide(pointsX, pointsY, a * AsteroidStore.MAX_POINTS, asteroids.getPointCount(a), asteroids.isConvex(a), asteroids.getTriangles(a),
+				pointsX, pointsY, b * AsteroidStore.MAX_POINTS, asteroids.getPointCount(b), asteroids.isConvex(b), asteroids.getTriangles(b));
+		}
+
+		static double sweep(AsteroidStore asteroids, int a, Ship.Bullet bullet) {
+
+			/* Returns how far through its last move (0 to 1) a Bullet first touched Asteroid a, or -1 if it didn't.
+			   The Bullet is the circle it's drawn as, swept along its path, so it can't skip through anything. */
+
+			asteroids.updateShape(a);
+			double r = bullet.getRadius();
+			return Collider.sweepCircle(bullet.getPrevX() + r, bullet.getPrevY() + r, bullet.getX() + r, bullet.getY() + r, r,
+				asteroids.getPointsX(), asteroids.getPointsY(), a * AsteroidStore.MAX_POINTS, asteroids.getPointCount(a));
+		}
+
+		static double sweep(Ship.Bullet bullet, Wall wall) {
+
+			/* Returns how far through its last move (0 to 1) a Bullet first touched a Wall, or -1 if it didn't.
+			   A Bullet heading back out of a Wall it bounced off isn't counted again. */
+
+			Rectangle rect = wall.getShape();
+			double r = bullet.getRadius(), x = bullet.getX() + r, y = bullet.getY() + r;
+			boolean heading = wall.getWidth() > wall.getHeight() ? (rect.y + rect.height / 2.0 - y) * bullet.getVY() > 0 : (rect.x + rect.width / 2.0 - x) * bullet.getVX() > 0;
+			if (!heading) return -1;
+			return Collider.sweepCircleRect(bullet.getPrevX() + r, bullet.getPrevY() + r, x, y, r, rect.x, rect.y, rect.width, rect.height);
+		}
+
+		static void colliding(Asteroid a, Asteroid b) {
+
+			/* Handles collision between two Asteroids. */
+
+			// Generates new velocities for the two, depending on their current velocities and their distances
+			double newAvx = a.getVX() + 0.01 * (a.getX() + a.getRectSize() / 2 - b.getX() - b.getRectSize() / 2) * (1 + b.getSize()) / (1 + a.getSize());
+			double newAvy = a.getVY() + 0.01 * (a.getY() + a.getRectSize() / 2 - b.getY() - b.getRectSize() / 2) * (1 + b.getSize()) / (1 + a.getSize());
+			double newBvx = b.getVX() + 0.01 * (b.getX() + b.getRectSize() / 2 - a.getX() - a.getRectSize() / 2) * (1 + a.getSize()) / (1 + b.getSize());
+			double newBvy = b.getVY() + 0.01 * (b.getY() + b.getRectSize() / 2 - a.getY() - a.getRectSize() / 2) * (1 + a.getSize()) / (1 + b.getSize());
+
+			// Sets the velocities
+			a.setVX(newAvx);
+			a.setVY(newAvy);
+			b.setVX(newBvx);
+			b.setVY(newBvy);
+		}
+
+		static void colliding(Ship ship, Asteroid asteroid) {
+
+			/* Handles collision between a Ship and Asteroid. */
+
+			// Kills Ship and stops Asteroid
+			ship.setExists(false);
+			asteroid.setVX(0);
+			asteroid.setVY(0);
+		}
+
+		static void colliding(Ship.Bullet bullet, Asteroid asteroid) {
+
+			/* Handles collision between a Bullet and Asteroid. */
+
+			// Kills the bullet
+			bullet.setExists(false);
+
+			// Damages and moves the Asteroid
+			asteroid.takeDmg(bullet.getDamage());
+			asteroid.setVX(asteroid.getVX() + bullet.getVX() / (25 * asteroid.getSize()));
+			asteroid.setVY(asteroid.getVY() + bullet.getVY() / (25 * asteroid.getSize()));
+		}
+
+		static void colliding(Ship.Bullet bullet, Wall wall) {
+
+			/* Handles collision between a Bullet and Wall. */
+
+			if (wall.getWidth() > wall.getHeight()) {  // Checks if wall is vertical or horizontal
+				bullet.setVY(-bullet.getVY());
+			} else {
+				bullet.setVX(-bullet.getVX());
+			}
+
+			// Damages bullet
+			bullet.takeDmg();
+		}
+
+	}
+
+	static class Wall {
+
+		/* Used to make Wall objects, impervious barriers with some special effects. */
+
+		private int x, y, width, height;
+
+		private Rectangle rect;
+
+
+		public Wall(int x, int y, int width, int height) {
+
+			/* Constructs and returns a new Wall object. */
+
+			this.x = x;
+			this.y = y;
+			this.width = width;
+			this.height = height;
+			this.rect = new Rectangle(this.x, this.y, this.width, this.height);
+
+		}
+
+		public Rectangle getShape() {
+
+			/* Returns the Rectangle hitbox of the Wall. */
+
+			return this.rect;
+		}
+
+		public int getWidth() {
+
+			/* Returns the width of the Wall. */
+
+			return this.width;
+		}
+
+		public int getHeight() {
+
+			/* Returns the height of the Wall. */
+
+			return this.height;
+		}
+	}
+}